@@ -0,0 +1,75 @@
+package shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import shell.core.CommandExecutor;
+import shell.core.ShellSession;
+import shell.core.ShellState;
+import shell.parser.CommandParser;
+import shell.parser.Pipeline;
+
+// Cost of getting from a command line to the code that runs it, for commands the shell runs
+// itself: the BUILTINS/EXTERNALS lookup alone, CommandExecutor dispatch of an already parsed
+// command, and parse plus dispatch as the prompt does it. Output goes nowhere.
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    private static final String[] NAMES = {"echo", "cd", "cat", "pwd", "ls", "grep", "type", "history"};
+
+    @State(Scope.Benchmark)
+    public static class Command {
+        @Param({"echo hello world", "pwd", "type cd", "cat /dev/null", "hash -s"})
+        public String line;
+
+        CommandExecutor executor;
+        Pipeline parsed;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+            ShellSession session = new ShellSession(new File("/tmp"), Map.of("PATH", "/usr/bin:/bin"),
+                    InputStream.nullInputStream(), discard, discard);
+            executor = new CommandExecutor(session);
+            parsed = CommandParser.parse(line).getPipelines().get(0);
+        }
+    }
+
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        for (String name : NAMES) {
+            bh.consume(ShellState.builtinType(name));
+        }
+    }
+
+    @Benchmark
+    public int dispatch(Command command) throws IOException, InterruptedException {
+        return command.executor.execute(command.parsed);
+    }
+
+    @Benchmark
+    public int parseAndDispatch(Command command) throws IOException, InterruptedException {
+        return command.executor.execute(command.line);
+    }
+}
@@ -0,0 +1,92 @@
+package shell.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.core.ShellSession;
+
+// Log triage over a generated access log: the grep builtin against fork+exec grep, given the
+// file (builtin, external) and fed through a pipe (builtin-pipe, external-pipe). pattern is a
+// plain word, a case-insensitive word or a regex with a short required literal. Scores are
+// seconds per run; megabytes / score gives MB/s.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GrepBenchmark {
+
+    @Param({"builtin", "external", "builtin-pipe", "external-pipe"})
+    public String shape;
+
+    @Param({"-c ERROR", "-c -i timeout", "-c 'user=[0-9]+7 '"})
+    public String pattern;
+
+    @Param({"256"})
+    public int megabytes;
+
+    private Path dir;
+    private ShellSession session;
+    private String script;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("grep-bench");
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        String[] messages = {"request served", "cache miss", "upstream Timeout", "retrying", "connection reset"};
+        Random random = new Random(42);
+        long size = (long) megabytes << 20;
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("data"))) {
+            for (long written = 0; written < size; ) {
+                String line = "2024-05-0" + (1 + random.nextInt(9)) + " " + levels[random.nextInt(levels.length)]
+                        + " user=" + random.nextInt(100000) + " path=/api/v1/item/" + random.nextInt(1 << 20)
+                        + " " + messages[random.nextInt(messages.length)] + "\n";
+                out.write(line);
+                written += line.length();
+            }
+        }
+
+        String grep = new File("/bin/grep").canExecute() ? "/bin/grep -E" : "/usr/bin/grep -E";
+        script = switch (shape) {
+            case "builtin" -> "grep " + pattern + " data";
+            case "external" -> grep + " " + pattern + " data";
+            case "builtin-pipe" -> "cat data | grep " + pattern;
+            default -> "cat data | " + grep + " " + pattern;
+        };
+
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        session = new ShellSession(dir.toFile(), System.getenv(), InputStream.nullInputStream(), discard, discard);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("data"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int run() throws IOException, InterruptedException {
+        return session.run(script);
+    }
+}
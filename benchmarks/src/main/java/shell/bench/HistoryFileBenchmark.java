@@ -0,0 +1,113 @@
+package shell.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.history.HistoryJournal;
+import shell.history.MappedHistory;
+
+// HISTFILE I/O as HistoryManager does it, against a file of entries lines:
+//   load    - startup: map the file and index the newest entries (HISTSIZE = entries)
+//   readAll - history -r $HISTFILE
+//   save    - history -w $HISTFILE, rewriting every entry through a temp file and rename
+//   append  - 1000 interactive commands journaled and flushed, compactions included
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HistoryFileBenchmark {
+
+    private static final String[] TEMPLATES = {
+        "git commit -m 'fix issue %d'",
+        "cd /home/user/projects/app%d",
+        "cat build/output-%d.log | grep -i error | sort | uniq -c",
+        "ssh deploy@host%d.example.com",
+        "make test TARGET=module%d",
+    };
+
+    @Param({"10000", "1000000", "10000000"})
+    public int entries;
+
+    private Path dir;
+    private HistoryJournal journal;
+    private MappedHistory loaded;
+    private int appended;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history-bench");
+        Path file = dir.resolve("history");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < entries; i++) {
+                writer.write(String.format(TEMPLATES[random.nextInt(TEMPLATES.length)], random.nextInt(entries)));
+                writer.newLine();
+            }
+        }
+        journal = new HistoryJournal(file, Integer.MAX_VALUE);
+        loaded = mapHistory();
+        System.out.println("fileBytes=" + Files.size(file));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        try (var files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private MappedHistory mapHistory() throws IOException {
+        ByteBuffer mapped = journal.map(entries);
+        MappedHistory history = new MappedHistory();
+        history.load(mapped, entries);
+        return history;
+    }
+
+    @Benchmark
+    public String load() throws IOException {
+        MappedHistory history = mapHistory();
+        // The index is built lazily; reaching the newest entry waits for it like Up-arrow would
+        return history.get(history.size() - 1);
+    }
+
+    @Benchmark
+    public int readAll() throws IOException {
+        return journal.readAll().size();
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        journal.rewrite(loaded);
+    }
+
+    @Benchmark
+    public void append() {
+        for (int i = 0; i < 1000; i++) {
+            journal.append("echo appended " + appended++);
+        }
+        journal.flush();
+    }
+}
@@ -0,0 +1,74 @@
+package shell.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.terminal.TerminalOutput;
+
+// Time to print the history listing to /dev/null through a stream set up like System.out
+// (autoflush over a 128-byte buffer):
+//   printf   - what history did before: printf("%5d  %s%n") per entry
+//   buffered - TerminalOutput, hand-formatted into one buffer and written 64 KB at a time
+// Writing to a pty adds the terminal's own cost; run `time history > /dev/pts/N` for that.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HistoryRenderBenchmark {
+
+    @Param({"1000000"})
+    public int entries;
+
+    private List<String> history;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws FileNotFoundException {
+        history = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            history.add("cat build/output-" + i + ".log | grep -i error | sort | uniq -c");
+        }
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream("/dev/null"), 128), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        out.close();
+    }
+
+    @Benchmark
+    public boolean printf() {
+        for (int i = 0; i < history.size(); i++) {
+            out.printf("%5d  %s%n", i + 1, history.get(i));
+        }
+        return out.checkError();
+    }
+
+    @Benchmark
+    public boolean buffered() {
+        TerminalOutput listing = new TerminalOutput(out);
+        for (int i = 0; i < history.size(); i++) {
+            listing.append(i + 1, 5).append("  ").append(history.get(i)).newline();
+        }
+        return listing.checkError();
+    }
+}
@@ -0,0 +1,74 @@
+package shell.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.history.HistorySearch;
+import shell.history.MappedHistory;
+
+// Latency of one Ctrl-R keystroke (a search from the newest entry) as history grows.
+// "g" scans, "git" and "checkout" hit common trigrams, "deploy-7" matches a single entry
+// older than entries/10 others, and "zzzq" matches nothing and is answered from the index.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistorySearchBenchmark {
+
+    private static final String[] TEMPLATES = {
+        "git commit -m 'fix issue %d'",
+        "git checkout feature/branch-%d",
+        "cd /home/user/projects/app%d",
+        "ls -la /var/log/service%d",
+        "cat build/output-%d.log | grep -i error | sort | uniq -c",
+        "ssh deploy@host%d.example.com",
+        "make test TARGET=module%d",
+    };
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"g", "git", "checkout", "deploy-7", "zzzq"})
+    public String query;
+
+    private HistorySearch search;
+    private int end;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        MappedHistory history = new MappedHistory();
+        for (int i = 0; i < entries; i++) {
+            history.add(String.format(TEMPLATES[random.nextInt(TEMPLATES.length)], random.nextInt(entries)));
+        }
+        // A handful of old entries the selective query has to reach back for
+        for (int i = 0; i < 5; i++) {
+            history.add(0 == i ? "deploy-7 --dry-run" : "echo " + i);
+        }
+        for (int i = 0; i < entries / 10; i++) {
+            history.add("git status");
+        }
+        end = history.firstId() + history.size();
+        search = new HistorySearch(history);
+        // Index everything up front; keystrokes only ever see incremental catch-up
+        search.find("git", end, true);
+    }
+
+    @Benchmark
+    public int keystroke() {
+        return search.find(query, end, true);
+    }
+}
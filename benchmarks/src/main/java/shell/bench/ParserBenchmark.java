@@ -0,0 +1,69 @@
+package shell.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import shell.parser.CommandList;
+import shell.parser.CommandParser;
+
+// Parse throughput of CommandParser over a generated script. Scores are scripts per second;
+// multiply by scriptBytes (printed at setup) for bytes per second.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+    private static final String[] COMMANDS = {
+        "echo hello world",
+        "cat /var/log/syslog | grep -i error | sort | uniq -c",
+        "cd /tmp && ls -la || echo 'no tmp'",
+        "printf \"%s\\n\" \"quoted | pipe\" 'single ; quote' > out.txt 2>&1",
+        "grep -v '^#' config.ini | cut -d= -f1 >> keys.txt",
+        "sort < input.txt | head -20; echo done",
+        "find . -name \"*.java\" | xargs wc -l",
+        "echo escaped\\ space \"nested \\\"quote\\\"\" # trailing comment",
+    };
+
+    @Param({"1000", "100000"})
+    public int lines;
+
+    private String script;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(lines * 48);
+        for (int i = 0; i < lines; i++) {
+            sb.append(COMMANDS[random.nextInt(COMMANDS.length)]).append('\n');
+        }
+        script = sb.toString();
+        System.out.println("scriptBytes=" + script.length());
+    }
+
+    @Benchmark
+    public CommandList parseScript() {
+        return CommandParser.parse(script);
+    }
+
+    // Parsing alone leaves word text unmaterialised; this also builds every argv
+    @Benchmark
+    public void parseAndMaterialise(Blackhole bh) {
+        CommandList list = CommandParser.parse(script);
+        list.getPipelines().forEach(pipeline -> pipeline.getCommands().forEach(command -> bh.consume(command.argv())));
+    }
+}
@@ -0,0 +1,70 @@
+package shell.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.parser.CommandParser;
+import shell.parser.SyntaxException;
+
+// CommandParser on single lines built for the worst cases, each about size bytes: one huge
+// word, thousands of pipes or connectors, long escape and quote runs, and an unterminated
+// quote that only fails at the end. Time per line should stay linear in size.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserWorstCaseBenchmark {
+
+    @Param({"longWord", "manyPipes", "manyConnectors", "escapes", "quoteRuns", "unterminated"})
+    public String shape;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private String line;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(size + 64);
+        switch (shape) {
+            case "longWord" -> sb.append("echo ").append("x".repeat(size));
+            case "manyPipes" -> {
+                sb.append("cat in");
+                for (int i = 0; i < size / 6; i++) {
+                    sb.append(" | cat");
+                }
+            }
+            case "manyConnectors" -> {
+                sb.append("true");
+                for (int i = 0; i < size / 8; i++) {
+                    sb.append(i % 2 == 0 ? " && true" : " || true");
+                }
+            }
+            case "escapes" -> sb.append("echo ").append("\\\\\\ ".repeat(size / 4));
+            case "quoteRuns" -> sb.append("echo ").append("'a'\"b\"".repeat(size / 6));
+            default -> sb.append("echo \"").append("never closed ".repeat(size / 13));
+        }
+        line = sb.toString();
+    }
+
+    @Benchmark
+    public Object parse() {
+        try {
+            return CommandParser.parse(line);
+        } catch (SyntaxException e) {
+            return e;
+        }
+    }
+}
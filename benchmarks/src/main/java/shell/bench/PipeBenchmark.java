@@ -0,0 +1,150 @@
+package shell.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.pipeline.RingPipe;
+
+// Compares java.io piped streams with RingPipe for the hand-off between two pipeline stages.
+// throughput: ops/s x chunk gives MB/s. handoff: sample mode reports the p99 round trip.
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PipeBenchmark {
+
+    static final int CAPACITY = 64 * 1024;
+
+    // Returns {source} and stores the matching sink in out[0]
+    static InputStream open(String impl, OutputStream[] out) throws IOException {
+        if (impl.equals("ring")) {
+            RingPipe pipe = new RingPipe(CAPACITY);
+            out[0] = pipe.sink();
+            return pipe.source();
+        }
+        PipedOutputStream sink = new PipedOutputStream();
+        out[0] = sink;
+        return new PipedInputStream(sink, CAPACITY);
+    }
+
+    static Thread daemon(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @State(Scope.Thread)
+    public static class Drain {
+        @Param({"piped", "ring"})
+        public String impl;
+
+        @Param({"8192"})
+        public int chunk;
+
+        byte[] data;
+        OutputStream sink;
+        Thread consumer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            data = new byte[chunk];
+            OutputStream[] out = new OutputStream[1];
+            InputStream source = open(impl, out);
+            sink = out[0];
+            consumer = daemon(() -> {
+                byte[] buf = new byte[8192];
+                try {
+                    while (source.read(buf) != -1) {
+                        // discard
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            sink.close();
+            consumer.join(1000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Echo {
+        @Param({"piped", "ring"})
+        public String impl;
+
+        byte[] data = new byte[64];
+        OutputStream request;
+        InputStream reply;
+        Thread echo;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            OutputStream[] out = new OutputStream[1];
+            InputStream requests = open(impl, out);
+            request = out[0];
+            reply = open(impl, out);
+            OutputStream replies = out[0];
+            echo = daemon(() -> {
+                byte[] buf = new byte[8192];
+                try {
+                    int n;
+                    while ((n = requests.read(buf)) != -1) {
+                        replies.write(buf, 0, n);
+                        replies.flush();
+                    }
+                    replies.close();
+                } catch (IOException ignored) {
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            request.close();
+            echo.join(1000);
+            reply.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput(Drain state) throws IOException {
+        state.sink.write(state.data, 0, state.chunk);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int handoff(Echo state) throws IOException {
+        state.request.write(state.data);
+        state.request.flush();
+        int read = 0;
+        while (read < state.data.length) {
+            int n = state.reply.read(state.data, read, state.data.length - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,87 @@
+package shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.core.ShellSession;
+import shell.parser.CommandParser;
+import shell.parser.Pipeline;
+import shell.pipeline.PipelineExecutor;
+
+// PipelineExecutor moving a file through three-stage pipelines into a discarding session.
+// builtin keeps every stage in the JVM, mixed puts an external cat in the middle, and
+// external runs processes only with the last one pumped into the session's stdout. Scores
+// are seconds per run; megabytes / score gives MB/s.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelineBenchmark {
+
+    @Param({"builtin", "mixed", "external"})
+    public String shape;
+
+    @Param({"64"})
+    public int megabytes;
+
+    private Path dir;
+    private ShellSession session;
+    private Pipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pipeline-bench");
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(dir.resolve("data"))) {
+            for (int i = 0; i < megabytes; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+
+        String cat = new File("/bin/cat").canExecute() ? "/bin/cat" : "/usr/bin/cat";
+        String line = switch (shape) {
+            case "builtin" -> "cat data | cat | cat";
+            case "mixed" -> "cat data | " + cat + " | cat";
+            default -> cat + " data | " + cat + " | " + cat;
+        };
+        pipeline = CommandParser.parse(line).getPipelines().get(0);
+
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        session = new ShellSession(dir.toFile(), System.getenv(), InputStream.nullInputStream(), discard, discard);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("data"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int run() throws IOException, InterruptedException {
+        return PipelineExecutor.execute(pipeline, session);
+    }
+}
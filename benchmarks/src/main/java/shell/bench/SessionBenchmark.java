@@ -0,0 +1,87 @@
+package shell.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.core.ShellSession;
+
+// Sessions per second for embedded shells: each op creates a ShellSession and runs a short
+// builtin-only script in it. concurrent starts SESSIONS of them at once, on virtual threads
+// when the runtime has them, so the score also shows what contention between sessions costs.
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SessionBenchmark {
+
+    static final int SESSIONS = 1000;
+    static final String SCRIPT = "echo hello; pwd; cd ..; pwd; type ls; hash ls; echo a b c | cat";
+
+    static int runSession() throws Exception {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        ShellSession session = new ShellSession(new File("/tmp"), Map.of("PATH", "/usr/bin:/bin"),
+                InputStream.nullInputStream(), discard, discard);
+        return session.run(SCRIPT);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Threads {
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            try {
+                executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Pre-21 runtime
+                executor = Executors.newFixedThreadPool(64);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public int sequential() throws Exception {
+        return runSession();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SESSIONS)
+    public int concurrent(Threads threads) throws Exception {
+        List<Future<Integer>> sessions = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(threads.executor.submit(SessionBenchmark::runSession));
+        }
+        int failed = 0;
+        for (Future<Integer> session : sessions) {
+            failed += session.get() != 0 ? 1 : 0;
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,90 @@
+package shell.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.core.ShellSession;
+
+// The sort builtin against fork+exec sort (LC_ALL=C) on a generated access log, in a 256 MB
+// heap with an 8 MB budget so the builtin spills and merges: a plain sort, a keyed numeric
+// one, and the `sort | uniq -c` that the shell fuses into one stage. Scores are seconds per
+// run; megabytes / score gives MB/s.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx256m")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SortBenchmark {
+
+    @Param({"builtin", "external"})
+    public String shape;
+
+    @Param({"sort", "sort -t ' ' -k 3,3n -k 2", "sort | uniq -c"})
+    public String command;
+
+    @Param({"64"})
+    public int megabytes;
+
+    private Path dir;
+    private ShellSession session;
+    private String script;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sort-bench");
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        String[] paths = {"/api/v1/item", "/api/v1/cart", "/login", "/static/app.js", "/health"};
+        Random random = new Random(42);
+        long size = (long) megabytes << 20;
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("data"))) {
+            for (long written = 0; written < size; ) {
+                String line = levels[random.nextInt(levels.length)] + " " + paths[random.nextInt(paths.length)]
+                        + " " + random.nextInt(1000) + "\n";
+                out.write(line);
+                written += line.length();
+            }
+        }
+
+        String sort = new File("/usr/bin/sort").canExecute() ? "/usr/bin/sort" : "/bin/sort";
+        script = command.replaceFirst("sort", shape.equals("builtin") ? "sort -S 8M data" : sort + " data");
+
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.put("LC_ALL", "C");
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        session = new ShellSession(dir.toFile(), env, InputStream.nullInputStream(), discard, discard);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("data"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int run() throws IOException, InterruptedException {
+        return session.run(script);
+    }
+}
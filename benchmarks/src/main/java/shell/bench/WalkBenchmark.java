@@ -0,0 +1,90 @@
+package shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shell.core.ShellSession;
+
+// The find and ls builtins against fork+exec find and ls on a generated tree of 10 files to
+// a directory, `fanout` subdirectories to a level, four levels deep. The tree stays in the
+// page cache, so this measures the walk and the lstat calls rather than the disk.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WalkBenchmark {
+
+    @Param({"builtin", "external"})
+    public String shape;
+
+    @Param({"find tree -name '*7*' -type f", "find tree -size +1k", "ls -lR tree"})
+    public String command;
+
+    @Param({"6"})
+    public int fanout;
+
+    private Path dir;
+    private ShellSession session;
+    private String script;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("walk-bench");
+        create(dir.resolve("tree"), 4);
+
+        String name = command.substring(0, command.indexOf(' '));
+        String path = new File("/usr/bin/" + name).canExecute() ? "/usr/bin/" + name : "/bin/" + name;
+        script = shape.equals("builtin") ? command : path + command.substring(name.length());
+
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        session = new ShellSession(dir.toFile(), System.getenv(), InputStream.nullInputStream(), discard, discard);
+    }
+
+    private void create(Path directory, int depth) throws IOException {
+        Files.createDirectory(directory);
+        for (int i = 0; i < 10; i++) {
+            Files.write(directory.resolve("file" + i + ".txt"), new byte[i * 300]);
+        }
+        if (depth > 1) {
+            for (int i = 0; i < fanout; i++) {
+                create(directory.resolve("dir" + i), depth - 1);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public int run() throws IOException, InterruptedException {
+        return session.run(script);
+    }
+}
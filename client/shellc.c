@@ -0,0 +1,176 @@
+/*
+ * shellc: native client for the shell daemon (java -cp bin shell.Main --daemon).
+ *
+ * Speaks the same framed protocol as shell.daemon.ShellClient, so a command pays a socket
+ * connect instead of a JVM start:
+ *
+ *     cc -O2 -o shellc client/shellc.c
+ *     ./shellc -c 'echo hi'      ./shellc script.sh      printf 'pwd\n' | ./shellc
+ *
+ * The socket is $SHELL_DAEMON_SOCKET, or /tmp/shell-$USER/shell.sock like the daemon's default.
+ */
+#include <errno.h>
+#include <pwd.h>
+#include <signal.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <unistd.h>
+#ifdef __linux__
+#include <sys/prctl.h>
+#endif
+
+enum { ARGS = 1, CWD = 2, ENV = 3, START = 4, STDIN_DATA = 5, STDOUT_DATA = 16, STDERR_DATA = 17, EXIT = 18 };
+
+extern char **environ;
+
+static void write_all(int fd, const void *data, size_t len) {
+    const char *p = data;
+    while (len > 0) {
+        ssize_t n = write(fd, p, len);
+        if (n < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            return;
+        }
+        p += n;
+        len -= (size_t) n;
+    }
+}
+
+static int read_all(int fd, void *data, size_t len) {
+    char *p = data;
+    while (len > 0) {
+        ssize_t n = read(fd, p, len);
+        if (n < 0 && errno == EINTR) {
+            continue;
+        }
+        if (n <= 0) {
+            return -1;
+        }
+        p += n;
+        len -= (size_t) n;
+    }
+    return 0;
+}
+
+static void send_frame(int sock, int type, const void *data, uint32_t len) {
+    unsigned char header[5] = {(unsigned char) type, (unsigned char) (len >> 24), (unsigned char) (len >> 16),
+                               (unsigned char) (len >> 8), (unsigned char) len};
+    write_all(sock, header, sizeof header);
+    write_all(sock, data, len);
+}
+
+/* Strings each followed by a NUL, as one frame */
+static void send_strings(int sock, int type, char **strings, int count) {
+    size_t len = 0;
+    for (int i = 0; i < count; i++) {
+        len += strlen(strings[i]) + 1;
+    }
+    char *buffer = malloc(len ? len : 1);
+    size_t at = 0;
+    for (int i = 0; i < count; i++) {
+        size_t n = strlen(strings[i]) + 1;
+        memcpy(buffer + at, strings[i], n);
+        at += n;
+    }
+    send_frame(sock, type, buffer, (uint32_t) len);
+    free(buffer);
+}
+
+static void socket_path(char *path, size_t size) {
+    const char *configured = getenv("SHELL_DAEMON_SOCKET");
+    if (configured && *configured) {
+        snprintf(path, size, "%s", configured);
+        return;
+    }
+    struct passwd *pw = getpwuid(getuid());
+    snprintf(path, size, "/tmp/shell-%s/shell.sock", pw ? pw->pw_name : "unknown");
+}
+
+int main(int argc, char **argv) {
+    struct sockaddr_un addr = {.sun_family = AF_UNIX};
+    socket_path(addr.sun_path, sizeof addr.sun_path);
+
+    int sock = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (sock < 0 || connect(sock, (struct sockaddr *) &addr, sizeof addr) < 0) {
+        fprintf(stderr, "shellc: %s: %s (start one with: java -cp bin shell.Main --daemon)\n",
+                addr.sun_path, strerror(errno));
+        return 127;
+    }
+
+    send_strings(sock, ARGS, argv + 1, argc - 1);
+    char cwd[4096];
+    if (getcwd(cwd, sizeof cwd)) {
+        send_frame(sock, CWD, cwd, (uint32_t) strlen(cwd));
+    }
+    int envc = 0;
+    while (environ[envc]) {
+        envc++;
+    }
+    send_strings(sock, ENV, environ, envc);
+    send_frame(sock, START, NULL, 0);
+
+    /* stdin goes up from a child process, so a full socket in one direction never stalls the other */
+    static char buffer[64 * 1024];
+    pid_t parent = getpid();
+    pid_t feeder = fork();
+    if (feeder == 0) {
+        /* it holds the socket too: if the client is killed, it goes, so the daemon sees the
+           connection close and cancels the session */
+#ifdef __linux__
+        prctl(PR_SET_PDEATHSIG, SIGTERM);
+#endif
+        if (getppid() != parent) {
+            _exit(0);
+        }
+        ssize_t n;
+        while ((n = read(STDIN_FILENO, buffer, sizeof buffer)) != 0) {
+            if (n < 0 && errno == EINTR) {
+                continue;
+            }
+            if (n < 0) {
+                break;
+            }
+            send_frame(sock, STDIN_DATA, buffer, (uint32_t) n);
+        }
+        send_frame(sock, STDIN_DATA, NULL, 0);
+        _exit(0);
+    }
+
+    for (;;) {
+        unsigned char header[5];
+        if (read_all(sock, header, sizeof header) < 0) {
+            break;
+        }
+        uint32_t len = (uint32_t) header[1] << 24 | (uint32_t) header[2] << 16 | (uint32_t) header[3] << 8 | header[4];
+        char *payload = len <= sizeof buffer ? buffer : malloc(len);
+        if (payload == NULL || read_all(sock, payload, len) < 0) {
+            break;
+        }
+        if (header[0] == STDOUT_DATA) {
+            write_all(STDOUT_FILENO, payload, len);
+        } else if (header[0] == STDERR_DATA) {
+            write_all(STDERR_FILENO, payload, len);
+        } else if (header[0] == EXIT && len == 4) {
+            unsigned char *s = (unsigned char *) payload;
+            if (feeder > 0) {
+                kill(feeder, SIGTERM);
+            }
+            return (int) ((uint32_t) s[0] << 24 | (uint32_t) s[1] << 16 | (uint32_t) s[2] << 8 | s[3]);
+        }
+        if (payload != buffer) {
+            free(payload);
+        }
+    }
+
+    if (feeder > 0) {
+        kill(feeder, SIGTERM);
+    }
+    fprintf(stderr, "shellc: daemon closed the connection\n");
+    return 1;
+}
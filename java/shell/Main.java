@@ -1,26 +1,75 @@
 package shell;
 
-import java.util.List;
-import shell.commands.BuiltInCommand;
-import shell.commands.ExternalCommand;
-import shell.core.InputParser;
-import shell.core.ShellState;
-import shell.enums.ShellType;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import shell.core.CommandExecutor;
+import shell.core.ShellSession;
+import shell.daemon.ShellServer;
 import shell.history.HistoryManager;
-import shell.pipeline.PipelineExecutor;
+import shell.terminal.Terminal;
 
 public class Main {
+    private static final String PROMPT = "$ ";
 
     public static void main(String[] args) throws Exception {
-        HistoryManager historyManager = new HistoryManager();
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            try {
+                ShellServer.serve(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.err.println("shell: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        
+        if (args.length == 0 && Terminal.isInteractive()) {
+            System.exit(runInteractive());
+        }
+        
+        System.exit(run(args, ShellSession.console(new HistoryManager(null))));
+    }
+
+    // A script file, a -c string or commands piped on stdin; also what a daemon session runs
+    public static int run(String[] args, ShellSession session) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("-c")) {
+            if (args.length < 2) {
+                session.getErr().println("shell: -c: option requires an argument");
+                return 2;
+            }
+            return session.run(args[1]);
+        }
         
-        boolean exit = false;
+        if (args.length > 0) {
+            BufferedReader script;
+            try {
+                script = Files.newBufferedReader(session.resolve(args[0]).toPath(), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                session.getErr().println("shell: " + args[0] + ": No such file or directory");
+                return 127;
+            }
+            try (script) {
+                return session.run(script);
+            }
+        }
         
-        while (!exit) {
-            System.out.print("$ ");
-            System.out.flush();
+        return session.run(new BufferedReader(new InputStreamReader(session.getIn()), 65536));
+    }
+
+    private static int runInteractive() throws IOException, InterruptedException {
+        HistoryManager historyManager = new HistoryManager();
+        ShellSession session = ShellSession.console(historyManager);
+        CommandExecutor executor = new CommandExecutor(session, true);
+        
+        while (!executor.isExitRequested()) {
+            session.getJobs().reportFinished(System.out);
+            session.getTerminal().append(PROMPT);
             
-            String input = historyManager.readLineWithHistory();
+            String input = historyManager.readLineWithHistory(PROMPT, session.getCurrentDir(), session.getTerminal());
             
             if (input == null) {
                 break;
@@ -32,70 +81,13 @@ public class Main {
             
             historyManager.addCommand(input);
 
-            // Check for pipeline
-            if (input.contains(" | ")) {
-                PipelineExecutor.execute(input, historyManager);
-                continue;
-            }
-
-            List<String> parts = InputParser.parse(input);
-            if (parts.isEmpty()) continue;
-
-            String command = parts.get(0);
-            String[] arguments = parts.subList(1, parts.size()).toArray(new String[0]);
-
-            if (ShellState.EXTERNALS.containsKey(command)) {
-                switch (ShellState.EXTERNALS.getOrDefault(command, ShellType.NONE)) {
-                    case CAT -> BuiltInCommand.cat(arguments);
-                    default -> ExternalCommand.execute(parts);
-                }
-            } else {
-                switch (ShellState.BUILTINS.getOrDefault(command, ShellType.NONE)) {
-                    case EXIT -> exit = true;
-                    case ECHO -> BuiltInCommand.echo(arguments);
-                    case TYPE -> BuiltInCommand.type(arguments);
-                    case PWD -> BuiltInCommand.pwd();
-                    case CD -> BuiltInCommand.cd(arguments);
-                    case HISTORY -> executeHistory(arguments, historyManager);
-                    default -> ExternalCommand.execute(parts);
-                }
-            }
+            executor.execute(input);
         }
         
         historyManager.saveToFile();
+        Terminal.restore();
         
         System.out.println();
+        return executor.getLastStatus();
     }
-
-    private static void executeHistory(String[] args, HistoryManager historyManager) {
-        if (args.length >= 2 && args[0].equals("-a")) {
-            historyManager.appendToFile(args[1]);
-            return;
-        }
-        
-        if (args.length >= 2 && args[0].equals("-w")) {
-            historyManager.writeToFile(args[1]);
-            return;
-        }
-        
-        if (args.length >= 2 && args[0].equals("-r")) {
-            historyManager.readFromFile(args[1]);
-            return;
-        }
-        
-        int limit = historyManager.getHistory().size();
-        if (args.length > 0) {
-            try {
-                limit = Integer.parseInt(args[0]);
-            } catch (NumberFormatException e) {
-                // Use default
-            }
-        }
-        
-        List<String> history = historyManager.getHistory();
-        int start = Math.max(0, history.size() - limit);
-        for (int i = start; i < history.size(); i++) {
-            System.out.printf("%5d  %s%n", i + 1, history.get(i));
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,57 +1,106 @@
 package shell.commands;
 import shell.core.*;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import shell.history.HistoryManager;
+import shell.pipeline.PipelineScheduler;
+import shell.terminal.Terminal;
+import shell.terminal.TerminalOutput;
 
 public class BuiltInCommand {
     
-    public static void type(String[] args) {
+    public static int type(String[] args, PrintStream out, ShellSession session) {
         if (args.length >= 1) {
             String cmdToCheck = args[0];
             if (ShellState.BUILTINS.containsKey(cmdToCheck)) {
-                System.out.println(cmdToCheck + " is a shell builtin");
+                out.println(cmdToCheck + " is a shell builtin");
             } else {
-                boolean found = false;
-                for (String dir : ShellState.DIRECTORIES) {
-                    File file = new File(dir, cmdToCheck);
-                    if (file.exists() && file.canExecute()) {
-                        System.out.println(cmdToCheck + " is " + file.getAbsolutePath());
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    System.out.println(cmdToCheck + ": not found");
+                String path = session.getCommandHash().lookup(cmdToCheck);
+                if (path != null) {
+                    out.println(cmdToCheck + " is " + path);
+                } else {
+                    out.println(cmdToCheck + ": not found");
+                    return 1;
                 }
             }
         } else {
-            System.out.println("type: missing argument");
+            out.println("type: missing argument");
+            return 1;
         }
+        return 0;
     }
 
-    public static void echo(String[] args) {
-        if (args.length > 0) {
-            System.out.println(String.join(" ", args));
-        } else {
-            System.out.println();
+    public static int hash(String[] args, PrintStream out, ShellSession session) {
+        CommandHash table = session.getCommandHash();
+        
+        if (args.length == 0) {
+            List<CommandHash.Entry> entries = table.entries();
+            if (entries.isEmpty()) {
+                out.println("hash: hash table empty");
+                return 0;
+            }
+            out.println("hits\tcommand");
+            for (CommandHash.Entry entry : entries) {
+                out.printf("%4d\t%s%n", entry.getHits(), entry.getPath());
+            }
+            return 0;
         }
+        
+        int status = 0;
+        switch (args[0]) {
+            case "-r" -> table.clear();
+            case "-s" -> out.println("hash: " + table.getHits() + " hits, " + table.getMisses() + " misses, "
+                    + table.entries().size() + " entries");
+            case "-p" -> {
+                if (args.length < 3) {
+                    out.println("hash: -p: usage: hash -p pathname name");
+                    return 2;
+                }
+                for (int i = 2; i < args.length; i++) {
+                    table.put(args[i], session.resolve(args[1]).getAbsolutePath());
+                }
+            }
+            case "-d" -> {
+                for (int i = 1; i < args.length; i++) {
+                    if (!table.remove(args[i])) {
+                        out.println("hash: " + args[i] + ": not found");
+                        status = 1;
+                    }
+                }
+            }
+            default -> {
+                for (String name : args) {
+                    if (ShellState.BUILTINS.containsKey(name)) {
+                        continue;
+                    }
+                    if (table.lookup(name) == null) {
+                        out.println("hash: " + name + ": not found");
+                        status = 1;
+                    }
+                }
+            }
+        }
+        return status;
     }
 
-    public static void pwd() {
-        System.out.println(ShellState.getCurrentDir().getAbsolutePath());
-    }
-
-    public static void cd(String[] args) {
+    public static int cd(String[] args, PrintStream out, ShellSession session) {
         if (args.length >= 1) {
             String target = args[0];
             File targetDir;
             
             if (target.equals("~")) {
-                String home = System.getenv("HOME");
+                String home = session.getEnvironment().get("HOME");
                 targetDir = (home != null) ? new File(home) : new File(System.getProperty("user.home"));
-            } else if (new File(target).isAbsolute()) {
-                targetDir = new File(target);
             } else {
-                targetDir = new File(ShellState.getCurrentDir(), target);
+                targetDir = session.resolve(target);
             }
             
             try {
@@ -62,24 +111,225 @@ public class BuiltInCommand {
             }
             
             if (targetDir.exists() && targetDir.isDirectory()) {
-                ShellState.setCurrentDir(targetDir);
+                session.setCurrentDir(targetDir);
             } else {
-                System.out.println("cd: " + target + ": No such file or directory");
+                out.println("cd: " + target + ": No such file or directory");
+                return 1;
             }
         } else {
-            System.out.println("cd: missing argument");
+            out.println("cd: missing argument");
+            return 1;
         }
+        return 0;
     }
 
-    public static void cat(String[] files) {
-        for (String file : files) {
+    public static int cat(String[] args, InputStream in, OutputStream out, PrintStream err, ShellSession session)
+            throws IOException {
+        if (session.isConsole() && in == System.in && (args.length == 0 || Arrays.asList(args).contains("-"))) {
+            Terminal.suspend();
+        }
+        return CatCommand.run(args, in, out, err, session.getCurrentDir());
+    }
+
+    public static int grep(String[] args, InputStream in, OutputStream out, PrintStream err, ShellSession session)
+            throws IOException, InterruptedException {
+        // Only the pattern given: the console's input is read line by line
+        if (session.isConsole() && in == System.in && grepsStdin(args)) {
+            Terminal.suspend();
+        }
+        try {
+            return GrepCommand.run(args, in, out, err, session.getCurrentDir());
+        } catch (ExternalFallback.Unsupported e) {
+            return ExternalFallback.run("grep", args, e, 2, in, out, err, session);
+        }
+    }
+
+    private static boolean grepsStdin(String[] args) {
+        int operands = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-")) {
+                return true;
+            }
+            if (args[i].equals("-m")) {
+                i++;
+            } else if (!args[i].startsWith("-")) {
+                operands++;
+            }
+        }
+        return operands < 2;
+    }
+
+    public static int sort(String[] args, InputStream in, OutputStream out, PrintStream err, ShellSession session)
+            throws IOException, InterruptedException {
+        if (session.isConsole() && in == System.in) {
+            Terminal.suspend();
+        }
+        String tmpdir = session.getEnvironment().get("TMPDIR");
+        File tempDir = tmpdir != null && !tmpdir.isEmpty() ? session.resolve(tmpdir)
+                : new File(System.getProperty("java.io.tmpdir"));
+        try {
+            return SortCommand.run(args, in, out, err, session.getCurrentDir(), tempDir);
+        } catch (ExternalFallback.Unsupported e) {
+            return ExternalFallback.run("sort", args, e, 2, in, out, err, session);
+        }
+    }
+
+    public static int find(String[] args, InputStream in, OutputStream out, PrintStream err, ShellSession session)
+            throws IOException, InterruptedException {
+        try {
+            return FindCommand.run(args, out, err, session.getCurrentDir());
+        } catch (ExternalFallback.Unsupported e) {
+            return ExternalFallback.run("find", args, e, 1, in, out, err, session);
+        }
+    }
+
+    // Columns only for the console itself; redirected or piped, ls prints a name a line
+    public static int ls(String[] args, PrintStream out, PrintStream err, ShellSession session)
+            throws InterruptedException {
+        int columns = 0;
+        if (session.isConsole() && out == session.getOut() && Terminal.isInteractive()) {
             try {
-                java.nio.file.Path filePath = java.nio.file.Paths.get(file);
-                String content = java.nio.file.Files.readString(filePath);
-                System.out.print(content);
-            } catch (java.io.IOException e) {
-                System.out.println("cat: " + file + ": No such file or directory");
+                columns = Integer.parseInt(session.getEnvironment().getOrDefault("COLUMNS", "80"));
+            } catch (NumberFormatException e) {
+                columns = 80;
+            }
+        }
+        return LsCommand.run(args, out, err, session.getCurrentDir(), columns);
+    }
+
+    public static int history(String[] args, ShellSession session, PrintStream out, PrintStream err) {
+        HistoryManager historyManager = session.getHistory();
+        if (args.length >= 2 && args[0].equals("-a")) {
+            return historyManager.appendToFile(session.resolve(args[1]).getPath(), err) ? 0 : 1;
+        }
+        
+        if (args.length >= 2 && args[0].equals("-w")) {
+            return historyManager.writeToFile(session.resolve(args[1]).getPath(), err) ? 0 : 1;
+        }
+        
+        if (args.length >= 2 && args[0].equals("-r")) {
+            return historyManager.readFromFile(session.resolve(args[1]).getPath(), err) ? 0 : 1;
+        }
+        
+        int limit = historyManager.getHistory().size();
+        if (args.length > 0) {
+            try {
+                limit = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                // Use default
+            }
+        }
+        
+        List<String> history = historyManager.getHistory();
+        int start = Math.max(0, history.size() - limit);
+        // One buffer, filled by hand, instead of a printf per entry
+        out.flush();
+        TerminalOutput listing = new TerminalOutput(out);
+        for (int i = start; i < history.size(); i++) {
+            listing.append(i + 1, 5).append("  ").append(history.get(i)).newline();
+            if ((i & 4095) == 0 && listing.checkError()) {
+                break;
+            }
+        }
+        listing.flush();
+        return 0;
+    }
+
+    // set -o / +o for the shell's options; profile is the only one so far
+    public static int set(String[] args, PrintStream out, PrintStream err, ShellSession session) {
+        if (args.length == 0 || args.length == 1 && (args[0].equals("-o") || args[0].equals("+o"))) {
+            if (args.length == 1 && args[0].equals("+o")) {
+                out.println("set " + (session.isProfile() ? "-o" : "+o") + " profile");
+            } else {
+                out.printf("%-15s\t%s%n", "profile", session.isProfile() ? "on" : "off");
             }
+            return 0;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].equals("-o") && !args[i].equals("+o")) {
+                err.println("set: " + args[i] + ": invalid option");
+                return 2;
+            }
+            if (i + 1 == args.length) {
+                err.println("set: " + args[i] + ": option requires an argument");
+                return 2;
+            }
+            String option = args[++i];
+            if (!option.equals("profile")) {
+                err.println("set: " + option + ": invalid option name");
+                return 1;
+            }
+            session.setProfile(args[i - 1].equals("-o"));
+        }
+        return 0;
+    }
+
+    // Runs a builtin against explicit streams. cd and exit change the shell itself, so the
+    // executor handles those before getting here.
+    public static int run(String name, String[] args, InputStream in, OutputStream output, PrintStream err,
+                          ShellSession session) throws IOException, InterruptedException {
+        // Stage outputs are pipes and files: buffer them, and write once when the builtin is done
+        PrintStream out = output instanceof PrintStream ? (PrintStream) output
+                : new PrintStream(new BufferedOutputStream(output, 8192), false);
+        int status = 0;
+        
+        switch (ShellState.builtinType(name)) {
+            case ECHO -> {
+                if (args.length > 0) {
+                    out.println(String.join(" ", args));
+                } else {
+                    out.println();
+                }
+            }
+            case TYPE -> {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                while (reader.ready() && reader.readLine() != null) {
+                    // Consume input
+                }
+                
+                status = type(args, out, session);
+            }
+            case HASH -> status = hash(args, out, session);
+            case PWD -> out.println(session.getCurrentDir().getAbsolutePath());
+            case HISTORY -> status = history(args, session, out, err);
+            case CAT -> {
+                out.flush();
+                status = cat(args, in, output, err, session);
+            }
+            case JOBS -> status = JobCommand.jobs(args, out, err, session);
+            case WAIT -> status = JobCommand.await(args, err, session);
+            case FG -> status = JobCommand.fg(args, out, err, session);
+            case BG -> status = JobCommand.bg(args, out, err, session);
+            case KILL -> status = JobCommand.kill(args, out, err, session);
+            case PARALLEL -> {
+                out.flush();
+                status = ParallelCommand.run(args, in, out, err, session);
+            }
+            case SET -> status = set(args, out, err, session);
+            case JFR -> status = JfrCommand.run(args, out, err, session);
+            case GREP -> {
+                out.flush();
+                status = grep(args, in, output, err, session);
+            }
+            case SORT -> {
+                out.flush();
+                status = sort(args, in, output, err, session);
+            }
+            case FIND -> {
+                out.flush();
+                status = find(args, in, output, err, session);
+            }
+            case LS -> status = ls(args, out, err, session);
+            default -> {
+                // Other built-ins
+            }
+        }
+        
+        out.flush();
+        // Our own wrapper over a pipe swallowed the write that failed; report it as SIGPIPE would
+        if (out != output && out.checkError()) {
+            return PipelineScheduler.BROKEN_PIPE_STATUS;
         }
+        return status;
     }
-}
\ No newline at end of file
+}
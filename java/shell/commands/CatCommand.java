@@ -0,0 +1,197 @@
+package shell.commands;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import shell.pipeline.ChannelOutputStream;
+
+// Byte-oriented cat: files are copied in fixed-size chunks, or handed to the kernel with
+// transferTo when the destination is a file descriptor, so memory use does not grow with
+// file size and binary content passes through untouched.
+public class CatCommand {
+    private static final int CHUNK = 64 * 1024;
+
+    // Captured before anything can swap System.out, so we know when out really is fd 1
+    private static final PrintStream STDOUT = System.out;
+    private static FileChannel stdoutChannel;
+
+    private final OutputStream out;
+    private final PrintStream err;
+    private final File currentDir;
+    private final boolean number;
+    private final byte[] buffer = new byte[CHUNK];
+    private long line = 0;
+    private boolean atLineStart = true;
+
+    private CatCommand(OutputStream out, PrintStream err, File currentDir, boolean number) {
+        // Numbering writes many small pieces, so batch them; plain copies write whole chunks
+        this.out = number ? new BufferedOutputStream(out, CHUNK) : out;
+        this.err = err;
+        this.currentDir = currentDir;
+        this.number = number;
+    }
+
+    // File names are relative to currentDir
+    public static int run(String[] args, InputStream in, OutputStream out, PrintStream err, File currentDir)
+            throws IOException {
+        boolean number = false;
+        List<String> files = new ArrayList<>();
+        boolean options = true;
+        for (String arg : args) {
+            if (options && arg.equals("--")) {
+                options = false;
+            } else if (options && arg.equals("-n")) {
+                number = true;
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            files.add("-");
+        }
+
+        CatCommand cat = new CatCommand(out, err, currentDir, number);
+        int status = 0;
+        for (String file : files) {
+            if (file.equals("-")) {
+                cat.copy(in);
+            } else if (!cat.copyFile(file)) {
+                status = 1;
+            }
+        }
+        cat.out.flush();
+        return status;
+    }
+
+    private boolean copyFile(String name) throws IOException {
+        Path path = currentDir.toPath().resolve(name);
+        if (Files.isDirectory(path)) {
+            err.println("cat: " + name + ": Is a directory");
+            return false;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            err.println("cat: " + name + ": No such file or directory");
+            return false;
+        } catch (IOException e) {
+            err.println("cat: " + name + ": " + e.getMessage());
+            return false;
+        }
+
+        try (channel) {
+            copy(channel);
+        }
+        return true;
+    }
+
+    private void copy(FileChannel channel) throws IOException {
+        FileChannel target = number ? null : targetChannel();
+        if (target != null) {
+            long position = channel.position();
+            long size = channel.size();
+            while (position < size) {
+                long n = channel.transferTo(position, size - position, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+            // Files that grow while we copy (or report size 0, like /proc) fall through to chunked reads
+            channel.position(position);
+        }
+
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        int n;
+        while ((n = channel.read(wrapped.clear())) != -1) {
+            write(n);
+        }
+    }
+
+    private void copy(InputStream in) throws IOException {
+        // stdin redirected from a file gets the same kernel copy as a named file
+        if (in instanceof FileInputStream) {
+            copy(((FileInputStream) in).getChannel());
+            return;
+        }
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            write(n);
+        }
+    }
+
+    private void write(int length) throws IOException {
+        if (!number) {
+            out.write(buffer, 0, length);
+            return;
+        }
+
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (atLineStart) {
+                if (i > start) {
+                    out.write(buffer, start, i - start);
+                    start = i;
+                }
+                writeLineNumber(++line);
+                atLineStart = false;
+            }
+            if (buffer[i] == '\n') {
+                atLineStart = true;
+            }
+        }
+        out.write(buffer, start, length - start);
+    }
+
+    // Same layout as GNU cat -n: number right-aligned in six columns, then a tab
+    private void writeLineNumber(long value) throws IOException {
+        byte[] digits = new byte[20];
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int pad = 6 - (digits.length - pos); pad > 0; pad--) {
+            out.write(' ');
+        }
+        out.write(digits, pos, digits.length - pos);
+        out.write('\t');
+    }
+
+    // The channel behind out when bytes can go straight to its file descriptor
+    private FileChannel targetChannel() throws IOException {
+        if (out == STDOUT) {
+            STDOUT.flush();
+            synchronized (CatCommand.class) {
+                if (stdoutChannel == null) {
+                    stdoutChannel = new FileOutputStream(FileDescriptor.out).getChannel();
+                }
+            }
+            return stdoutChannel;
+        }
+        if (out instanceof FileOutputStream) {
+            return ((FileOutputStream) out).getChannel();
+        }
+        if (out instanceof ChannelOutputStream) {
+            out.flush();
+            return ((ChannelOutputStream) out).getChannel();
+        }
+        return null;
+    }
+}
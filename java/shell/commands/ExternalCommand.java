@@ -1,21 +1,27 @@
 package shell.commands;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import shell.core.ShellState;
+import shell.core.Processes;
+import shell.core.Redirections;
+import shell.core.ShellSession;
+import shell.terminal.Terminal;
 
 public class ExternalCommand {
     
     // Windows cmd.exe built-in commands
     private static final String[] CMD_BUILTINS = {
         "dir", "date", "time", "vol", "label", "tree", "more",
-        "copy", "move", "del", "ren", "cls", "find", "sort",
+        "copy", "move", "del", "ren", "cls",
         "set", "path", "prompt", "mkdir", "rmdir", "md", "rd"
     };
     
-    public static void execute(List<String> parts) throws IOException {
+    public static int execute(List<String> parts, ShellSession session) throws IOException {
+        return execute(parts, null, session);
+    }
+    
+    public static int execute(List<String> parts, Redirections redirections, ShellSession session) throws IOException {
         String command = parts.get(0);
         
         // Check if it's a cmd.exe built-in
@@ -34,36 +40,41 @@ public class ExternalCommand {
             cmdParts.add("/c");
             cmdParts.addAll(parts);
             
-            runProcess(cmdParts);
-            return;
+            return runProcess(cmdParts, redirections, session);
         }
         
-        // Try to find executable in PATH with various extensions
-        String[] extensions = {".exe", ".bat", ".cmd", ""};
-        
-        for (String dir : ShellState.DIRECTORIES) {
-            for (String ext : extensions) {
-                File file = new File(dir, command + ext);
-                if (file.exists()) {
-                    runProcess(parts);
-                    return;
-                }
-            }
+        // Resolve through the command hash so repeated commands skip the PATH scan
+        String path = session.getCommandHash().command(command);
+        if (path != null) {
+            List<String> resolved = new ArrayList<>(parts);
+            resolved.set(0, path);
+            return runProcess(resolved, redirections, session);
         }
         
         // Command not found
-        System.out.println(command + ": command not found");
+        session.getOut().println(command + ": command not found");
+        return 127;
     }
     
-    private static void runProcess(List<String> parts) throws IOException {
+    private static int runProcess(List<String> parts, Redirections redirections, ShellSession session)
+            throws IOException {
         ProcessBuilder pb = new ProcessBuilder(parts);
-        pb.directory(ShellState.getCurrentDir());
+        pb.directory(session.getCurrentDir());
         pb.inheritIO();
+        // Redirected streams are opened by the kernel for the child; the JVM never touches the data
+        if (redirections != null) {
+            redirections.apply(pb);
+        }
+        // The child gets the terminal in its normal mode; the line editor takes it back at the next prompt
+        if (session.isConsole()) {
+            Terminal.suspend();
+        }
         try {
-            Process program = pb.start();
-            program.waitFor();
+            Process program = Processes.start(pb, session);
+            return program.waitFor();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            return 130;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package shell.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import shell.core.Processes;
+import shell.core.ShellSession;
+import shell.pipeline.PipelineScheduler;
+import shell.pipeline.StreamUtils;
+import shell.terminal.Terminal;
+
+// The grep, sort and find builtins cover the options people use most. For anything else they
+// stand aside, and the command of the same name on PATH runs instead, on the builtin's streams.
+final class ExternalFallback {
+
+    // Thrown by a builtin for a usage it leaves to the real command, before it has read or
+    // written anything
+    static final class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private ExternalFallback() {
+    }
+
+    // Runs name from PATH with args. Without one, reports why the builtin could not do it and
+    // returns status.
+    static int run(String name, String[] args, Unsupported reason, int status, InputStream in, OutputStream out,
+                   PrintStream err, ShellSession session) throws IOException, InterruptedException {
+        String path = session.getCommandHash().command(name);
+        if (path == null) {
+            err.println(name + ": " + reason.getMessage());
+            return status;
+        }
+        List<String> argv = new ArrayList<>(args.length + 1);
+        argv.add(path);
+        argv.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(argv);
+        pb.directory(session.getCurrentDir());
+        // The session's own streams are inherited, or forwarded by Processes; the rest are
+        // pipes and files in the JVM, pumped here
+        boolean feed = in != session.getIn();
+        boolean drain = out != session.getOut();
+        boolean drainErr = err != session.getErr();
+        pb.redirectInput(feed ? ProcessBuilder.Redirect.PIPE : ProcessBuilder.Redirect.INHERIT);
+        pb.redirectOutput(drain ? ProcessBuilder.Redirect.PIPE : ProcessBuilder.Redirect.INHERIT);
+        pb.redirectError(drainErr ? ProcessBuilder.Redirect.PIPE : ProcessBuilder.Redirect.INHERIT);
+        if (session.isConsole()) {
+            Terminal.suspend();
+        }
+        out.flush();
+        Process process = Processes.start(pb, session);
+        try {
+            if (feed) {
+                // Ends at the end of in, or when the child stops reading, which closes in as a
+                // process would its read end
+                pump(name + "-stdin", in, process.getOutputStream(), true);
+            }
+            Thread errors = drainErr ? pump(name + "-stderr", process.getErrorStream(), err, false) : null;
+            if (drain) {
+                try {
+                    StreamUtils.pipeData(process.getInputStream(), out, false);
+                } catch (IOException e) {
+                    // Whoever reads our output has gone
+                    return PipelineScheduler.BROKEN_PIPE_STATUS;
+                }
+            }
+            int exit = process.waitFor();
+            if (errors != null) {
+                errors.join();
+            }
+            return exit;
+        } finally {
+            if (process.isAlive()) {
+                process.toHandle().descendants().forEach(ProcessHandle::destroy);
+                process.destroy();
+            }
+        }
+    }
+
+    private static Thread pump(String name, InputStream from, OutputStream to, boolean closeTo) {
+        Thread thread = new Thread(() -> {
+            try {
+                StreamUtils.pipeData(from, to, closeTo);
+            } catch (IOException e) {
+                // The other end has gone
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
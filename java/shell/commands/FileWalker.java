@@ -0,0 +1,118 @@
+package shell.commands;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+// Directory listing for find and ls. Each entry's attributes come from one lstat read in bulk:
+// BasicFileAttributes for the type, size and mtime, or for ls -l the unix view's mode, nlink,
+// uid, gid and rdev as well, where the platform has it. The unix view takes about twice as
+// long, so only callers that show those ask for them. Walks run on their own fork-join pool, wider than the
+// CPU count, because the threads spend most of their time waiting on the disk.
+final class FileWalker {
+    static final ForkJoinPool POOL = new ForkJoinPool(Integer.getInteger("shell.walk.threads",
+            Math.max(8, 2 * Runtime.getRuntime().availableProcessors())));
+
+    private static final String UNIX_ATTRIBUTES = "unix:mode,nlink,uid,gid,size,lastModifiedTime,rdev";
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+    private static final int S_IFCHR = 0020000;
+    private static final int S_IFBLK = 0060000;
+    private static volatile boolean unix = true;
+
+    static final class Entry {
+        final Path path;
+        final String name;
+        // Type and permission bits as in st_mode; synthesized from the type without a unix view
+        int mode;
+        int links = 1;
+        int uid = -1;
+        int gid = -1;
+        long size;
+        long modified;
+        // Device number of a character or block special file
+        long device;
+
+        Entry(Path path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        boolean isDirectory() {
+            return (mode & S_IFMT) == S_IFDIR;
+        }
+
+        boolean isRegularFile() {
+            return (mode & S_IFMT) == S_IFREG;
+        }
+
+        boolean isSymbolicLink() {
+            return (mode & S_IFMT) == S_IFLNK;
+        }
+
+        boolean isDevice() {
+            return (mode & S_IFMT) == S_IFCHR || (mode & S_IFMT) == S_IFBLK;
+        }
+    }
+
+    private FileWalker() {
+    }
+
+    // The entry for path itself, without following a final symbolic link; detailed for the
+    // owner, links and permissions
+    static Entry stat(Path path, String name, boolean detailed) throws IOException {
+        Entry entry = new Entry(path, name);
+        if (detailed && unix) {
+            try {
+                Map<String, Object> attributes = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                entry.mode = (Integer) attributes.get("mode");
+                entry.links = (Integer) attributes.get("nlink");
+                entry.uid = (Integer) attributes.get("uid");
+                entry.gid = (Integer) attributes.get("gid");
+                entry.size = (Long) attributes.get("size");
+                entry.modified = ((FileTime) attributes.get("lastModifiedTime")).toMillis();
+                entry.device = (Long) attributes.get("rdev");
+                return entry;
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unix = false;
+            }
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        entry.mode = attributes.isDirectory() ? S_IFDIR | 0755
+                : attributes.isSymbolicLink() ? S_IFLNK | 0777
+                : attributes.isRegularFile() ? S_IFREG | 0644 : 0644;
+        entry.size = attributes.size();
+        entry.modified = attributes.lastModifiedTime().toMillis();
+        return entry;
+    }
+
+    // A directory's entries in the order the file system returns them. Entries that vanish
+    // between the listing and their lstat are left out.
+    static List<Entry> list(Path dir, boolean detailed) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                try {
+                    entries.add(stat(path, path.getFileName().toString(), detailed));
+                } catch (NoSuchFileException e) {
+                    // Deleted meanwhile
+                }
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        return entries;
+    }
+}
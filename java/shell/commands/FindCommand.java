@@ -0,0 +1,376 @@
+package shell.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import shell.terminal.TerminalOutput;
+
+// find [path...] [-name PATTERN] [-type f|d|l] [-newer FILE] [-size [+-]N[ckMG]] [-maxdepth N]
+//
+// Every directory is a task on FileWalker's pool: it lists and lstats its entries, prints the
+// ones that pass the tests as one batch and forks a task per subdirectory. A directory is
+// always printed before anything inside it, but siblings come in whatever order the walk
+// reaches them, much as readdir order already varies between file systems. Output is
+// flushed every FLUSH_NANOS while there is something new, so a pipeline sees a match soon
+// after it is found even when the walk then goes a long way without another. Other
+// predicates and operators (-exec, -print0, -path, -iname, !, -o, ...) run the find on PATH.
+public class FindCommand {
+    private static final long FLUSH_NANOS = 50_000_000L;
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final List<String> PREDICATES = List.of("-name", "-type", "-newer", "-size", "-maxdepth");
+
+    // One thread flushes the output of every find that is walking
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "find-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TerminalOutput out;
+    private final PrintStream err;
+    private Pattern name;
+    private char type;
+    private long newer = Long.MIN_VALUE;
+    private char sizeSign;
+    private long size = -1;
+    private long sizeUnit = 512;
+    private int maxDepth = UNLIMITED;
+    private volatile boolean failed;
+    private volatile boolean stopped;
+    private volatile boolean pending;
+
+    private FindCommand(OutputStream out, PrintStream err) {
+        this.out = new TerminalOutput(out);
+        this.err = err;
+    }
+
+    // Paths are relative to currentDir, and printed as given
+    public static int run(String[] args, OutputStream out, PrintStream err, File currentDir)
+            throws InterruptedException, ExternalFallback.Unsupported {
+        FindCommand find = new FindCommand(out, err);
+        List<String> starts = new ArrayList<>();
+        int i = 0;
+        // As in find, the expression starts at the first -, (, ) or !
+        while (i < args.length && !args[i].startsWith("-") && !List.of("(", ")", "!", ",").contains(args[i])) {
+            starts.add(args[i++]);
+        }
+        if (starts.isEmpty()) {
+            starts.add(".");
+        }
+
+        for (; i < args.length; i++) {
+            String predicate = args[i];
+            if (predicate.equals("-print")) {
+                continue;
+            }
+            if (!PREDICATES.contains(predicate)) {
+                throw new ExternalFallback.Unsupported("unknown predicate `" + predicate + "'");
+            }
+            if (++i == args.length) {
+                throw new ExternalFallback.Unsupported("missing argument to `" + predicate + "'");
+            }
+            String value = args[i];
+            if (!find.parse(predicate, value, currentDir)) {
+                return 1;
+            }
+        }
+
+        int status = 0;
+        ScheduledFuture<?> flushing = FLUSHER.scheduleWithFixedDelay(find::flushPending, FLUSH_NANOS, FLUSH_NANOS,
+                TimeUnit.NANOSECONDS);
+        try {
+            for (String start : starts) {
+                if (!find.walk(start, currentDir.toPath().resolve(start))) {
+                    status = 1;
+                }
+                if (find.stopped) {
+                    break;
+                }
+            }
+        } finally {
+            flushing.cancel(false);
+        }
+        find.out.flush();
+        return status != 0 || find.failed ? 1 : 0;
+    }
+
+    private boolean parse(String predicate, String value, File currentDir) throws ExternalFallback.Unsupported {
+        switch (predicate) {
+            case "-name" -> name = fnmatch(value);
+            case "-type" -> {
+                if (!value.equals("f") && !value.equals("d") && !value.equals("l")) {
+                    throw new ExternalFallback.Unsupported("Unknown argument to -type: " + value);
+                }
+                type = value.charAt(0);
+            }
+            case "-newer" -> {
+                try {
+                    newer = FileWalker.stat(currentDir.toPath().resolve(value), value, false).modified;
+                } catch (IOException e) {
+                    err.println("find: '" + value + "': " + reason(e));
+                    return false;
+                }
+            }
+            case "-size" -> {
+                String number = value;
+                if (number.startsWith("+") || number.startsWith("-")) {
+                    sizeSign = number.charAt(0);
+                    number = number.substring(1);
+                }
+                char unit = number.isEmpty() ? 0 : number.charAt(number.length() - 1);
+                if (!Character.isDigit(unit)) {
+                    sizeUnit = switch (unit) {
+                        case 'c' -> 1;
+                        case 'w' -> 2;
+                        case 'b' -> 512;
+                        case 'k' -> 1024;
+                        case 'M' -> 1024 * 1024;
+                        case 'G' -> 1024 * 1024 * 1024;
+                        default -> 0;
+                    };
+                    number = number.substring(0, number.length() - 1);
+                }
+                try {
+                    size = Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    size = -1;
+                }
+                if (size < 0 || sizeUnit == 0) {
+                    throw new ExternalFallback.Unsupported("invalid -size argument `" + value + "'");
+                }
+            }
+            default -> {
+                try {
+                    maxDepth = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    maxDepth = -1;
+                }
+                if (maxDepth < 0) {
+                    throw new ExternalFallback.Unsupported(
+                            "Expected a positive decimal integer argument to -maxdepth, but got `" + value + "'");
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean walk(String start, Path path) throws InterruptedException {
+        FileWalker.Entry root;
+        try {
+            Path fileName = path.getFileName();
+            root = FileWalker.stat(path, fileName != null ? fileName.toString() : start, false);
+        } catch (IOException e) {
+            err.println("find: '" + start + "': " + reason(e));
+            return false;
+        }
+        if (matches(root)) {
+            emit(new StringBuilder(start).append('\n'));
+        }
+        if (!root.isDirectory() || maxDepth == 0) {
+            return true;
+        }
+
+        Future<Void> walk = FileWalker.POOL.submit(new DirectoryTask(path, start, 0));
+        try {
+            walk.get();
+        } catch (InterruptedException e) {
+            // The pipeline was stopped: the tasks still queued return at once
+            stopped = true;
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return true;
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String display;
+        private final int depth;
+
+        DirectoryTask(Path dir, String display, int depth) {
+            this.dir = dir;
+            this.display = display;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (stopped) {
+                return;
+            }
+            List<FileWalker.Entry> entries;
+            try {
+                entries = FileWalker.list(dir, false);
+            } catch (IOException e) {
+                synchronized (err) {
+                    err.println("find: '" + display + "': " + reason(e));
+                }
+                failed = true;
+                return;
+            }
+
+            StringBuilder batch = new StringBuilder();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            String prefix = display.endsWith("/") ? display : display + "/";
+            for (FileWalker.Entry entry : entries) {
+                String path = prefix + entry.name;
+                if (matches(entry)) {
+                    batch.append(path).append('\n');
+                }
+                if (entry.isDirectory() && depth + 1 < maxDepth) {
+                    subdirectories.add(new DirectoryTask(entry.path, path, depth + 1));
+                }
+            }
+            emit(batch);
+            ForkJoinTask.invokeAll(subdirectories);
+        }
+    }
+
+    private boolean matches(FileWalker.Entry entry) {
+        // The path's own last element: a name that did not decode cannot be encoded back
+        Path fileName = entry.path.getFileName();
+        if (name != null && !name.matcher((fileName != null ? fileName : entry.path).toString()).matches()) {
+            return false;
+        }
+        if (type == 'f' && !entry.isRegularFile() || type == 'd' && !entry.isDirectory()
+                || type == 'l' && !entry.isSymbolicLink()) {
+            return false;
+        }
+        if (newer != Long.MIN_VALUE && entry.modified <= newer) {
+            return false;
+        }
+        if (size >= 0) {
+            // Sizes round up to whole units, as find's do
+            long units = (entry.size + sizeUnit - 1) / sizeUnit;
+            return sizeSign == '+' ? units > size : sizeSign == '-' ? units < size : units == size;
+        }
+        return true;
+    }
+
+    // A -name pattern as the regex fnmatch(3) would match it with find's flags: * and ? match
+    // any character, a leading dot included; [...] is negated by ! or ^, and a [ without its ]
+    // is itself; a backslash quotes the next character; braces and commas are plain. Character
+    // classes like [:alpha:] are left to the find on PATH.
+    static Pattern fnmatch(String glob) throws ExternalFallback.Unsupported {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '\\') {
+                if (++i == glob.length()) {
+                    throw new ExternalFallback.Unsupported("pattern ends in a backslash: " + glob);
+                }
+                literal(regex, glob.charAt(i));
+            } else if (c == '[') {
+                int end = bracket(glob, i, regex);
+                if (end < 0) {
+                    literal(regex, c);
+                } else {
+                    i = end;
+                }
+            } else {
+                literal(regex, c);
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    // Appends the bracket expression opening at start as a Java class and returns the index of
+    // its ], or -1 without appending anything when it is never closed
+    private static int bracket(String glob, int start, StringBuilder regex) throws ExternalFallback.Unsupported {
+        StringBuilder members = new StringBuilder("[");
+        int i = start + 1;
+        if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+            members.append('^');
+            i++;
+        }
+        boolean first = true;
+        for (; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == ']' && !first) {
+                regex.append(members).append(']');
+                return i;
+            }
+            first = false;
+            if (c == '[' && i + 1 < glob.length() && ":=.".indexOf(glob.charAt(i + 1)) >= 0) {
+                throw new ExternalFallback.Unsupported("unsupported bracket expression in " + glob);
+            }
+            if (c == '\\' && i + 1 < glob.length()) {
+                c = glob.charAt(++i);
+            }
+            literal(members, c);
+            // A range, unless the - is last and so plain
+            if (i + 2 < glob.length() && glob.charAt(i + 1) == '-' && glob.charAt(i + 2) != ']') {
+                char to = glob.charAt(i + 2);
+                i += 2;
+                if (to == '\\' && i + 1 < glob.length()) {
+                    to = glob.charAt(++i);
+                }
+                if (to < c) {
+                    throw new ExternalFallback.Unsupported("invalid range in " + glob);
+                }
+                members.append('-');
+                literal(members, to);
+            }
+        }
+        return -1;
+    }
+
+    private static void literal(StringBuilder regex, char c) {
+        if (c < 0x80 && !Character.isLetterOrDigit(c)) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    private void emit(CharSequence batch) {
+        if (batch.length() == 0) {
+            return;
+        }
+        out.append(batch);
+        pending = true;
+    }
+
+    // On the flusher thread: passes on whatever was printed since the last run
+    private void flushPending() {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        // A reader that went away stops the walk
+        if (out.checkError()) {
+            stopped = true;
+        }
+    }
+
+    private static String reason(IOException e) {
+        if (e instanceof NoSuchFileException) {
+            return "No such file or directory";
+        }
+        if (e instanceof AccessDeniedException) {
+            return "Permission denied";
+        }
+        return e.getMessage();
+    }
+}
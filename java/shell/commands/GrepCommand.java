@@ -0,0 +1,839 @@
+package shell.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// grep [-cvinqEF] [-m NUM] pattern [file...]. Patterns become Java regular expressions, which
+// read like grep -E outside bracket expressions; a basic expression has its ERE operators made
+// literal. Other options, and syntax the two read differently (\( and \| groups, \< anchors,
+// [:classes:]), are left to the grep on PATH.
+//
+// Files are memory-mapped and cut into line-aligned chunks that are scanned in parallel on
+// the common fork-join pool; results are written in file order, a few chunks ahead at most.
+// Standard input is scanned as it arrives and flushed whenever the writer pauses, so grep
+// works at any position in a pipeline. Lines are bytes throughout: a literal the pattern
+// cannot match without is searched for first, and only lines containing it reach the regex.
+public class GrepCommand {
+    private static final int CHUNK = Integer.getInteger("shell.grep.chunk", 8 << 20);
+    private static final int BUFFER = 64 * 1024;
+    private static final int WINDOW = ForkJoinPool.getCommonPoolParallelism() * 2 + 2;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long NEWLINES = repeat((byte) '\n');
+
+    private final OutputStream out;
+    private final PrintStream err;
+    private final LineMatcher matcher;
+    private final boolean count;
+    private final boolean invert;
+    private final boolean number;
+    private final long max;
+    private final boolean labelled;
+    private final boolean quiet;
+    private final byte[] buffer = new byte[BUFFER];
+    private int used;
+    // Output was written, or standard input read: too late to hand the job to grep on PATH
+    private boolean committed;
+
+    private GrepCommand(OutputStream out, PrintStream err, LineMatcher matcher, boolean count, boolean invert,
+                        boolean number, long max, boolean labelled, boolean quiet) {
+        this.out = out;
+        this.err = err;
+        this.matcher = matcher;
+        this.count = count;
+        this.invert = invert;
+        this.number = number;
+        this.max = max;
+        this.labelled = labelled;
+        this.quiet = quiet;
+    }
+
+    // File names are relative to currentDir. Status 0 if a line was selected, 1 if none, 2 on error.
+    public static int run(String[] args, InputStream in, OutputStream out, PrintStream err, File currentDir)
+            throws IOException, InterruptedException, ExternalFallback.Unsupported {
+        boolean count = false;
+        boolean invert = false;
+        boolean ignoreCase = false;
+        boolean number = false;
+        boolean fixed = false;
+        boolean extended = false;
+        boolean quiet = false;
+        long max = Long.MAX_VALUE;
+        String pattern = null;
+        List<String> files = new ArrayList<>();
+        boolean options = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (options && arg.equals("--")) {
+                options = false;
+            } else if (options && arg.startsWith("-") && arg.length() > 1) {
+                for (int j = 1; j < arg.length(); j++) {
+                    char c = arg.charAt(j);
+                    switch (c) {
+                        case 'c' -> count = true;
+                        case 'v' -> invert = true;
+                        case 'i' -> ignoreCase = true;
+                        case 'n' -> number = true;
+                        case 'F' -> fixed = true;
+                        case 'E' -> extended = true;
+                        case 'q' -> quiet = true;
+                        case 'm' -> {
+                            String value = j + 1 < arg.length() ? arg.substring(j + 1)
+                                    : i + 1 < args.length ? args[++i] : null;
+                            if (value == null) {
+                                err.println("grep: option requires an argument -- 'm'");
+                                return 2;
+                            }
+                            try {
+                                max = Long.parseLong(value);
+                                max = max < 0 ? Long.MAX_VALUE : max;
+                            } catch (NumberFormatException e) {
+                                err.println("grep: invalid max count");
+                                return 2;
+                            }
+                            j = arg.length();
+                        }
+                        default -> throw new ExternalFallback.Unsupported("invalid option -- '" + c + "'");
+                    }
+                }
+            } else if (pattern == null) {
+                pattern = arg;
+            } else {
+                files.add(arg);
+            }
+        }
+        if (pattern == null) {
+            err.println("usage: grep [-cvinqEF] [-m NUM] pattern [file...]");
+            return 2;
+        }
+
+        LineMatcher matcher;
+        try {
+            matcher = new LineMatcher(fixed ? pattern : regex(pattern, extended), fixed, ignoreCase);
+        } catch (PatternSyntaxException e) {
+            // grep may read it differently, or at least say what is wrong in its own terms
+            throw new ExternalFallback.Unsupported(e.getDescription());
+        }
+        if (files.isEmpty()) {
+            files.add("-");
+        }
+
+        // -q stops at the first selected line and prints nothing
+        GrepCommand grep = new GrepCommand(out, err, matcher, count && !quiet, invert, number,
+                quiet ? Math.min(max, 1) : max, files.size() > 1, quiet);
+        boolean selected = false;
+        boolean failed = false;
+        for (String file : files) {
+            long found = file.equals("-") ? grep.scanInput(in)
+                    : grep.scanFile(new File(file).isAbsolute() ? Path.of(file) : currentDir.toPath().resolve(file),
+                            file);
+            if (found < 0) {
+                failed = true;
+            } else if (found > 0) {
+                selected = true;
+                if (quiet) {
+                    return 0;
+                }
+            }
+        }
+        grep.flush();
+        return failed ? 2 : selected ? 0 : 1;
+    }
+
+    private long scanInput(InputStream in) throws IOException {
+        committed = true;
+        return scan(in, "(standard input)");
+    }
+
+    // Selected line count of one file, or -1 if it could not be read
+    private long scanFile(Path path, String name)
+            throws IOException, InterruptedException, ExternalFallback.Unsupported {
+        if (Files.isDirectory(path)) {
+            err.println("grep: " + name + ": Is a directory");
+            return -1;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            err.println("grep: " + name + ": No such file or directory");
+            return -1;
+        } catch (IOException e) {
+            err.println("grep: " + name + ": " + e.getMessage());
+            return -1;
+        }
+
+        try (channel) {
+            long size = channel.size();
+            if (size == 0) {
+                // Nothing mapped, or a /proc-style file that only reads
+                return scan(Channels.newInputStream(channel), name);
+            }
+            try {
+                return scanChunks(channel, size, name);
+            } catch (LineTooLong e) {
+                if (!committed && used == 0) {
+                    throw new ExternalFallback.Unsupported(name + ": line too long");
+                }
+                err.println("grep: " + name + ": line too long");
+                return -1;
+            }
+        }
+    }
+
+    // Chunks are scanned in parallel but written in order, at most WINDOW chunks ahead of the writer
+    private long scanChunks(FileChannel channel, long size, String name) throws IOException, InterruptedException {
+        ArrayDeque<Future<Hits>> pending = new ArrayDeque<>();
+        long next = 0;
+        long line = 1;
+        long selected = 0;
+        try {
+            while (next < size || !pending.isEmpty()) {
+                while (next < size && pending.size() < WINDOW) {
+                    long start = next;
+                    long end = lineEnd(channel, Math.min(size, start + CHUNK), size);
+                    if (end - start > Integer.MAX_VALUE) {
+                        // No mapping, nor a CharSequence, holds a line this long. Chunks before it
+                        // are still written; awaiting this one fails.
+                        pending.add(CompletableFuture.failedFuture(new LineTooLong()));
+                        next = size;
+                        break;
+                    }
+                    Callable<Hits> task = () -> scanRegion(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                    // One chunk is scanned here rather than handed to the pool
+                    pending.add(size <= CHUNK ? CompletableFuture.completedFuture(call(task))
+                            : ForkJoinPool.commonPool().submit(task));
+                    next = end;
+                }
+                Hits hits = await(pending.poll());
+                long take = Math.min(hits.size, max - selected);
+                write(hits, take, line, name);
+                selected += take;
+                line += hits.lines;
+                if (selected >= max) {
+                    break;
+                }
+            }
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+        }
+        if (count) {
+            writeCount(selected, name);
+        }
+        return selected;
+    }
+
+    private static Hits call(Callable<Hits> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Hits await(Future<Hits> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // The offset just past the newline ending the line that contains offset (or size)
+    private static long lineEnd(FileChannel channel, long offset, long size) throws IOException {
+        if (offset >= size) {
+            return size;
+        }
+        ByteBuffer probe = ByteBuffer.allocate(BUFFER);
+        long position = offset - 1;
+        while (position < size) {
+            probe.clear();
+            int n = channel.read(probe, position);
+            if (n <= 0) {
+                return size;
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    // Standard input, or a file that cannot be mapped: scanned a buffer of whole lines at a time
+    private long scan(InputStream in, String name) throws IOException {
+        byte[] data = new byte[BUFFER];
+        int filled = 0;
+        long line = 1;
+        long selected = 0;
+        while (selected < max) {
+            int n = in.read(data, filled, data.length - filled);
+            if (n == -1) {
+                break;
+            }
+            filled += n;
+            int complete = filled;
+            while (complete > 0 && data[complete - 1] != '\n') {
+                complete--;
+            }
+            if (complete == 0) {
+                if (filled == data.length) {
+                    // A line longer than the buffer
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                continue;
+            }
+
+            Hits hits = scanRegion(ByteBuffer.wrap(data, 0, complete));
+            long take = Math.min(hits.size, max - selected);
+            write(hits, take, line, name);
+            selected += take;
+            line += hits.lines;
+            System.arraycopy(data, complete, data, 0, filled - complete);
+            filled -= complete;
+            // Pass matches on while the producer is quiet, so interactive pipelines see them
+            if (in.available() == 0) {
+                flush();
+            }
+        }
+        if (filled > 0 && selected < max) {
+            // Last line without a newline
+            Hits hits = scanRegion(ByteBuffer.wrap(data, 0, filled));
+            long take = Math.min(hits.size, max - selected);
+            write(hits, take, line, name);
+            selected += take;
+        }
+        if (count) {
+            writeCount(selected, name);
+        }
+        return selected;
+    }
+
+    // Selected lines of region, which holds whole lines only. Runs on pool threads.
+    private Hits scanRegion(ByteBuffer region) {
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        LineMatcher.Lines lines = matcher.lines(region);
+        Hits hits = new Hits(region);
+        int end = region.limit();
+        int pos = 0;
+        long line = 0;
+        boolean skipToHits = !invert && matcher.literal != null;
+
+        while (pos < end && hits.size < max) {
+            int start;
+            int stop;
+            if (skipToHits) {
+                // Lines without the literal cannot match: jump to the next occurrence
+                int hit = matcher.find(region, pos, end);
+                if (hit < 0) {
+                    break;
+                }
+                start = hit;
+                while (start > pos && region.get(start - 1) != '\n') {
+                    start--;
+                }
+                if (number) {
+                    line += newlines(region, pos, start);
+                }
+                stop = indexOf(region, hit, end);
+            } else {
+                start = pos;
+                stop = indexOf(region, pos, end);
+            }
+            if (lines.matches(start, stop) != invert) {
+                hits.add(line, start, stop);
+            }
+            pos = stop + 1;
+            line++;
+        }
+        if (number && pos < end && hits.size < max) {
+            line += newlines(region, pos, end);
+        }
+        hits.lines = line;
+        return hits;
+    }
+
+    private static int indexOf(ByteBuffer region, int from, int end) {
+        int i = from;
+        for (; i + 8 <= end; i += 8) {
+            long found = equal(region.getLong(i), NEWLINES);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (region.get(i) == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static long newlines(ByteBuffer region, int from, int end) {
+        long n = 0;
+        int i = from;
+        for (; i + 8 <= end; i += 8) {
+            n += Long.bitCount(equal(region.getLong(i), NEWLINES));
+        }
+        for (; i < end; i++) {
+            if (region.get(i) == '\n') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // Eight bytes at a time: the high bit of each byte of word that equals the byte repeated in
+    // pattern, and nothing else (regions are little-endian, so the lowest bit is the first byte)
+    static long equal(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~((x & LOW_BITS) + LOW_BITS | x | LOW_BITS);
+    }
+
+    static long repeat(byte b) {
+        return (b & 0xffL) * 0x0101010101010101L;
+    }
+
+    private void write(Hits hits, long take, long firstLine, String name) throws IOException {
+        if (count || quiet) {
+            return;
+        }
+        for (int i = 0; i < take; i++) {
+            if (labelled) {
+                append(name);
+                append(':');
+            }
+            if (number) {
+                appendNumber(firstLine + hits.line(i));
+                append(':');
+            }
+            int start = hits.start(i);
+            int length = hits.end(i) - start;
+            while (length > 0) {
+                if (used == buffer.length) {
+                    drain();
+                }
+                int chunk = Math.min(length, buffer.length - used);
+                hits.region.get(start, buffer, used, chunk);
+                used += chunk;
+                start += chunk;
+                length -= chunk;
+            }
+            append('\n');
+        }
+    }
+
+    private void writeCount(long selected, String name) throws IOException {
+        if (labelled) {
+            append(name);
+            append(':');
+        }
+        appendNumber(selected);
+        append('\n');
+    }
+
+    private void append(char c) throws IOException {
+        if (used == buffer.length) {
+            drain();
+        }
+        buffer[used++] = (byte) c;
+    }
+
+    private void append(String s) throws IOException {
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            if (used == buffer.length) {
+                drain();
+            }
+            buffer[used++] = b;
+        }
+    }
+
+    private void appendNumber(long value) throws IOException {
+        if (used + 20 > buffer.length) {
+            drain();
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = used + digits - 1; i >= used; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        used += digits;
+    }
+
+    private void drain() throws IOException {
+        if (used > 0) {
+            committed = true;
+            out.write(buffer, 0, used);
+            used = 0;
+        }
+    }
+
+    private void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    // pattern as a Java regex. Outside brackets, Java reads a pattern as grep -E does, so a basic
+    // expression only needs the characters ERE makes operators escaped, and ^, $ and a leading *
+    // made literal where BRE keeps them literal. Inside brackets, [:class:] and friends, a
+    // backslash and Java's nested classes and && all mean something else to one of them.
+    static String regex(String pattern, boolean extended) throws ExternalFallback.Unsupported {
+        StringBuilder regex = new StringBuilder(pattern.length() + 8);
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == pattern.length()) {
+                    throw new ExternalFallback.Unsupported("trailing backslash (\\)");
+                }
+                char next = pattern.charAt(++i);
+                if ("<>`'".indexOf(next) >= 0 || !extended && "(){}|+?".indexOf(next) >= 0) {
+                    throw new ExternalFallback.Unsupported("unsupported pattern syntax \\" + next);
+                }
+                regex.append(c).append(next);
+            } else if (c == '[') {
+                int end = bracketEnd(pattern, i);
+                if (end < 0) {
+                    throw new ExternalFallback.Unsupported("Unmatched [, [^, [:, [., or [=");
+                }
+                String bracket = pattern.substring(i, end + 1);
+                if (bracket.indexOf('[', 1) >= 0 || bracket.indexOf('\\') >= 0 || bracket.contains("&&")) {
+                    throw new ExternalFallback.Unsupported("unsupported bracket expression " + bracket);
+                }
+                regex.append(bracket);
+                i = end;
+            } else if (!extended && ("(){}|+?".indexOf(c) >= 0 || c == '^' && i > 0
+                    || c == '$' && i < pattern.length() - 1
+                    || c == '*' && (i == 0 || i == 1 && pattern.charAt(0) == '^'))) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+
+    // Index of the ] closing the bracket expression that opens at start, or -1; a ] first in
+    // the list, after an optional ^, is a member
+    private static int bracketEnd(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^') {
+            i++;
+        }
+        if (i < pattern.length() && pattern.charAt(i) == ']') {
+            i++;
+        }
+        return pattern.indexOf(']', i);
+    }
+
+    private static final class LineTooLong extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Selected lines of one region: (line within region, start, end) for each
+    private static final class Hits {
+        final ByteBuffer region;
+        long[] lines3 = new long[48];
+        int size;
+        long lines;
+
+        Hits(ByteBuffer region) {
+            this.region = region;
+        }
+
+        void add(long line, int start, int end) {
+            if (size * 3 == lines3.length) {
+                lines3 = Arrays.copyOf(lines3, lines3.length * 2);
+            }
+            lines3[size * 3] = line;
+            lines3[size * 3 + 1] = start;
+            lines3[size * 3 + 2] = end;
+            size++;
+        }
+
+        long line(int i) {
+            return lines3[i * 3];
+        }
+
+        int start(int i) {
+            return (int) lines3[i * 3 + 1];
+        }
+
+        int end(int i) {
+            return (int) lines3[i * 3 + 2];
+        }
+    }
+
+    // The pattern, plus a literal every match contains when one can be found: -F patterns are
+    // all literal, and a regex yields its longest run of plain characters outside groups,
+    // classes and alternations. With -i the literal is compared ignoring ASCII case.
+    static final class LineMatcher {
+        final byte[] literal;
+        private final boolean literalOnly;
+        private final long first;
+        private final long firstUpper;
+        private final boolean ignoreCase;
+        private final Pattern pattern;
+        private final Pattern asciiPattern;
+
+        LineMatcher(String expression, boolean fixed, boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            String required = fixed ? expression : requiredLiteral(expression);
+            boolean ascii = required != null && required.chars().allMatch(c -> c < 0x80);
+            if (required != null && !required.isEmpty() && (ascii || !ignoreCase)) {
+                byte[] bytes = required.getBytes(StandardCharsets.UTF_8);
+                if (ignoreCase) {
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = lower(bytes[i]);
+                    }
+                }
+                literal = bytes;
+            } else {
+                literal = null;
+            }
+            // A pattern of plain characters only is its own literal
+            literalOnly = literal != null && (fixed || required.equals(expression));
+            first = literal != null ? repeat(literal[0]) : 0;
+            firstUpper = literal != null ? repeat(upper(literal[0])) : 0;
+            // Only \n ends a line, so $ does not match before a \r and . matches one, as in grep
+            int flags = Pattern.UNIX_LINES | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            String regex = fixed ? Pattern.quote(expression) : expression;
+            pattern = literalOnly ? null : Pattern.compile(regex, flags);
+            // Unicode case folding only matters when the pattern or the line has non-ASCII text
+            asciiPattern = literalOnly || !ignoreCase || !expression.chars().allMatch(c -> c < 0x80) ? pattern
+                    : Pattern.compile(regex, Pattern.UNIX_LINES | Pattern.CASE_INSENSITIVE);
+        }
+
+        // Offset of the next occurrence of the literal in [from, end), or -1
+        int find(ByteBuffer region, int from, int end) {
+            int last = end - literal.length;
+            int i = from;
+            // Candidates for the first byte come eight at a time
+            for (; i + 8 <= last + 1; i += 8) {
+                long word = region.getLong(i);
+                long found = equal(word, first) | (ignoreCase ? equal(word, firstUpper) : 0);
+                while (found != 0) {
+                    int at = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                    if (literalAt(region, at)) {
+                        return at;
+                    }
+                    found &= found - 1;
+                }
+            }
+            for (; i <= last; i++) {
+                byte b = region.get(i);
+                if ((b == literal[0] || ignoreCase && b == upper(literal[0])) && literalAt(region, i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Lines lines(ByteBuffer region) {
+            return new Lines(region);
+        }
+
+        // Matching the lines of one region, on one thread: the matchers and the view are reused
+        final class Lines {
+            private final ByteBuffer region;
+            private final AsciiLine view;
+            private final Matcher ascii;
+            private final Matcher utf8;
+
+            Lines(ByteBuffer region) {
+                this.region = region;
+                view = new AsciiLine(region, 0, 0);
+                ascii = literalOnly ? null : asciiPattern.matcher("");
+                utf8 = literalOnly ? null : pattern.matcher("");
+            }
+
+            boolean matches(int start, int end) {
+                if (literal != null && find(region, start, end) < 0) {
+                    return false;
+                }
+                if (literalOnly) {
+                    return true;
+                }
+                // ASCII lines are matched in place; anything else is decoded as UTF-8 first
+                for (int i = start; i < end; i++) {
+                    if (region.get(i) < 0) {
+                        byte[] bytes = new byte[end - start];
+                        region.get(start, bytes);
+                        return utf8.reset(new String(bytes, StandardCharsets.UTF_8)).find();
+                    }
+                }
+                return ascii.reset(view.set(start, end - start)).find();
+            }
+        }
+
+        private boolean literalAt(ByteBuffer region, int at) {
+            for (int j = 1; j < literal.length; j++) {
+                byte b = region.get(at + j);
+                if (b != literal[j] && !(ignoreCase && lower(b) == literal[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte lower(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+        }
+
+        private static byte upper(byte b) {
+            return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+        }
+
+        // The longest run of characters that stand for themselves at the top level of the
+        // expression, or null when an alternation means no single literal is required
+        static String requiredLiteral(String expression) {
+            if (expression.contains("(?")) {
+                // Inline flags may change what a plain character matches
+                return null;
+            }
+            String best = "";
+            StringBuilder run = new StringBuilder();
+            int depth = 0;
+            for (int i = 0; i < expression.length(); i++) {
+                char c = expression.charAt(i);
+                if (c == '|') {
+                    return null;
+                }
+                boolean plain = depth == 0 && (Character.isLetterOrDigit(c) || " _-/:=,;'\"<>@#%&~!".indexOf(c) >= 0);
+                boolean escaped = c == '\\' && i + 1 < expression.length()
+                        && !Character.isLetterOrDigit(expression.charAt(i + 1));
+                if (escaped) {
+                    // An escaped punctuation character stands for itself
+                    c = expression.charAt(++i);
+                    plain = depth == 0;
+                }
+                if (plain) {
+                    char next = i + 1 < expression.length() ? expression.charAt(i + 1) : 0;
+                    if (next == '?' || next == '*' || next == '{') {
+                        // The character before a quantifier is optional
+                        best = longer(best, run);
+                        run.setLength(0);
+                        continue;
+                    }
+                    run.append(c);
+                    continue;
+                }
+                best = longer(best, run);
+                run.setLength(0);
+                if (escaped) {
+                    continue;
+                }
+                if (c == '\\') {
+                    // \d, \x41, \p{Lu}, \k<name>: skip the whole escape
+                    i++;
+                    while (i + 1 < expression.length()
+                            && (Character.isLetterOrDigit(expression.charAt(i + 1)) || "{}<>".indexOf(expression.charAt(i + 1)) >= 0)) {
+                        i++;
+                    }
+                } else if (c == '[') {
+                    // Skip the class, including a leading ] or ^]
+                    int j = i + 1;
+                    if (j < expression.length() && expression.charAt(j) == '^') {
+                        j++;
+                    }
+                    if (j < expression.length() && expression.charAt(j) == ']') {
+                        j++;
+                    }
+                    while (j < expression.length() && expression.charAt(j) != ']') {
+                        j += expression.charAt(j) == '\\' ? 2 : 1;
+                    }
+                    i = j;
+                } else if (c == '{') {
+                    // A repetition count
+                    int close = expression.indexOf('}', i);
+                    i = close < 0 ? i : close;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth = Math.max(0, depth - 1);
+                }
+            }
+            best = longer(best, run);
+            return best.isEmpty() ? null : best;
+        }
+
+        private static String longer(String best, StringBuilder run) {
+            return run.length() > best.length() ? run.toString() : best;
+        }
+    }
+
+    // A line of ASCII bytes seen as chars without copying
+    private static final class AsciiLine implements CharSequence {
+        private final ByteBuffer region;
+        private int start;
+        private int length;
+
+        AsciiLine(ByteBuffer region, int start, int length) {
+            this.region = region;
+            this.start = start;
+            this.length = length;
+        }
+
+        AsciiLine set(int start, int length) {
+            this.start = start;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) region.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new AsciiLine(region, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            region.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
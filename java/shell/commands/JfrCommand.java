@@ -0,0 +1,213 @@
+package shell.commands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import shell.core.ShellSession;
+
+// jfr start|dump|stop|status: Flight Recorder recordings of this JVM, with jcmd's key=value
+// options. Recordings belong to the JVM, so in a daemon every session sees the same ones,
+// including any started with -XX:StartFlightRecording. The shell's own events (shell.*)
+// cost next to nothing while no recording is running.
+public class JfrCommand {
+    private static final String DEFAULT_NAME = "shell";
+
+    public static int run(String[] args, PrintStream out, PrintStream err, ShellSession session) {
+        if (args.length == 0) {
+            err.println("jfr: usage: jfr start|dump|stop|status [name=N] [settings=S] [filename=F] "
+                    + "[duration=T] [maxage=T] [maxsize=N]");
+            return 2;
+        }
+        if (!FlightRecorder.isAvailable()) {
+            err.println("jfr: Flight Recorder is not available in this JVM");
+            return 1;
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                // A bare word is the file name
+                options.put("filename", args[i]);
+            } else {
+                options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+            }
+        }
+
+        try {
+            return switch (args[0]) {
+                case "start" -> start(options, out, session);
+                case "dump" -> dump(options, out, err, session);
+                case "stop" -> stop(options, out, err, session);
+                case "status", "check" -> status(out);
+                default -> {
+                    err.println("jfr: " + args[0] + ": invalid command");
+                    yield 2;
+                }
+            };
+        } catch (IOException | ParseException | IllegalArgumentException | IllegalStateException e) {
+            err.println("jfr: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int start(Map<String, String> options, PrintStream out, ShellSession session)
+            throws IOException, ParseException {
+        String name = options.getOrDefault("name", DEFAULT_NAME);
+        if (find(name) != null) {
+            throw new IllegalStateException("recording " + name + " is already running");
+        }
+
+        String settings = options.getOrDefault("settings", "default");
+        Configuration configuration = settings.endsWith(".jfc")
+                ? Configuration.create(session.resolve(settings).toPath())
+                : Configuration.getConfiguration(settings);
+        Recording recording = new Recording(configuration);
+        recording.setName(name);
+        if (options.containsKey("duration")) {
+            recording.setDuration(duration(options.get("duration")));
+        }
+        if (options.containsKey("maxage")) {
+            recording.setMaxAge(duration(options.get("maxage")));
+        }
+        if (options.containsKey("maxsize")) {
+            recording.setMaxSize(size(options.get("maxsize")));
+        }
+        if (options.containsKey("filename")) {
+            // Written when the recording stops, including when its duration runs out
+            recording.setDestination(session.resolve(options.get("filename")).toPath());
+        }
+        recording.start();
+        out.println("Started recording " + recording.getId() + " \"" + name + "\" (" + settings + ")");
+        return 0;
+    }
+
+    private static int dump(Map<String, String> options, PrintStream out, PrintStream err, ShellSession session)
+            throws IOException {
+        Recording recording = named(options, err);
+        if (recording == null) {
+            return 1;
+        }
+        Path file = destination(options, recording, session);
+        recording.dump(file);
+        out.println("Dumped recording \"" + recording.getName() + "\" to " + file);
+        return 0;
+    }
+
+    private static int stop(Map<String, String> options, PrintStream out, PrintStream err, ShellSession session)
+            throws IOException {
+        Recording recording = named(options, err);
+        if (recording == null) {
+            return 1;
+        }
+        Path file = options.containsKey("filename") ? session.resolve(options.get("filename")).toPath() : null;
+        if (file != null) {
+            recording.setDestination(file);
+        }
+        recording.stop();
+        recording.close();
+        file = file != null ? file : recording.getDestination();
+        out.println("Stopped recording \"" + recording.getName() + "\""
+                + (file != null ? ", written to " + file : ", discarded"));
+        return 0;
+    }
+
+    private static int status(PrintStream out) {
+        boolean any = false;
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.CLOSED) {
+                continue;
+            }
+            any = true;
+            out.printf("%d\t%s\t%s\t%s%s%n", recording.getId(), recording.getName(), recording.getState(),
+                    recording.getSize() / 1024 + "K",
+                    recording.getDestination() != null ? "\t" + recording.getDestination() : "");
+        }
+        if (!any) {
+            out.println("No recordings");
+        }
+        return 0;
+    }
+
+    private static Recording named(Map<String, String> options, PrintStream err) {
+        String name = options.getOrDefault("name", DEFAULT_NAME);
+        Recording recording = find(name);
+        if (recording == null) {
+            err.println("jfr: " + name + ": no such recording");
+        }
+        return recording;
+    }
+
+    private static Recording find(String name) {
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            RecordingState state = recording.getState();
+            if ((state == RecordingState.RUNNING || state == RecordingState.DELAYED)
+                    && (recording.getName().equals(name) || Long.toString(recording.getId()).equals(name))) {
+                return recording;
+            }
+        }
+        return null;
+    }
+
+    private static Path destination(Map<String, String> options, Recording recording, ShellSession session)
+            throws IOException {
+        if (options.containsKey("filename")) {
+            return session.resolve(options.get("filename")).toPath();
+        }
+        if (recording.getDestination() != null) {
+            return recording.getDestination();
+        }
+        return Files.createTempFile(session.getCurrentDir().toPath(), recording.getName() + "-", ".jfr");
+    }
+
+    // 30s, 5m, 2h, 1d or 500ms; plain numbers are seconds
+    private static Duration duration(String text) {
+        try {
+            if (text.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+            }
+            char unit = text.charAt(text.length() - 1);
+            String digits = Character.isDigit(unit) ? text : text.substring(0, text.length() - 1);
+            long value = Long.parseLong(digits);
+            return switch (unit) {
+                case 'm' -> Duration.ofMinutes(value);
+                case 'h' -> Duration.ofHours(value);
+                case 'd' -> Duration.ofDays(value);
+                case 's' -> Duration.ofSeconds(value);
+                default -> {
+                    if (!Character.isDigit(unit)) {
+                        throw new NumberFormatException();
+                    }
+                    yield Duration.ofSeconds(value);
+                }
+            };
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(text + ": invalid time");
+        }
+    }
+
+    // Bytes, or with a k, m or g suffix
+    private static long size(String text) {
+        try {
+            char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+            long shift = switch (unit) {
+                case 'k' -> 10;
+                case 'm' -> 20;
+                case 'g' -> 30;
+                default -> 0;
+            };
+            return Long.parseLong(shift == 0 ? text : text.substring(0, text.length() - 1)) << shift;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(text + ": invalid size");
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package shell.commands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import shell.core.Processes;
+import shell.core.ShellSession;
+import shell.jobs.Job;
+import shell.jobs.JobTable;
+import shell.terminal.Terminal;
+
+// jobs, wait, fg, bg and kill over the session's job table. The JVM cannot give a job the
+// terminal's process group, so fg waits for the job in the foreground, and stopping and
+// resuming (kill -STOP, bg) are signals sent through the system kill program.
+public class JobCommand {
+    private static final String[] SIGNALS = {
+        null, "HUP", "INT", "QUIT", "ILL", "TRAP", "ABRT", "BUS", "FPE", "KILL", "USR1", "SEGV",
+        "USR2", "PIPE", "ALRM", "TERM", "STKFLT", "CHLD", "CONT", "STOP", "TSTP", "TTIN", "TTOU"
+    };
+    private static final int SIGKILL = 9;
+    private static final int SIGTERM = 15;
+    private static final int SIGCONT = 18;
+
+    public static int jobs(String[] args, PrintStream out, PrintStream err, ShellSession session) {
+        JobTable table = session.getJobs();
+        boolean withPid = false;
+        boolean pidsOnly = false;
+        List<Job> selected = new ArrayList<>();
+        int status = 0;
+
+        for (String arg : args) {
+            if (arg.equals("-l")) {
+                withPid = true;
+            } else if (arg.equals("-p")) {
+                pidsOnly = true;
+            } else {
+                Job job = table.find(arg);
+                if (job == null) {
+                    err.println("jobs: " + arg + ": no such job");
+                    status = 1;
+                } else {
+                    selected.add(job);
+                }
+            }
+        }
+        if (selected.isEmpty() && status == 0) {
+            selected = table.list();
+        }
+
+        for (Job job : selected) {
+            if (pidsOnly) {
+                for (Process process : job.getProcesses()) {
+                    out.println(process.pid());
+                }
+            } else {
+                out.println(table.format(job, withPid));
+            }
+        }
+        // Finished jobs are reported here instead of at the next prompt
+        for (Job job : selected) {
+            if (job.isDone() && !pidsOnly) {
+                table.remove(job);
+            }
+        }
+        return status;
+    }
+
+    public static int await(String[] args, PrintStream err, ShellSession session) throws InterruptedException {
+        JobTable table = session.getJobs();
+        List<Job> targets = new ArrayList<>();
+        int status = 0;
+
+        if (args.length == 0) {
+            targets = table.list();
+        }
+        for (String arg : args) {
+            Job job = arg.startsWith("%") ? table.find(arg) : byPid(arg, table);
+            if (job != null) {
+                targets.add(job);
+            } else if (arg.startsWith("%")) {
+                err.println("wait: " + arg + ": no such job");
+                status = 127;
+            } else if (isNumber(arg)) {
+                err.println("wait: pid " + arg + " is not a child of this shell");
+                status = 127;
+            } else {
+                err.println("wait: `" + arg + "': not a pid or valid job spec");
+                status = 2;
+            }
+        }
+        if (targets.isEmpty()) {
+            return args.length == 0 ? 0 : status;
+        }
+
+        if (session.isConsole()) {
+            Terminal.suspend();
+        }
+        for (Job job : targets) {
+            status = job.await();
+        }
+        return args.length == 0 ? 0 : status;
+    }
+
+    public static int fg(String[] args, PrintStream out, PrintStream err, ShellSession session)
+            throws InterruptedException {
+        Job job = select("fg", args, err, session.getJobs());
+        if (job == null) {
+            return 1;
+        }
+        out.println(job.getCommand());
+        out.flush();
+        if (job.isStopped()) {
+            signal(handles(job), SIGCONT, err, session);
+        }
+        if (session.isConsole()) {
+            Terminal.suspend();
+        }
+        int status = job.await();
+        session.getJobs().remove(job);
+        return status;
+    }
+
+    public static int bg(String[] args, PrintStream out, PrintStream err, ShellSession session) {
+        JobTable table = session.getJobs();
+        Job job = select("bg", args, err, table);
+        if (job == null) {
+            return 1;
+        }
+        if (!job.isStopped()) {
+            err.println("bg: job " + job.getId() + " already in background");
+            return 0;
+        }
+        if (!signal(handles(job), SIGCONT, err, session)) {
+            return 1;
+        }
+        table.touch(job);
+        out.println("[" + job.getId() + "]" + table.marker(job) + " " + job.getCommand() + " &");
+        return 0;
+    }
+
+    public static int kill(String[] args, PrintStream out, PrintStream err, ShellSession session) {
+        if (args.length == 0) {
+            err.println("kill: usage: kill [-s sigspec | -n signum | -sigspec] pid | jobspec ... or kill -l");
+            return 2;
+        }
+        if (args[0].equals("-l") || args[0].equals("-L")) {
+            for (int i = 1; i < SIGNALS.length; i++) {
+                out.printf("%2d) SIG%s%n", i, SIGNALS[i]);
+            }
+            return 0;
+        }
+
+        String spec = "TERM";
+        int first = 0;
+        if ((args[0].equals("-s") || args[0].equals("-n")) && args.length > 1) {
+            spec = args[1];
+            first = 2;
+        } else if (args[0].startsWith("-") && args[0].length() > 1) {
+            spec = args[0].substring(1);
+            first = 1;
+        }
+        int signal = signalNumber(spec);
+        if (signal < 0) {
+            err.println("kill: " + spec + ": invalid signal specification");
+            return 1;
+        }
+
+        int status = 0;
+        for (int i = first; i < args.length; i++) {
+            String target = args[i];
+            if (target.startsWith("%")) {
+                Job job = session.getJobs().find(target);
+                if (job == null) {
+                    err.println("kill: " + target + ": no such job");
+                    status = 1;
+                } else if (signal == SIGTERM && !job.isStopped()) {
+                    // Also interrupts the job's builtin stages
+                    job.cancel();
+                } else if (!signal(handles(job), signal, err, session)) {
+                    status = 1;
+                } else if (signal == SIGTERM) {
+                    // A stopped job only acts on TERM once it runs again
+                    signal(handles(job), SIGCONT, err, session);
+                }
+            } else if (isNumber(target)) {
+                Optional<ProcessHandle> handle = ProcessHandle.of(Long.parseLong(target));
+                if (handle.isEmpty()) {
+                    err.println("kill: (" + target + ") - No such process");
+                    status = 1;
+                } else if (!signal(List.of(handle.get()), signal, err, session)) {
+                    status = 1;
+                }
+            } else {
+                err.println("kill: " + target + ": arguments must be process or job IDs");
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    private static Job select(String name, String[] args, PrintStream err, JobTable table) {
+        if (args.length == 0) {
+            Job job = table.current();
+            if (job == null) {
+                err.println(name + ": current: no such job");
+            }
+            return job;
+        }
+        Job job = args[0].startsWith("%") ? table.find(args[0]) : byPid(args[0], table);
+        if (job == null) {
+            err.println(name + ": " + args[0] + ": no such job");
+        }
+        return job;
+    }
+
+    private static Job byPid(String arg, JobTable table) {
+        return isNumber(arg) ? table.findByPid(Long.parseLong(arg)) : null;
+    }
+
+    private static List<ProcessHandle> handles(Job job) {
+        List<ProcessHandle> handles = new ArrayList<>();
+        for (Process process : job.getProcesses()) {
+            handles.add(process.toHandle());
+        }
+        return handles;
+    }
+
+    private static boolean signal(List<ProcessHandle> handles, int signal, PrintStream err, ShellSession session) {
+        List<String> pids = new ArrayList<>();
+        for (ProcessHandle handle : handles) {
+            if (!handle.isAlive()) {
+                continue;
+            }
+            // TERM and KILL need no helper process
+            if (signal == SIGTERM) {
+                handle.destroy();
+            } else if (signal == SIGKILL) {
+                handle.destroyForcibly();
+            } else {
+                pids.add(Long.toString(handle.pid()));
+            }
+        }
+        if (pids.isEmpty()) {
+            return true;
+        }
+
+        String kill = session.getCommandHash().lookup("kill");
+        if (kill == null) {
+            err.println("kill: SIG" + SIGNALS[signal] + ": not supported on this system");
+            return false;
+        }
+        List<String> command = new ArrayList<>();
+        command.add(kill);
+        command.add("-" + signal);
+        command.addAll(pids);
+        try {
+            return Processes.start(new ProcessBuilder(command).inheritIO(), session).waitFor() == 0;
+        } catch (IOException e) {
+            err.println("kill: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // HUP, SIGHUP, hup or 1; -1 if unknown
+    private static int signalNumber(String spec) {
+        if (isNumber(spec)) {
+            int number = Integer.parseInt(spec);
+            return number > 0 && number < SIGNALS.length ? number : -1;
+        }
+        String name = spec.toUpperCase();
+        if (name.startsWith("SIG")) {
+            name = name.substring(3);
+        }
+        for (int i = 1; i < SIGNALS.length; i++) {
+            if (SIGNALS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty() || s.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
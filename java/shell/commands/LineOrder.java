@@ -0,0 +1,282 @@
+package shell.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The order sort puts lines in, compared as bytes the way sort does under LC_ALL=C: -k keys
+// in turn (by byte or -n numerically, each reversible), then the whole line as a last resort
+// unless -u asked for lines with equal keys to count as duplicates. Fields are separated by
+// -t's character, or else begin where blanks do, leading blanks included.
+final class LineOrder {
+    static final class Key {
+        int startField;
+        int startChar = 1;
+        int endField;
+        int endChar;
+        boolean numeric;
+        boolean reverse;
+        boolean options;
+    }
+
+    final List<Key> keys = new ArrayList<>();
+    boolean numeric;
+    boolean reverse;
+    boolean unique;
+    int separator = -1;
+
+    // Only plain byte order can be decided by an 8-byte prefix of the line
+    boolean isPlain() {
+        return keys.isEmpty() && !numeric;
+    }
+
+    // -k POS1[,POS2], POS being F[.C][nr]; returns null if malformed
+    static Key parseKey(String spec) {
+        Key key = new Key();
+        int comma = spec.indexOf(',');
+        String start = comma < 0 ? spec : spec.substring(0, comma);
+        int[] position = position(start, key, 1);
+        if (position == null || position[0] < 1 || position[1] < 1) {
+            return null;
+        }
+        key.startField = position[0];
+        key.startChar = position[1];
+        if (comma >= 0) {
+            position = position(spec.substring(comma + 1), key, 0);
+            if (position == null || position[0] < 1) {
+                return null;
+            }
+            key.endField = position[0];
+            key.endChar = position[1];
+        }
+        return key;
+    }
+
+    // Without .C a start is the field's first character and an end its last
+    private static int[] position(String text, Key key, int defaultChar) {
+        int end = text.length();
+        while (end > 0 && Character.isLetter(text.charAt(end - 1))) {
+            switch (text.charAt(--end)) {
+                case 'n' -> key.numeric = true;
+                case 'r' -> key.reverse = true;
+                // -b, -f and the rest are not supported
+                default -> {
+                    return null;
+                }
+            }
+            key.options = true;
+        }
+        String number = text.substring(0, end);
+        int dot = number.indexOf('.');
+        try {
+            int field = Integer.parseInt(dot < 0 ? number : number.substring(0, dot));
+            int character = dot < 0 ? defaultChar : Integer.parseInt(number.substring(dot + 1));
+            return new int[] {field, character};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Keys without options of their own take the global -n and -r
+    void inherit() {
+        for (Key key : keys) {
+            if (!key.options) {
+                key.numeric = numeric;
+                key.reverse = reverse;
+            }
+        }
+    }
+
+    int compare(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        if (keys.isEmpty()) {
+            if (numeric) {
+                int result = compareNumbers(a, aStart, aEnd, b, bStart, bEnd);
+                if (result != 0 || unique) {
+                    return reverse ? -result : result;
+                }
+            }
+            int result = Arrays.compareUnsigned(a, aStart, aEnd, b, bStart, bEnd);
+            return reverse ? -result : result;
+        }
+
+        return compareFrom(0, a, aStart, aEnd, b, bStart, bEnd);
+    }
+
+    // Keys from the first'th on, then the last resort: for callers that settled earlier keys
+    int compareFrom(int first, byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        for (int i = first; i < keys.size(); i++) {
+            Key key = keys.get(i);
+            int as = keyStart(a, aStart, aEnd, key);
+            int bs = keyStart(b, bStart, bEnd, key);
+            int result = compareKey(key, a, as, keyEnd(a, as, aEnd, key, aStart), b, bs, keyEnd(b, bs, bEnd, key, bStart));
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (unique) {
+            return 0;
+        }
+        int result = Arrays.compareUnsigned(a, aStart, aEnd, b, bStart, bEnd);
+        return reverse ? -result : result;
+    }
+
+    // One key's bytes of each line, from keyStart and keyEnd
+    int compareKey(Key key, byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        int result = key.numeric ? compareNumbers(a, aStart, aEnd, b, bStart, bEnd)
+                : Arrays.compareUnsigned(a, aStart, aEnd, b, bStart, bEnd);
+        return key.reverse ? -result : result;
+    }
+
+    int keyStart(byte[] line, int start, int end, Key key) {
+        int at = fieldStart(line, start, end, key.startField);
+        return Math.min(end, at + key.startChar - 1);
+    }
+
+    // Never before keyStart, so a key that ends before it starts is empty
+    int keyEnd(byte[] line, int keyStart, int end, Key key, int start) {
+        if (key.endField == 0) {
+            return end;
+        }
+        int at = fieldStart(line, start, end, key.endField);
+        at = key.endChar > 0 ? Math.min(end, at + key.endChar) : fieldEnd(line, at, end);
+        return Math.max(keyStart, at);
+    }
+
+    // The value of a -n key that is a whole number of at most 18 digits, or Long.MIN_VALUE
+    // when only compareNumbers can say (a fraction, or more digits)
+    static long simpleNumber(byte[] line, int at, int end) {
+        while (at < end && isBlank(line[at])) {
+            at++;
+        }
+        boolean negative = at < end && line[at] == '-';
+        if (negative) {
+            at++;
+        }
+        long value = 0;
+        int digits = 0;
+        for (; at < end && isDigit(line[at]); at++, digits++) {
+            value = value * 10 + line[at] - '0';
+        }
+        if (digits > 18 || at < end && line[at] == '.') {
+            return Long.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+
+    private int fieldStart(byte[] line, int at, int end, int field) {
+        for (int i = 1; i < field && at < end; i++) {
+            at = fieldEnd(line, at, end);
+            if (separator >= 0 && at < end) {
+                at++;
+            }
+        }
+        return at;
+    }
+
+    private int fieldEnd(byte[] line, int at, int end) {
+        if (separator >= 0) {
+            while (at < end && line[at] != (byte) separator) {
+                at++;
+            }
+            return at;
+        }
+        while (at < end && isBlank(line[at])) {
+            at++;
+        }
+        while (at < end && !isBlank(line[at])) {
+            at++;
+        }
+        return at;
+    }
+
+    // sort -n: optional blanks and '-', digits, an optional fraction; anything else counts as 0
+    static int compareNumbers(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        int x = number(a, aStart, aEnd);
+        int y = number(b, bStart, bEnd);
+        if (x < 0 != y < 0) {
+            return x < 0 ? -1 : 1;
+        }
+        int result = compareMagnitudes(a, x < 0 ? -x - 1 : x, aEnd, b, y < 0 ? -y - 1 : y, bEnd);
+        return x < 0 ? -result : result;
+    }
+
+    // Start of the digits (leading zeros skipped), or -start - 1 if the number is below zero
+    private static int number(byte[] line, int at, int end) {
+        while (at < end && isBlank(line[at])) {
+            at++;
+        }
+        boolean negative = at < end && line[at] == '-';
+        if (negative) {
+            at++;
+        }
+        while (at < end && line[at] == '0') {
+            at++;
+        }
+        // -0 and -0.000 are zero
+        if (negative && isZero(line, at, end)) {
+            negative = false;
+        }
+        return negative ? -at - 1 : at;
+    }
+
+    private static boolean isZero(byte[] line, int at, int end) {
+        if (at < end && isDigit(line[at])) {
+            return false;
+        }
+        if (at < end && line[at] == '.') {
+            for (at++; at < end && isDigit(line[at]); at++) {
+                if (line[at] != '0') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int compareMagnitudes(byte[] a, int aAt, int aEnd, byte[] b, int bAt, int bEnd) {
+        int aDigits = digits(a, aAt, aEnd);
+        int bDigits = digits(b, bAt, bEnd);
+        if (aDigits != bDigits) {
+            return aDigits < bDigits ? -1 : 1;
+        }
+        int result = Arrays.compareUnsigned(a, aAt, aAt + aDigits, b, bAt, bAt + bDigits);
+        if (result != 0) {
+            return Integer.signum(result);
+        }
+        // Fractions digit by digit, the shorter one padded with zeros
+        aAt += aDigits;
+        bAt += bDigits;
+        boolean aFraction = aAt < aEnd && a[aAt] == '.';
+        boolean bFraction = bAt < bEnd && b[bAt] == '.';
+        aAt += aFraction ? 1 : 0;
+        bAt += bFraction ? 1 : 0;
+        while (true) {
+            int x = aFraction && aAt < aEnd && isDigit(a[aAt]) ? a[aAt++] : '0';
+            int y = bFraction && bAt < bEnd && isDigit(b[bAt]) ? b[bAt++] : '0';
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+            boolean aMore = aFraction && aAt < aEnd && isDigit(a[aAt]);
+            boolean bMore = bFraction && bAt < bEnd && isDigit(b[bAt]);
+            if (!aMore && !bMore) {
+                return 0;
+            }
+        }
+    }
+
+    private static int digits(byte[] line, int at, int end) {
+        int n = 0;
+        while (at + n < end && isDigit(line[at + n])) {
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,401 @@
+package shell.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import shell.terminal.TerminalOutput;
+
+// ls [-laR1] [path...]: names sorted bytewise, as under LC_ALL=C, in columns on the console
+// and one per line anywhere else. -l reads everything it shows in the one lstat FileWalker
+// does per entry; user and group names are looked up once per id.
+//
+// -R prints directories in order, but lists them ahead of time: while one directory is being
+// printed, the next few of its subdirectories are already being read on FileWalker's pool.
+public class LsCommand {
+    private static final long SIX_MONTHS_MILLIS = 15_778_476_000L;
+    private static final int PREFETCH = Math.max(4, FileWalker.POOL.getParallelism() * 2);
+    private static final DateTimeFormatter RECENT = DateTimeFormatter.ofPattern("MMM ppd HH:mm", Locale.ENGLISH);
+    private static final DateTimeFormatter OLD = DateTimeFormatter.ofPattern("MMM ppd  yyyy", Locale.ENGLISH);
+    private static final Comparator<FileWalker.Entry> BY_NAME = Comparator.comparing(entry -> entry.name);
+
+    private final TerminalOutput out;
+    private final PrintStream err;
+    private final boolean all;
+    private final boolean detailed;
+    private final boolean recursive;
+    private final int columns;
+    private final Map<Integer, String> users = new ConcurrentHashMap<>();
+    private final Map<Integer, String> groups = new ConcurrentHashMap<>();
+    private final long now = System.currentTimeMillis();
+    private int status;
+    private boolean printed;
+
+    private LsCommand(PrintStream out, PrintStream err, boolean all, boolean detailed, boolean recursive,
+                      int columns) {
+        this.out = new TerminalOutput(out);
+        this.err = err;
+        this.all = all;
+        this.detailed = detailed;
+        this.recursive = recursive;
+        this.columns = columns;
+    }
+
+    // A directory listing, or why it could not be read
+    private static final class Listing {
+        final List<FileWalker.Entry> entries;
+        final IOException failure;
+
+        Listing(List<FileWalker.Entry> entries, IOException failure) {
+            this.entries = entries;
+            this.failure = failure;
+        }
+    }
+
+    // Paths are relative to currentDir. columns is the terminal width, or 0 for one name a line.
+    public static int run(String[] args, PrintStream out, PrintStream err, File currentDir, int columns)
+            throws InterruptedException {
+        boolean all = false;
+        boolean detailed = false;
+        boolean recursive = false;
+        List<String> operands = new ArrayList<>();
+        boolean options = true;
+        for (String arg : args) {
+            if (options && arg.equals("--")) {
+                options = false;
+            } else if (options && arg.startsWith("-") && arg.length() > 1) {
+                for (int j = 1; j < arg.length(); j++) {
+                    switch (arg.charAt(j)) {
+                        case 'a' -> all = true;
+                        case 'l' -> detailed = true;
+                        case 'R' -> recursive = true;
+                        case '1' -> columns = 0;
+                        default -> {
+                            err.println("ls: invalid option -- '" + arg.charAt(j) + "'");
+                            err.println("usage: ls [-laR1] [path...]");
+                            return 2;
+                        }
+                    }
+                }
+            } else {
+                operands.add(arg);
+            }
+        }
+        if (operands.isEmpty()) {
+            operands.add(".");
+        }
+
+        LsCommand ls = new LsCommand(out, err, all, detailed, recursive, columns);
+        List<FileWalker.Entry> files = new ArrayList<>();
+        List<FileWalker.Entry> dirs = new ArrayList<>();
+        for (String operand : operands) {
+            Path path = currentDir.toPath().resolve(operand);
+            FileWalker.Entry entry;
+            try {
+                // Named as given, so that is what gets printed
+                entry = FileWalker.stat(path, operand, detailed);
+            } catch (IOException e) {
+                err.println("ls: cannot access '" + operand + "': " + reason(e));
+                ls.status = 2;
+                continue;
+            }
+            // A link to a directory is listed as the directory unless -l shows the link itself
+            boolean directory = entry.isDirectory() || entry.isSymbolicLink() && !detailed && Files.isDirectory(path);
+            (directory ? dirs : files).add(entry);
+        }
+        files.sort(BY_NAME);
+        dirs.sort(BY_NAME);
+
+        if (!files.isEmpty()) {
+            ls.print(files, false);
+            ls.printed = true;
+        }
+        boolean headers = operands.size() > 1 || recursive;
+        for (FileWalker.Entry dir : dirs) {
+            ls.printTree(FileWalker.POOL.submit(() -> ls.read(dir.path)), dir.name, headers);
+            if (ls.out.checkError()) {
+                break;
+            }
+        }
+        ls.out.flush();
+        return ls.status;
+    }
+
+    // Sorted, and without dot files unless -a, which adds . and .. too
+    private Listing read(Path dir) {
+        try {
+            List<FileWalker.Entry> entries = FileWalker.list(dir, detailed);
+            if (all) {
+                entries.add(FileWalker.stat(dir, ".", detailed));
+                entries.add(FileWalker.stat(dir.resolve(".."), "..", detailed));
+            } else {
+                entries.removeIf(entry -> entry.name.startsWith("."));
+            }
+            entries.sort(BY_NAME);
+            return new Listing(entries, null);
+        } catch (IOException e) {
+            return new Listing(null, e);
+        }
+    }
+
+    private void printTree(Future<Listing> pending, String display, boolean header) throws InterruptedException {
+        Listing listing;
+        try {
+            listing = pending.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (printed) {
+            out.newline();
+        }
+        if (header) {
+            out.append(display).append(':').newline();
+        }
+        printed = true;
+        if (listing.failure != null) {
+            out.flush();
+            err.println("ls: cannot open directory '" + display + "': " + reason(listing.failure));
+            status = Math.max(status, 1);
+            return;
+        }
+        print(listing.entries, true);
+        if (!recursive || out.checkError()) {
+            return;
+        }
+
+        // The next few subdirectories are read while the first is printed
+        String prefix = display.endsWith("/") ? display : display + "/";
+        ArrayDeque<Future<Listing>> ahead = new ArrayDeque<>();
+        List<FileWalker.Entry> subdirectories = new ArrayList<>();
+        for (FileWalker.Entry entry : listing.entries) {
+            if (entry.isDirectory() && !entry.name.equals(".") && !entry.name.equals("..")) {
+                subdirectories.add(entry);
+            }
+        }
+        int next = 0;
+        for (FileWalker.Entry dir : subdirectories) {
+            while (next < subdirectories.size() && ahead.size() < PREFETCH) {
+                Path path = subdirectories.get(next++).path;
+                ahead.add(FileWalker.POOL.submit(() -> read(path)));
+            }
+            printTree(ahead.poll(), prefix + dir.name, true);
+            if (out.checkError()) {
+                ahead.forEach(future -> future.cancel(false));
+                return;
+            }
+        }
+    }
+
+    private void print(List<FileWalker.Entry> entries, boolean directory) {
+        if (detailed) {
+            printLong(entries, directory);
+        } else if (columns > 0) {
+            printColumns(entries);
+        } else {
+            for (FileWalker.Entry entry : entries) {
+                out.append(entry.name).newline();
+            }
+        }
+    }
+
+    // Names down the columns, as many columns as fit, each as wide as its longest name
+    private void printColumns(List<FileWalker.Entry> entries) {
+        int n = entries.size();
+        if (n == 0) {
+            return;
+        }
+        int total = 0;
+        for (FileWalker.Entry entry : entries) {
+            total += entry.name.length() + 2;
+        }
+        int[] widths = null;
+        int rows = Math.max(1, (total + columns - 1) / columns);
+        for (; rows < n; rows++) {
+            widths = widths(entries, rows);
+            int width = -2;
+            for (int w : widths) {
+                width += w;
+            }
+            if (width <= columns) {
+                break;
+            }
+        }
+        if (rows >= n) {
+            rows = n;
+            widths = widths(entries, rows);
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col * rows + row < n; col++) {
+                String name = entries.get(col * rows + row).name;
+                out.append(name);
+                if ((col + 1) * rows + row < n) {
+                    out.spaces(widths[col] - name.length());
+                }
+            }
+            out.newline();
+        }
+    }
+
+    private static int[] widths(List<FileWalker.Entry> entries, int rows) {
+        int[] widths = new int[(entries.size() + rows - 1) / rows];
+        for (int i = 0; i < entries.size(); i++) {
+            widths[i / rows] = Math.max(widths[i / rows], entries.get(i).name.length() + 2);
+        }
+        return widths;
+    }
+
+    private void printLong(List<FileWalker.Entry> entries, boolean directory) {
+        int links = 1;
+        int owners = 1;
+        int groupNames = 1;
+        int sizes = 1;
+        int majors = 0;
+        int minors = 0;
+        long blocks = 0;
+        String[] owner = new String[entries.size()];
+        String[] group = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            FileWalker.Entry entry = entries.get(i);
+            owner[i] = user(entry);
+            group[i] = group(entry);
+            links = Math.max(links, Integer.toString(entry.links).length());
+            owners = Math.max(owners, owner[i].length());
+            groupNames = Math.max(groupNames, group[i].length());
+            if (entry.isDevice()) {
+                majors = Math.max(majors, Long.toString(major(entry.device)).length());
+                minors = Math.max(minors, Long.toString(minor(entry.device)).length());
+            } else {
+                sizes = Math.max(sizes, Long.toString(entry.size).length());
+            }
+            // st_blocks is not available, so the total assumes 4 KiB blocks and no sparse files
+            if (!entry.isSymbolicLink()) {
+                blocks += (entry.size + 4095) / 4096 * 4;
+            }
+        }
+        // Devices show their major and minor numbers, each aligned, where the size would be
+        if (majors > 0) {
+            sizes = Math.max(sizes, majors + 2 + minors);
+        }
+        if (directory) {
+            out.append("total ").append(blocks, 0).newline();
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            FileWalker.Entry entry = entries.get(i);
+            out.append(mode(entry.mode)).append(' ').append(entry.links, links).append(' ')
+                    .append(owner[i]).spaces(owners - owner[i].length() + 1)
+                    .append(group[i]).spaces(groupNames - group[i].length() + 1);
+            if (entry.isDevice()) {
+                out.append(major(entry.device), sizes - minors - 2).append(", ").append(minor(entry.device), minors);
+            } else {
+                out.append(entry.size, sizes);
+            }
+            out.append(' ').append(date(entry.modified)).append(' ').append(entry.name);
+            if (entry.isSymbolicLink()) {
+                try {
+                    out.append(" -> ").append(Files.readSymbolicLink(entry.path).toString());
+                } catch (IOException e) {
+                    // Shown without its target
+                }
+            }
+            out.newline();
+        }
+    }
+
+    private String user(FileWalker.Entry entry) {
+        if (entry.uid < 0) {
+            return name(() -> Files.getOwner(entry.path, LinkOption.NOFOLLOW_LINKS).getName(), "?");
+        }
+        return users.computeIfAbsent(entry.uid, uid -> name(
+                () -> Files.getOwner(entry.path, LinkOption.NOFOLLOW_LINKS).getName(), Integer.toString(uid)));
+    }
+
+    private String group(FileWalker.Entry entry) {
+        if (entry.gid < 0) {
+            return "?";
+        }
+        return groups.computeIfAbsent(entry.gid, gid -> name(() -> Files.readAttributes(entry.path,
+                PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS).group().getName(), Integer.toString(gid)));
+    }
+
+    private interface Lookup {
+        String get() throws IOException;
+    }
+
+    private static String name(Lookup lookup, String fallback) {
+        try {
+            return lookup.get();
+        } catch (IOException | UnsupportedOperationException e) {
+            return fallback;
+        }
+    }
+
+    // Linux's encoding of dev_t, as glibc's major() and minor() take it apart
+    private static long major(long device) {
+        return device >>> 8 & 0xfff | device >>> 32 & ~0xfffL;
+    }
+
+    private static long minor(long device) {
+        return device & 0xff | device >>> 12 & ~0xffL;
+    }
+
+    // drwxr-xr-x, with setuid, setgid and sticky bits as s/S and t/T
+    private static String mode(int mode) {
+        char[] text = new char[10];
+        text[0] = switch (mode & 0170000) {
+            case 0040000 -> 'd';
+            case 0120000 -> 'l';
+            case 0020000 -> 'c';
+            case 0060000 -> 'b';
+            case 0010000 -> 'p';
+            case 0140000 -> 's';
+            default -> '-';
+        };
+        String rwx = "rwxrwxrwx";
+        for (int i = 0; i < 9; i++) {
+            text[i + 1] = (mode & 1 << (8 - i)) != 0 ? rwx.charAt(i) : '-';
+        }
+        special(text, 3, (mode & 04000) != 0, 's');
+        special(text, 6, (mode & 02000) != 0, 's');
+        special(text, 9, (mode & 01000) != 0, 't');
+        return new String(text);
+    }
+
+    private static void special(char[] text, int at, boolean set, char letter) {
+        if (set) {
+            text[at] = text[at] == 'x' ? letter : Character.toUpperCase(letter);
+        }
+    }
+
+    // Month, day and time for the last six months, the year instead for anything else
+    private String date(long modified) {
+        boolean recent = modified > now - SIX_MONTHS_MILLIS && modified <= now + 60_000;
+        return (recent ? RECENT : OLD).format(Instant.ofEpochMilli(modified).atZone(ZoneId.systemDefault()));
+    }
+
+    private static String reason(IOException e) {
+        if (e instanceof NoSuchFileException) {
+            return "No such file or directory";
+        }
+        if (e instanceof AccessDeniedException) {
+            return "Permission denied";
+        }
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,320 @@
+package shell.commands;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import shell.core.Processes;
+import shell.core.ShellSession;
+import shell.core.ShellState;
+import shell.enums.ShellType;
+import shell.parser.CommandList;
+import shell.parser.CommandParser;
+import shell.parser.SimpleCommand;
+import shell.parser.SyntaxException;
+import shell.pipeline.PipelineScheduler;
+import shell.terminal.Terminal;
+
+// parallel [-j N] [-k] [--halt never|soon|now] command [arg]... [::: input...]
+//
+// Runs the command once per input (the arguments after :::, or stdin lines), with {} replaced
+// by the input, {.} by the input without its extension and {/} by its last path component; a
+// command without any of them gets the input appended. At most N jobs run at once on a
+// work-stealing pool, N defaulting to the number of cores (0 for no limit).
+//
+// Each job's stdout is collected and written in one piece when the job ends, in completion
+// order or with -k in input order; stderr is passed straight through. The exit status is the
+// number of failed jobs (at most 101), or the failed job's status when --halt stopped the run.
+public class ParallelCommand {
+    private static final int MAX_FAILURES = 101;
+
+    private enum Halt {
+        NEVER, SOON, NOW
+    }
+
+    private static final class Result {
+        final List<String> argv;
+        final byte[] output;
+        final int status;
+        final boolean skipped;
+
+        Result(List<String> argv, byte[] output, int status, boolean skipped) {
+            this.argv = argv;
+            this.output = output;
+            this.status = status;
+            this.skipped = skipped;
+        }
+    }
+
+    public static int run(String[] args, InputStream in, OutputStream out, PrintStream err,
+                          ShellSession session) throws IOException, InterruptedException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean keepOrder = false;
+        Halt halt = Halt.NEVER;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            String value = null;
+            if (arg.equals("-k") || arg.equals("--keep-order")) {
+                keepOrder = true;
+                continue;
+            } else if ((arg.equals("-j") || arg.equals("--jobs") || arg.equals("--halt")) && i + 1 < args.length) {
+                value = args[++i];
+            } else if (arg.startsWith("-j") && arg.length() > 2) {
+                value = arg.substring(2);
+            } else if (arg.startsWith("--halt=") || arg.startsWith("--jobs=")) {
+                value = arg.substring(arg.indexOf('=') + 1);
+            } else if (arg.equals("--")) {
+                i++;
+                break;
+            } else {
+                break;
+            }
+
+            if (arg.startsWith("--halt")) {
+                halt = parseHalt(value);
+                if (halt == null) {
+                    err.println("parallel: --halt: " + value + ": expected never, soon or now");
+                    return 2;
+                }
+            } else {
+                jobs = parseJobs(value);
+                if (jobs < 0) {
+                    err.println("parallel: -j: " + value + ": invalid number of jobs");
+                    return 2;
+                }
+            }
+        }
+
+        List<String> template = new ArrayList<>();
+        List<String> inputs = null;
+        for (; i < args.length; i++) {
+            if (args[i].equals(":::")) {
+                inputs = new ArrayList<>(List.of(args).subList(i + 1, args.length));
+                break;
+            }
+            template.add(args[i]);
+        }
+        if (inputs == null) {
+            inputs = readLines(in, session);
+        }
+
+        // A quoted command line such as 'gzip -9 {}' is split into words here
+        if (template.size() == 1 && template.get(0).trim().indexOf(' ') > 0) {
+            String line = template.get(0);
+            template = words(line);
+            if (template == null) {
+                err.println("parallel: " + line + ": only simple commands can be run");
+                return 2;
+            }
+        }
+
+        List<List<String>> commands = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            // Without a command each input is a command line of its own
+            List<String> argv = template.isEmpty() ? words(input) : substitute(template, input);
+            if (argv == null || argv.isEmpty()) {
+                err.println("parallel: " + input + ": only simple commands can be run");
+                return 2;
+            }
+            commands.add(argv);
+        }
+        if (commands.isEmpty()) {
+            return 0;
+        }
+
+        // -j 0 runs every job at once
+        int width = jobs == 0 ? commands.size() : Math.min(jobs, commands.size());
+        return runAll(commands, width, keepOrder, halt, out, err, session);
+    }
+
+    private static int runAll(List<List<String>> commands, int jobs, boolean keepOrder, Halt halt,
+                              OutputStream out, PrintStream err, ShellSession session)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newWorkStealingPool(jobs);
+        CompletionService<Result> completed = new ExecutorCompletionService<>(pool);
+        Set<Process> running = ConcurrentHashMap.newKeySet();
+        AtomicBoolean halted = new AtomicBoolean();
+
+        List<Future<Result>> futures = new ArrayList<>(commands.size());
+        for (List<String> argv : commands) {
+            futures.add(completed.submit(() -> halted.get()
+                    ? new Result(argv, new byte[0], 0, true)
+                    : runJob(argv, running, err, session)));
+        }
+
+        int failures = 0;
+        int haltStatus = -1;
+        try {
+            for (int n = 0; n < commands.size(); n++) {
+                Result result = await(keepOrder ? futures.get(n) : completed.take());
+                if (result.skipped) {
+                    continue;
+                }
+                out.write(result.output);
+                out.flush();
+                if (out instanceof PrintStream && ((PrintStream) out).checkError()) {
+                    // Nobody reads the output any more: stop starting and running jobs
+                    halted.set(true);
+                    return PipelineScheduler.BROKEN_PIPE_STATUS;
+                }
+                if (result.status == 0) {
+                    continue;
+                }
+
+                failures++;
+                if (halt != Halt.NEVER && halted.compareAndSet(false, true)) {
+                    err.println("parallel: This job failed:");
+                    err.println(String.join(" ", result.argv));
+                    if (halt == Halt.NOW) {
+                        running.forEach(Process::destroy);
+                        return result.status;
+                    }
+                    haltStatus = result.status;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            running.forEach(Process::destroy);
+        }
+        return haltStatus >= 0 ? haltStatus : Math.min(failures, MAX_FAILURES);
+    }
+
+    private static Result await(Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // One job: builtins run on the pool thread, everything else as a process whose stdout is
+    // read back into the job's buffer
+    private static Result runJob(List<String> argv, Set<Process> running, PrintStream err,
+                                 ShellSession session) {
+        String name = argv.get(0);
+        String[] arguments = argv.subList(1, argv.size()).toArray(new String[0]);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        try {
+            if (ShellState.builtinType(name) != ShellType.NONE) {
+                int status = BuiltInCommand.run(name, arguments, InputStream.nullInputStream(), buffer, err,
+                        session);
+                return new Result(argv, buffer.toByteArray(), status, false);
+            }
+
+            String path = session.getCommandHash().command(name);
+            if (path == null) {
+                err.println(name + ": command not found");
+                return new Result(argv, new byte[0], 127, false);
+            }
+            List<String> resolved = new ArrayList<>(argv);
+            resolved.set(0, path);
+            ProcessBuilder pb = new ProcessBuilder(resolved);
+            pb.directory(session.getCurrentDir());
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+            Process process = Processes.start(pb, session);
+            running.add(process);
+            try {
+                process.getOutputStream().close();
+                byte[] output = process.getInputStream().readAllBytes();
+                return new Result(argv, output, process.waitFor(), false);
+            } finally {
+                running.remove(process);
+            }
+        } catch (IOException e) {
+            err.println(name + ": " + e.getMessage());
+            return new Result(argv, buffer.toByteArray(), 1, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(argv, buffer.toByteArray(), 130, false);
+        }
+    }
+
+    private static List<String> substitute(List<String> template, String input) {
+        int slash = input.lastIndexOf('/');
+        String base = input.substring(slash + 1);
+        int dot = base.lastIndexOf('.');
+        String noExtension = dot > 0 ? input.substring(0, slash + 1 + dot) : input;
+
+        List<String> argv = new ArrayList<>(template.size() + 1);
+        boolean replaced = false;
+        for (String word : template) {
+            if (word.contains("{")) {
+                String expanded = word.replace("{.}", noExtension).replace("{/}", base).replace("{}", input);
+                replaced |= !expanded.equals(word);
+                argv.add(expanded);
+            } else {
+                argv.add(word);
+            }
+        }
+        if (!replaced) {
+            argv.add(input);
+        }
+        return argv;
+    }
+
+    // Words of a single simple command, or null for anything with operators or redirections
+    private static List<String> words(String line) {
+        try {
+            CommandList list = CommandParser.parse(line);
+            if (list.getPipelines().size() != 1 || list.getPipelines().get(0).size() != 1) {
+                return null;
+            }
+            SimpleCommand command = list.getPipelines().get(0).getCommands().get(0);
+            return command.getRedirections().isEmpty() ? command.argv() : null;
+        } catch (SyntaxException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readLines(InputStream in, ShellSession session) throws IOException {
+        if (session.isConsole() && in == System.in) {
+            Terminal.suspend();
+        }
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static int parseJobs(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Halt parseHalt(String value) {
+        // GNU spellings such as now,fail=1 are accepted for the part before the comma
+        String mode = value.contains(",") ? value.substring(0, value.indexOf(',')) : value;
+        return switch (mode) {
+            case "never", "0" -> Halt.NEVER;
+            case "soon", "1" -> Halt.SOON;
+            case "now", "2" -> Halt.NOW;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,900 @@
+package shell.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+// sort [-nru] [-k POS1[,POS2]]... [-t SEP] [-S SIZE] [-T DIR] [--count] [file...]
+//
+// An external merge sort in a fixed memory budget (-S, a quarter of the heap by default),
+// taken from a pool all sorts in the JVM share. Other options run the sort on PATH.
+// Input is read into runs: lines packed end to end in one byte array, with an int offset per
+// line, rather than a String each. A full run is sorted and written to a spill file on the
+// fork-join pool while the next one fills; large runs are themselves merge-sorted in
+// parallel. The spill files, and the last run still in memory, are then merged through a
+// heap of cursors, in several passes when there are more than can be open at once.
+//
+// --count does what piping into uniq -c would, and the shell fuses `sort | uniq -c` into it:
+// spill files hold each distinct line once with its count, so repetitive input (log levels,
+// status codes) spills and merges a fraction of its size.
+public class SortCommand {
+    private static final int READ_CHUNK = 64 * 1024;
+    private static final int MIN_RUN = 64 * 1024;
+    private static final int PARALLEL_SORT = 1 << 16;
+    private static final int SLOTS = ForkJoinPool.getCommonPoolParallelism() + 1;
+    private static final int MAX_FAN_IN = Integer.getInteger("shell.sort.fanIn", 256);
+    // Every sort in the JVM, in all sessions and background jobs, reserves its budget from one
+    // pool of half the heap; one alone gets a quarter by default, or -S up to the whole pool
+    private static final long POOL = Runtime.getRuntime().maxMemory() / 2;
+    private static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+    private static final long MIN_BUDGET = (long) MIN_RUN * SLOTS * 2;
+    private static long reserved;
+
+    // Spill files of every sort still running, removed at exit if their sort never got to it
+    private static final Set<Path> SPILLS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> SPILLS.forEach(SortCommand::delete), "sort-cleanup"));
+    }
+
+    private final LineOrder order;
+    private final boolean count;
+    private final long runBudget;
+    private final int fanIn;
+    private final File tempDir;
+    private final List<Path> spills = new ArrayList<>();
+    private final ArrayDeque<Future<Path>> sorting = new ArrayDeque<>();
+    private final BlockingQueue<Run> free;
+    private int runs;
+
+    private SortCommand(LineOrder order, boolean count, long budget, File tempDir) {
+        this.order = order;
+        this.count = count;
+        this.tempDir = tempDir;
+        // Each slot holds a run's bytes and about as much again in offsets and sort buffers
+        runBudget = Math.max(MIN_RUN, budget / (SLOTS * 2));
+        fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, budget / (4 * READ_CHUNK)));
+        free = new ArrayBlockingQueue<>(SLOTS);
+    }
+
+    // File names are relative to currentDir; spill files go to tempDir
+    public static int run(String[] args, InputStream in, OutputStream out, PrintStream err, File currentDir,
+                          File tempDir) throws IOException, InterruptedException, ExternalFallback.Unsupported {
+        Options options = parse(args, currentDir, tempDir);
+        long budget = reserve(options.budget);
+        SortCommand sort = new SortCommand(options.order, options.count, budget, options.tempDir);
+        try {
+            return sort.sort(options.files, in, out, err, currentDir);
+        } catch (UncheckedIOException e) {
+            err.println("sort: " + e.getCause().getMessage());
+            return 2;
+        } finally {
+            sort.cleanUp();
+            release(budget);
+        }
+    }
+
+    // Whether the builtin takes these arguments itself, rather than leaving them to sort on PATH
+    public static boolean accepts(List<String> args) {
+        try {
+            parse(args.toArray(new String[0]), new File("."), null);
+            return true;
+        } catch (ExternalFallback.Unsupported e) {
+            return false;
+        }
+    }
+
+    private static final class Options {
+        final LineOrder order = new LineOrder();
+        final List<String> files = new ArrayList<>();
+        boolean count;
+        long budget = DEFAULT_BUDGET;
+        File tempDir;
+    }
+
+    // Anything but the options above, keys with other modifiers and -S sizes in other units
+    // are left to the sort on PATH
+    private static Options parse(String[] args, File currentDir, File tempDir) throws ExternalFallback.Unsupported {
+        Options options = new Options();
+        options.tempDir = tempDir;
+        LineOrder order = options.order;
+        boolean literal = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (literal || arg.equals("-") || !arg.startsWith("-")) {
+                options.files.add(arg);
+                continue;
+            }
+            if (arg.equals("--")) {
+                literal = true;
+                continue;
+            }
+            if (arg.equals("--count")) {
+                options.count = true;
+                continue;
+            }
+            for (int j = 1; j < arg.length(); j++) {
+                char c = arg.charAt(j);
+                if (c == 'n' || c == 'r' || c == 'u') {
+                    order.numeric |= c == 'n';
+                    order.reverse |= c == 'r';
+                    order.unique |= c == 'u';
+                    continue;
+                }
+                if (c != 'k' && c != 't' && c != 'S' && c != 'T') {
+                    throw new ExternalFallback.Unsupported("invalid option -- '" + c + "'");
+                }
+                String value = j + 1 < arg.length() ? arg.substring(j + 1) : i + 1 < args.length ? args[++i] : null;
+                if (value == null) {
+                    throw new ExternalFallback.Unsupported("option requires an argument -- '" + c + "'");
+                }
+                switch (c) {
+                    case 'k' -> {
+                        LineOrder.Key key = LineOrder.parseKey(value);
+                        if (key == null) {
+                            throw new ExternalFallback.Unsupported(value + ": invalid field specification");
+                        }
+                        order.keys.add(key);
+                    }
+                    case 't' -> {
+                        if (value.length() != 1) {
+                            throw new ExternalFallback.Unsupported("multi-character tab '" + value + "'");
+                        }
+                        order.separator = value.charAt(0);
+                    }
+                    case 'S' -> {
+                        options.budget = size(value);
+                        if (options.budget <= 0) {
+                            throw new ExternalFallback.Unsupported("invalid -S argument '" + value + "'");
+                        }
+                    }
+                    default -> options.tempDir = new File(value).isAbsolute() ? new File(value)
+                            : new File(currentDir, value);
+                }
+                break;
+            }
+        }
+        order.inherit();
+        if (options.files.isEmpty()) {
+            options.files.add("-");
+        }
+        return options;
+    }
+
+    // Up to budget bytes of the pool, or a minimal run per slot when less is left: a sort
+    // started while others hold the pool still runs, and spills sooner
+    private static synchronized long reserve(long budget) {
+        long granted = Math.max(MIN_BUDGET, Math.min(budget, POOL - reserved));
+        reserved += granted;
+        return granted;
+    }
+
+    private static synchronized void release(long budget) {
+        reserved -= budget;
+    }
+
+    private int sort(List<String> files, InputStream in, OutputStream out, PrintStream err, File currentDir)
+            throws IOException, InterruptedException {
+        Run run = take();
+        for (String file : files) {
+            Path path = file.equals("-") ? null
+                    : new File(file).isAbsolute() ? Path.of(file) : currentDir.toPath().resolve(file);
+            if (path != null && Files.isDirectory(path)) {
+                err.println("sort: read failed: " + file + ": Is a directory");
+                return 2;
+            }
+            try (InputStream input = path == null ? null : Files.newInputStream(path)) {
+                run = read(path == null ? in : input, run);
+            } catch (NoSuchFileException e) {
+                err.println("sort: cannot read: " + file + ": No such file or directory");
+                return 2;
+            } catch (AccessDeniedException e) {
+                err.println("sort: cannot read: " + file + ": Permission denied");
+                return 2;
+            }
+        }
+
+        Output output = new Output(out, count);
+        if (sorting.isEmpty() && spills.isEmpty()) {
+            // Everything fit in one run: no spill files at all
+            run.sort();
+            run.writeTo(output, order);
+            output.flush();
+            return 0;
+        }
+
+        run.sort();
+        awaitSpills();
+        while (spills.size() + 1 > fanIn) {
+            // Merge the oldest files into one until the rest fit in a single pass
+            List<Path> group = new ArrayList<>(spills.subList(0, spills.size() + 2 - fanIn));
+            Path file = createSpill();
+            // In place of the files it replaces, which hold the earliest lines
+            spills.add(0, file);
+            try (Output spill = new Output(Files.newOutputStream(file), false)) {
+                merge(cursors(group, null), spill);
+            }
+            spills.removeAll(group);
+            group.forEach(SortCommand::delete);
+        }
+        merge(cursors(spills, run), output);
+        output.flush();
+        return 0;
+    }
+
+    // Fills runs from in, handing each full one to the pool; returns the run being filled
+    private Run read(InputStream in, Run run) throws IOException, InterruptedException {
+        byte[] chunk = new byte[READ_CHUNK];
+        byte[] partial = new byte[0];
+        int partialLength = 0;
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] != '\n') {
+                    continue;
+                }
+                if (partialLength > 0) {
+                    // A line that started in an earlier chunk
+                    partial = append(partial, partialLength, chunk, start, i - start);
+                    run = add(run, partial, 0, partialLength + i - start);
+                    partialLength = 0;
+                } else {
+                    run = add(run, chunk, start, i - start);
+                }
+                start = i + 1;
+            }
+            if (start < n) {
+                partial = append(partial, partialLength, chunk, start, n - start);
+                partialLength += n - start;
+            }
+        }
+        // sort ends the last line for it
+        if (partialLength > 0) {
+            run = add(run, partial, 0, partialLength);
+        }
+        return run;
+    }
+
+    private static byte[] append(byte[] buffer, int length, byte[] bytes, int start, int n) {
+        if (length + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length + n, buffer.length * 2));
+        }
+        System.arraycopy(bytes, start, buffer, length, n);
+        return buffer;
+    }
+
+    private Run add(Run run, byte[] line, int start, int length) throws InterruptedException {
+        if (run.lines > 0 && run.memory() + length + Run.PER_LINE > runBudget) {
+            spill(run);
+            run = take();
+        }
+        run.add(line, start, length);
+        return run;
+    }
+
+    // A run to fill: a new one while the slots last, then whichever a spill task gives back
+    private Run take() throws InterruptedException {
+        Run run = free.poll();
+        if (run == null && runs < SLOTS) {
+            runs++;
+            return new Run(order);
+        }
+        return run != null ? run : free.take();
+    }
+
+    private void spill(Run run) {
+        Path file = createSpill();
+        spills.add(file);
+        sorting.add(ForkJoinPool.commonPool().submit(() -> {
+            try (Output spill = new Output(Files.newOutputStream(file), false)) {
+                run.sort();
+                run.writeTo(spill, count ? new Counted(spill) : spill, order);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                run.clear();
+                free.add(run);
+            }
+            return file;
+        }));
+    }
+
+    private Path createSpill() {
+        try {
+            Path file = Files.createTempFile(tempDir.toPath(), "sort", ".run");
+            SPILLS.add(file);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitSpills() throws InterruptedException {
+        while (!sorting.isEmpty()) {
+            try {
+                sorting.poll().get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof UncheckedIOException ? (UncheckedIOException) e.getCause()
+                        : new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private void cleanUp() {
+        // A spill task still running owns its run and file until it ends
+        for (Future<Path> task : sorting) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                // Reported, or the sort is being abandoned anyway
+            }
+        }
+        spills.forEach(SortCommand::delete);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Left in the temporary directory
+        }
+        SPILLS.remove(file);
+    }
+
+    private List<Cursor> cursors(List<Path> files, Run last) {
+        int buffer = (int) Math.max(READ_CHUNK, Math.min(1 << 20, runBudget / (files.size() + 1)));
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                cursors.add(new FileCursor(Files.newInputStream(file), buffer, count));
+            }
+        } catch (IOException e) {
+            cursors.forEach(Cursor::close);
+            throw new UncheckedIOException(e);
+        }
+        if (last != null) {
+            cursors.add(new RunCursor(last));
+        }
+        return cursors;
+    }
+
+    // k-way merge through a binary heap of cursors; ties go to the earlier cursor, so the
+    // merge is stable and -u keeps the first of equal lines as a single pass would
+    private void merge(List<Cursor> cursors, Output output) throws IOException {
+        Cursor[] heap = new Cursor[cursors.size()];
+        int size = 0;
+        try {
+            for (int i = 0; i < cursors.size(); i++) {
+                Cursor cursor = cursors.get(i);
+                cursor.index = i;
+                if (cursor.next()) {
+                    heap[size++] = cursor;
+                    up(heap, size - 1);
+                }
+            }
+            Sink sink = count ? new Counted(output) : output;
+            byte[] previous = new byte[256];
+            int previousLength = -1;
+            while (size > 0) {
+                Cursor top = heap[0];
+                boolean duplicate = order.unique && previousLength >= 0
+                        && order.compare(previous, 0, previousLength, top.line, top.start, top.end) == 0;
+                if (!duplicate) {
+                    sink.line(top.line, top.start, top.end, top.count);
+                    if (order.unique) {
+                        previousLength = top.end - top.start;
+                        previous = append(previous, 0, top.line, top.start, previousLength);
+                    }
+                }
+                if (top.next()) {
+                    down(heap, 0, size);
+                } else {
+                    top.close();
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                    down(heap, 0, size);
+                }
+            }
+            sink.end();
+        } finally {
+            cursors.forEach(Cursor::close);
+        }
+    }
+
+    private void up(Cursor[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (before(heap[parent], heap[i])) {
+                return;
+            }
+            Cursor swap = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = swap;
+            i = parent;
+        }
+    }
+
+    private void down(Cursor[] heap, int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (before(heap[i], heap[child])) {
+                return;
+            }
+            Cursor swap = heap[child];
+            heap[child] = heap[i];
+            heap[i] = swap;
+            i = child;
+        }
+    }
+
+    private boolean before(Cursor a, Cursor b) {
+        int result = order.compare(a.line, a.start, a.end, b.line, b.start, b.end);
+        return result < 0 || result == 0 && a.index < b.index;
+    }
+
+    // -S: bytes with a b, k, m or g suffix, kilobytes without one, or a % of the heap
+    private static long size(String text) {
+        try {
+            char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+            String number = Character.isDigit(unit) ? text : text.substring(0, text.length() - 1);
+            long value = Long.parseLong(number);
+            return switch (unit) {
+                case '%' -> Runtime.getRuntime().maxMemory() / 100 * value;
+                case 'b' -> value;
+                case 'm' -> value << 20;
+                case 'g' -> value << 30;
+                case 'k' -> value << 10;
+                default -> Character.isDigit(unit) ? value << 10 : -1;
+            };
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    // Lines in input order, packed end to end: line i is data[starts[i], starts[i + 1])
+    private static final class Run {
+        // Per line: an offset, a place in the order and its merge buffer, and either a prefix
+        // or the first key's bounds and value
+        static final int PER_LINE = 4 + 4 + 4 + 16;
+
+        private final LineOrder order;
+        byte[] data = new byte[MIN_RUN];
+        int used;
+        int[] starts = new int[1024];
+        int lines;
+        int[] sorted;
+        long[] prefixes;
+        long[] bounds;
+        long[] numbers;
+
+        Run(LineOrder order) {
+            this.order = order;
+        }
+
+        long memory() {
+            return used + (long) lines * PER_LINE;
+        }
+
+        void add(byte[] line, int start, int length) {
+            if (used + length > data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max((long) used + length, data.length * 2L)));
+            }
+            if (lines + 2 > starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            System.arraycopy(line, start, data, used, length);
+            starts[lines++] = used;
+            used += length;
+            starts[lines] = used;
+        }
+
+        void clear() {
+            used = 0;
+            lines = 0;
+            sorted = null;
+            prefixes = null;
+            bounds = null;
+            numbers = null;
+        }
+
+        void sort() {
+            int[] index = new int[lines];
+            for (int i = 0; i < lines; i++) {
+                index[i] = i;
+            }
+            if (order.isPlain()) {
+                // Most comparisons are settled by the first 8 bytes, read as one unsigned long
+                prefixes = new long[lines];
+                for (int i = 0; i < lines; i++) {
+                    long prefix = 0;
+                    int start = starts[i];
+                    int end = Math.min(starts[i + 1], start + 8);
+                    for (int j = start; j < start + 8; j++) {
+                        prefix = prefix << 8 | (j < end ? data[j] & 0xff : 0);
+                    }
+                    prefixes[i] = prefix;
+                }
+            }
+            if (!order.keys.isEmpty()) {
+                // The first key decides most comparisons: find it in each line once, not per comparison
+                LineOrder.Key key = order.keys.get(0);
+                bounds = new long[lines];
+                numbers = key.numeric ? new long[lines] : null;
+                for (int i = 0; i < lines; i++) {
+                    int start = order.keyStart(data, starts[i], starts[i + 1], key);
+                    int end = order.keyEnd(data, start, starts[i + 1], key, starts[i]);
+                    bounds[i] = (long) start << 32 | end;
+                    if (numbers != null) {
+                        numbers[i] = LineOrder.simpleNumber(data, start, end);
+                    }
+                }
+            }
+            int[] aux = new int[lines];
+            if (lines >= PARALLEL_SORT) {
+                ForkJoinPool.commonPool().invoke(new SortTask(this, index, aux, 0, lines));
+            } else {
+                mergeSort(index, aux, 0, lines);
+            }
+            sorted = index;
+            prefixes = null;
+            bounds = null;
+            numbers = null;
+        }
+
+        int compare(int a, int b) {
+            if (prefixes != null) {
+                int result = Long.compareUnsigned(prefixes[a], prefixes[b]);
+                if (result != 0) {
+                    return order.reverse ? -result : result;
+                }
+            }
+            if (bounds != null) {
+                LineOrder.Key key = order.keys.get(0);
+                int result;
+                if (numbers != null && numbers[a] != Long.MIN_VALUE && numbers[b] != Long.MIN_VALUE) {
+                    result = Long.compare(numbers[a], numbers[b]);
+                    result = key.reverse ? -result : result;
+                } else {
+                    result = order.compareKey(key, data, (int) (bounds[a] >>> 32), (int) bounds[a],
+                            data, (int) (bounds[b] >>> 32), (int) bounds[b]);
+                }
+                if (result != 0) {
+                    return result;
+                }
+                return order.compareFrom(1, data, starts[a], starts[a + 1], data, starts[b], starts[b + 1]);
+            }
+            return order.compare(data, starts[a], starts[a + 1], data, starts[b], starts[b + 1]);
+        }
+
+        // Stable, so lines with equal keys keep their input order
+        void mergeSort(int[] index, int[] aux, int from, int to) {
+            if (to - from < 24) {
+                for (int i = from + 1; i < to; i++) {
+                    int line = index[i];
+                    int j = i - 1;
+                    while (j >= from && compare(index[j], line) > 0) {
+                        index[j + 1] = index[j];
+                        j--;
+                    }
+                    index[j + 1] = line;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            mergeSort(index, aux, from, middle);
+            mergeSort(index, aux, middle, to);
+            merge(index, aux, from, middle, to);
+        }
+
+        void merge(int[] index, int[] aux, int from, int middle, int to) {
+            if (compare(index[middle - 1], index[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(index, from, aux, from, to - from);
+            int i = from;
+            int j = middle;
+            for (int k = from; k < to; k++) {
+                if (i < middle && (j >= to || compare(aux[i], aux[j]) <= 0)) {
+                    index[k] = aux[i++];
+                } else {
+                    index[k] = aux[j++];
+                }
+            }
+        }
+
+        void writeTo(Output output, LineOrder order) throws IOException {
+            writeTo(output, output.count ? new Counted(output) : output, order);
+        }
+
+        // Sorted lines into sink, dropping -u duplicates
+        void writeTo(Output output, Sink sink, LineOrder order) throws IOException {
+            int previous = -1;
+            for (int i = 0; i < lines; i++) {
+                int line = sorted[i];
+                if (order.unique && previous >= 0
+                        && order.compare(data, starts[previous], starts[previous + 1],
+                                data, starts[line], starts[line + 1]) == 0) {
+                    continue;
+                }
+                sink.line(data, starts[line], starts[line + 1], 1);
+                previous = line;
+            }
+            sink.end();
+        }
+    }
+
+    private static final class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final int[] index;
+        private final int[] aux;
+        private final int from;
+        private final int to;
+
+        SortTask(Run run, int[] index, int[] aux, int from, int to) {
+            this.run = run;
+            this.index = index;
+            this.aux = aux;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_SORT) {
+                run.mergeSort(index, aux, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new SortTask(run, index, aux, from, middle),
+                    new SortTask(run, index, aux, middle, to));
+            run.merge(index, aux, from, middle, to);
+        }
+    }
+
+    // Where sorted lines go: line's count is how many equal lines it stands for
+    private interface Sink {
+        void line(byte[] bytes, int start, int end, long count) throws IOException;
+
+        default void end() throws IOException {
+        }
+    }
+
+    // Adds up the counts of equal adjacent lines before passing them on: uniq -c
+    private static final class Counted implements Sink {
+        private final Output output;
+        private byte[] line = new byte[256];
+        private int length = -1;
+        private long count;
+
+        Counted(Output output) {
+            this.output = output;
+        }
+
+        @Override
+        public void line(byte[] bytes, int start, int end, long n) throws IOException {
+            if (length == end - start && Arrays.equals(line, 0, length, bytes, start, end)) {
+                count += n;
+                return;
+            }
+            end();
+            length = end - start;
+            line = append(line, 0, bytes, start, length);
+            count = n;
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (length >= 0) {
+                output.counted(line, 0, length, count);
+                length = -1;
+            }
+        }
+    }
+
+    // Lines into a byte buffer: as they are, or as uniq -c prints them ("%7d line"). Spill
+    // files with counts hold "count line" instead.
+    private static final class Output implements Sink, AutoCloseable {
+        private final OutputStream out;
+        private final boolean count;
+        private final byte[] buffer = new byte[READ_CHUNK];
+        private int used;
+
+        Output(OutputStream out, boolean count) {
+            this.out = out;
+            this.count = count;
+        }
+
+        @Override
+        public void line(byte[] bytes, int start, int end, long n) throws IOException {
+            write(bytes, start, end - start);
+            write('\n');
+        }
+
+        void counted(byte[] bytes, int start, int end, long n) throws IOException {
+            String number = Long.toString(n);
+            if (count) {
+                for (int i = number.length(); i < 7; i++) {
+                    write(' ');
+                }
+            }
+            for (int i = 0; i < number.length(); i++) {
+                write(number.charAt(i));
+            }
+            write(' ');
+            line(bytes, start, end, n);
+        }
+
+        private void write(int b) throws IOException {
+            if (used == buffer.length) {
+                drain();
+            }
+            buffer[used++] = (byte) b;
+        }
+
+        private void write(byte[] bytes, int start, int length) throws IOException {
+            while (length > 0) {
+                if (used == buffer.length) {
+                    drain();
+                }
+                int n = Math.min(length, buffer.length - used);
+                System.arraycopy(bytes, start, buffer, used, n);
+                used += n;
+                start += n;
+                length -= n;
+            }
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer, 0, used);
+            used = 0;
+        }
+
+        void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            out.close();
+        }
+    }
+
+    // One sorted source in a merge: line[start, end) is its current line
+    private abstract static class Cursor {
+        byte[] line;
+        int start;
+        int end;
+        long count = 1;
+        int index;
+
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final Run run;
+        private int position = -1;
+
+        RunCursor(Run run) {
+            this.run = run;
+            line = run.data;
+        }
+
+        @Override
+        boolean next() {
+            if (++position >= run.lines) {
+                return false;
+            }
+            int i = run.sorted[position];
+            start = run.starts[i];
+            end = run.starts[i + 1];
+            return true;
+        }
+    }
+
+    // Lines of a spill file, read a buffer at a time; counted files start each with "count "
+    private static final class FileCursor extends Cursor {
+        private final InputStream in;
+        private final boolean counted;
+        private byte[] buffer;
+        private int filled;
+        private int position;
+
+        FileCursor(InputStream in, int size, boolean counted) {
+            this.in = in;
+            this.counted = counted;
+            buffer = new byte[size];
+            line = buffer;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            int newline = find();
+            if (newline < 0) {
+                return false;
+            }
+            start = position;
+            end = newline;
+            position = newline + 1;
+            if (counted) {
+                long n = 0;
+                while (buffer[start] != ' ') {
+                    n = n * 10 + buffer[start++] - '0';
+                }
+                start++;
+                count = n;
+            }
+            return true;
+        }
+
+        // The next newline, reading (and growing the buffer for long lines) as needed
+        private int find() throws IOException {
+            int from = position;
+            while (true) {
+                for (int i = from; i < filled; i++) {
+                    if (buffer[i] == '\n') {
+                        return i;
+                    }
+                }
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, filled - position);
+                    filled -= position;
+                    position = 0;
+                } else if (filled == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    line = buffer;
+                }
+                from = filled;
+                int n = in.read(buffer, filled, buffer.length - filled);
+                if (n == -1) {
+                    return -1;
+                }
+                filled += n;
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Only read from
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package shell.completion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import shell.core.ShellState;
+
+// Command names for completion: builtins plus every executable in the PATH directories.
+// The trie is filled on first use; after that a directory is re-listed only when its mtime
+// changes, and only the names that appeared or disappeared are added to or removed from it.
+class CommandNames {
+    // Same probe list ExternalCommand and CommandHash use; completion offers the bare name
+    private static final String[] EXTENSIONS = {".exe", ".bat", ".cmd"};
+
+    // PATH directory mtimes are re-checked at most this often
+    private static final long VALIDATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final String[] directories;
+    private final long[] stamps;
+    private final String[][] listings;
+    private final CompletionTrie trie = new CompletionTrie();
+    private boolean loaded;
+    private long lastValidated;
+
+    CommandNames(String[] directories) {
+        this.directories = directories;
+        this.stamps = new long[directories.length];
+        this.listings = new String[directories.length][];
+        ShellState.BUILTINS.keySet().forEach(trie::add);
+        ShellState.EXTERNALS.keySet().forEach(trie::add);
+    }
+
+    synchronized List<String> complete(String prefix) {
+        refresh();
+        return trie.complete(prefix);
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        if (loaded && now - lastValidated < VALIDATE_INTERVAL_NANOS) {
+            return;
+        }
+        for (int i = 0; i < directories.length; i++) {
+            File dir = new File(directories[i]);
+            long modified = dir.lastModified();
+            if (loaded && modified == stamps[i]) {
+                continue;
+            }
+            String[] fresh = executables(dir);
+            update(listings[i] == null ? new String[0] : listings[i], fresh);
+            listings[i] = fresh;
+            stamps[i] = modified;
+        }
+        loaded = true;
+        lastValidated = now;
+    }
+
+    // Both listings are sorted, so one merge pass finds what changed
+    private void update(String[] old, String[] fresh) {
+        int i = 0;
+        int j = 0;
+        while (i < old.length || j < fresh.length) {
+            int cmp = i == old.length ? 1 : j == fresh.length ? -1 : old[i].compareTo(fresh[j]);
+            if (cmp < 0) {
+                trie.remove(old[i++]);
+            } else if (cmp > 0) {
+                trie.add(fresh[j++]);
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static String[] executables(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new String[0];
+        }
+        List<String> names = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.isFile() && file.canExecute()) {
+                names.add(stripExtension(file.getName()));
+            }
+        }
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String stripExtension(String name) {
+        String lower = name.toLowerCase();
+        for (String ext : EXTENSIONS) {
+            if (lower.endsWith(ext) && lower.length() > ext.length()) {
+                return name.substring(0, name.length() - ext.length());
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,200 @@
+package shell.completion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import shell.core.ShellState;
+
+// TAB completion for the line editor. The word before the cursor is completed as a command
+// name when it starts a command and has no '/', otherwise as a path relative to the shell's
+// current directory.
+public class Completer {
+    private final CommandNames commands = new CommandNames(ShellState.DIRECTORIES);
+    private final DirectoryCache directories = new DirectoryCache();
+    private boolean warming;
+
+    public static class Completion {
+        private final int start;
+        private final String word;
+        private final String dirPart;
+        private final List<String> matches;
+        private final File dir;
+
+        Completion(int start, String word, String dirPart, List<String> matches, File dir) {
+            this.start = start;
+            this.word = word;
+            this.dirPart = dirPart;
+            this.matches = matches;
+            this.dir = dir;
+        }
+
+        // Where the completed word starts in the line
+        public int getStart() {
+            return start;
+        }
+
+        public int size() {
+            return matches.size();
+        }
+
+        // Text to put in place of the word, or null if TAB cannot extend it
+        public String replacement() {
+            if (matches.isEmpty()) {
+                return null;
+            }
+            if (matches.size() == 1) {
+                String match = matches.get(0);
+                boolean isDir = dir != null && new File(dir, match).isDirectory();
+                return escape(dirPart + match) + (isDir ? "/" : " ");
+            }
+            String common = dirPart + commonPrefix(matches.get(0), matches.get(matches.size() - 1));
+            return common.length() > word.length() ? escape(common) : null;
+        }
+
+        // The first limit matches as bash lists them, directories marked with '/'
+        public List<String> display(int limit) {
+            List<String> shown = new ArrayList<>(Math.min(limit, matches.size()));
+            for (String match : matches.subList(0, Math.min(limit, matches.size()))) {
+                shown.add(dir != null && new File(dir, match).isDirectory() ? match + "/" : match);
+            }
+            return shown;
+        }
+    }
+
+    // Loads the PATH names in the background so the first TAB does not wait for the scan
+    public void warmUp() {
+        if (warming) {
+            return;
+        }
+        warming = true;
+        Thread thread = new Thread(() -> commands.complete(""), "completion-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Paths complete relative to currentDir, the working directory of the shell doing the editing
+    public Completion complete(String line, File currentDir) {
+        int start = wordStart(line);
+        String word = unescape(line.substring(start));
+
+        if (isCommandPosition(line, start) && word.indexOf('/') < 0) {
+            return new Completion(start, word, "", commands.complete(word), null);
+        }
+
+        int slash = word.lastIndexOf('/');
+        String dirPart = word.substring(0, slash + 1);
+        String base = word.substring(slash + 1);
+        File dir = resolve(dirPart, currentDir);
+        return new Completion(start, word, dirPart, matching(directories.list(dir), base), dir);
+    }
+
+    // The names in a sorted listing that start with prefix, as a view. Dot files sort into
+    // one block, and only an empty prefix can reach it without asking for them.
+    private static List<String> matching(String[] names, String prefix) {
+        List<String> all = Arrays.asList(names);
+        List<String> matches = all.subList(lowerBound(names, prefix), lowerBound(names, prefix + Character.MAX_VALUE));
+        if (!prefix.isEmpty()) {
+            return matches;
+        }
+        int dotFrom = lowerBound(names, ".");
+        int dotTo = lowerBound(names, "." + Character.MAX_VALUE);
+        if (dotFrom == dotTo) {
+            return matches;
+        }
+        List<String> visible = new ArrayList<>(names.length - (dotTo - dotFrom));
+        visible.addAll(all.subList(0, dotFrom));
+        visible.addAll(all.subList(dotTo, names.length));
+        return visible;
+    }
+
+    private static int lowerBound(String[] names, String key) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (names[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static File resolve(String dirPart, File currentDir) {
+        if (dirPart.isEmpty()) {
+            return currentDir;
+        }
+        String path = dirPart;
+        if (path.startsWith("~/")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        File dir = new File(path);
+        return dir.isAbsolute() ? dir : new File(currentDir, path);
+    }
+
+    // Start of the last word, skipping over quoted and backslash-escaped separators
+    private static int wordStart(String line) {
+        int start = 0;
+        boolean single = false;
+        boolean dbl = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && !single) {
+                i++;
+            } else if (c == '\'' && !dbl) {
+                single = !single;
+            } else if (c == '"' && !single) {
+                dbl = !dbl;
+            } else if (!single && !dbl && (c == ' ' || c == '\t' || "|;&<>".indexOf(c) >= 0)) {
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static boolean isCommandPosition(String line, int start) {
+        for (int i = start - 1; i >= 0; i--) {
+            char c = line.charAt(i);
+            if (c != ' ' && c != '\t') {
+                return c == '|' || c == ';' || c == '&';
+            }
+        }
+        return true;
+    }
+
+    private static String unescape(String word) {
+        StringBuilder sb = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == '\\' && i + 1 < word.length()) {
+                sb.append(word.charAt(++i));
+            } else if (c != '\'' && c != '"') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String word) {
+        StringBuilder sb = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (" \t'\"\\|;&<>()$`*?#".indexOf(c) >= 0) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static String commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return a.substring(0, i);
+    }
+}
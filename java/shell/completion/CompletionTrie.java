@@ -0,0 +1,105 @@
+package shell.completion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Prefix trie of command names. Each node keeps its children sorted by character, so a walk
+// yields words in order, and counts the words below it, so empty branches left behind by
+// removals are skipped instead of pruned. A word added twice (the same name in two PATH
+// directories) stays until it has been removed twice.
+class CompletionTrie {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static class Node {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int childCount;
+        int refs;
+        int words;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, i, keys, i + 1, childCount - i);
+            System.arraycopy(children, i, children, i + 1, childCount - i);
+            keys[i] = c;
+            children[i] = new Node();
+            childCount++;
+            return children[i];
+        }
+    }
+
+    private final Node root = new Node();
+
+    void add(String word) {
+        Node node = root;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.addChild(word.charAt(i));
+        }
+        if (node.refs++ == 0) {
+            adjustWords(word, 1);
+        }
+    }
+
+    void remove(String word) {
+        Node node = find(word);
+        if (node != null && node.refs > 0 && --node.refs == 0) {
+            adjustWords(word, -1);
+        }
+    }
+
+    // Every word starting with prefix, in sorted order
+    List<String> complete(String prefix) {
+        Node node = find(prefix);
+        List<String> words = new ArrayList<>(node == null ? 0 : node.words);
+        if (node != null && node.words > 0) {
+            collect(node, new StringBuilder(prefix), words);
+        }
+        return words;
+    }
+
+    private Node find(String word) {
+        Node node = root;
+        for (int i = 0; i < word.length() && node != null; i++) {
+            node = node.child(word.charAt(i));
+        }
+        return node;
+    }
+
+    private void adjustWords(String word, int delta) {
+        Node node = root;
+        node.words += delta;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.child(word.charAt(i));
+            node.words += delta;
+        }
+    }
+
+    private static void collect(Node node, StringBuilder prefix, List<String> out) {
+        if (node.refs > 0) {
+            out.add(prefix.toString());
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            if (node.children[i].words > 0) {
+                prefix.append(node.keys[i]);
+                collect(node.children[i], prefix, out);
+                prefix.setLength(prefix.length() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package shell.completion;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Sorted directory listings for path completion, kept while the directory's mtime is
+// unchanged so repeated TABs in a 100k-entry directory cost one stat and a binary search.
+// Least recently used listings are evicted once the cache holds too many directories or
+// too many names in total.
+class DirectoryCache {
+    private static final int MAX_DIRECTORIES = Integer.getInteger("shell.completion.directories", 64);
+    private static final int MAX_NAMES = Integer.getInteger("shell.completion.names", 500_000);
+
+    private static class Listing {
+        final long modified;
+        final String[] names;
+
+        Listing(long modified, String[] names) {
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    private final LinkedHashMap<File, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalNames;
+
+    // Sorted names in dir, or an empty array if it cannot be read
+    synchronized String[] list(File dir) {
+        long modified = dir.lastModified();
+        Listing listing = listings.get(dir);
+        if (listing != null && listing.modified == modified) {
+            return listing.names;
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        Arrays.sort(names);
+        put(dir, new Listing(modified, names));
+        return names;
+    }
+
+    private void put(File dir, Listing listing) {
+        Listing old = listings.put(dir, listing);
+        if (old != null) {
+            totalNames -= old.names.length;
+        }
+        totalNames += listing.names.length;
+
+        Iterator<Map.Entry<File, Listing>> eldest = listings.entrySet().iterator();
+        while (listings.size() > 1 && (listings.size() > MAX_DIRECTORIES || totalNames > MAX_NAMES)) {
+            Map.Entry<File, Listing> entry = eldest.next();
+            if (entry.getKey().equals(dir)) {
+                continue;
+            }
+            totalNames -= entry.getValue().names.length;
+            eldest.remove();
+        }
+    }
+}
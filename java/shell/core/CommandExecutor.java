@@ -0,0 +1,255 @@
+package shell.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import shell.commands.BuiltInCommand;
+import shell.commands.ExternalCommand;
+import shell.enums.Connector;
+import shell.enums.ShellType;
+import shell.jobs.Job;
+import shell.parser.CommandList;
+import shell.parser.CommandParser;
+import shell.parser.Pipeline;
+import shell.parser.SimpleCommand;
+import shell.parser.SyntaxException;
+import shell.pipeline.PipelineExecutor;
+import shell.pipeline.PipelineProfile;
+import shell.pipeline.PipelineScheduler;
+import shell.terminal.Terminal;
+
+// Walks the parsed command line: lists by their && / || / ; connectors, pipelines through
+// PipelineExecutor, and single commands through the builtin table or ExternalCommand, all
+// against one session's directory, environment and streams.
+public class CommandExecutor {
+    // Builtins that return at once, so they run with the line editor's mode still set
+    private static final Set<ShellType> INSTANT = EnumSet.of(ShellType.ECHO, ShellType.PWD, ShellType.CD,
+            ShellType.TYPE, ShellType.SET, ShellType.JOBS, ShellType.EXIT);
+
+    private final ShellSession session;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final boolean interactive;
+    private int lastStatus = 0;
+    private boolean exitRequested = false;
+
+    public CommandExecutor(ShellSession session) {
+        this(session, false);
+    }
+
+    // Interactive shells announce background jobs as they start them
+    public CommandExecutor(ShellSession session, boolean interactive) {
+        this.session = session;
+        this.out = session.getOut();
+        this.err = session.getErr();
+        this.interactive = interactive;
+    }
+
+    public int execute(String line) throws IOException, InterruptedException {
+        CommandList list;
+        try {
+            list = CommandParser.parse(line);
+        } catch (SyntaxException e) {
+            out.println(e.getMessage());
+            return lastStatus = 2;
+        }
+        return execute(list);
+    }
+
+    // Non-interactive input: one buffered stream, no prompt, no history. A line that ends in a
+    // backslash, an operator or inside quotes is joined with the following lines first.
+    public int executeScript(BufferedReader reader) throws IOException, InterruptedException {
+        StringBuilder pending = new StringBuilder();
+        String line;
+        while (!exitRequested && (line = reader.readLine()) != null) {
+            if (endsWithEscape(line)) {
+                pending.append(line, 0, line.length() - 1);
+                continue;
+            }
+            pending.append(line);
+            
+            CommandList list;
+            try {
+                list = CommandParser.parse(pending.toString());
+            } catch (SyntaxException e) {
+                if (e.isIncomplete()) {
+                    pending.append('\n');
+                    continue;
+                }
+                out.println(e.getMessage());
+                pending.setLength(0);
+                lastStatus = 2;
+                continue;
+            }
+            pending.setLength(0);
+            execute(list);
+        }
+        
+        if (pending.length() > 0 && !exitRequested) {
+            execute(pending.toString());
+        }
+        return lastStatus;
+    }
+
+    private static boolean endsWithEscape(String line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    public int execute(CommandList list) throws IOException, InterruptedException {
+        List<Pipeline> pipelines = list.getPipelines();
+        for (int i = 0; i < pipelines.size() && !exitRequested; i++) {
+            if (i > 0) {
+                Connector connector = list.getConnectors().get(i - 1);
+                if ((connector == Connector.AND && lastStatus != 0) || (connector == Connector.OR && lastStatus == 0)) {
+                    continue;
+                }
+            }
+            Pipeline pipeline = pipelines.get(i);
+            lastStatus = pipeline.isBackground() ? executeBackground(pipeline) : execute(pipeline);
+        }
+        return lastStatus;
+    }
+
+    // Starts the pipeline as a job and returns at once; the job table notices when it ends
+    private int executeBackground(Pipeline pipeline) throws IOException {
+        PipelineScheduler.Run run = PipelineExecutor.start(pipeline, session);
+        if (run == null) {
+            return 1;
+        }
+        Job job = session.getJobs().add(pipeline.toString(), run);
+        if (interactive) {
+            out.println(job.getPid() < 0 ? "[" + job.getId() + "]" : "[" + job.getId() + "] " + job.getPid());
+        }
+        return 0;
+    }
+
+    public int execute(Pipeline pipeline) throws IOException, InterruptedException {
+        if (!pipeline.isTimed() && !session.isProfile()) {
+            return run(pipeline, null);
+        }
+        // time reports the totals; set -o profile adds a row per stage
+        PipelineProfile profile = new PipelineProfile(session.isProfile());
+        int status = run(pipeline, profile);
+        profile.finish();
+        out.flush();
+        if (profile.isDetailed() && pipeline.size() > 1) {
+            profile.printStages(err);
+        }
+        profile.printTimes(err, pipeline.isTimePosix());
+        return status;
+    }
+
+    private int run(Pipeline pipeline, PipelineProfile profile) throws IOException, InterruptedException {
+        if (pipeline.size() > 1) {
+            return PipelineExecutor.execute(pipeline, session, profile);
+        }
+
+        SimpleCommand simple = pipeline.getCommands().get(0);
+        if (!simple.getRedirections().isEmpty()) {
+            return executeRedirected(simple);
+        }
+
+        List<String> parts = simple.argv();
+        if (parts.isEmpty()) {
+            return 0;
+        }
+
+        String command = parts.get(0);
+        String[] arguments = parts.subList(1, parts.size()).toArray(new String[0]);
+
+        if (ShellState.EXTERNALS.containsKey(command)) {
+            return switch (ShellState.EXTERNALS.get(command)) {
+                case CAT -> BuiltInCommand.cat(arguments, session.getIn(), out, err, session);
+                default -> ExternalCommand.execute(parts, session);
+            };
+        }
+
+        ShellType type = ShellState.BUILTINS.getOrDefault(command, ShellType.NONE);
+        handBackTerminal(type);
+        return switch (type) {
+            case EXIT -> exit(arguments);
+            case CD -> BuiltInCommand.cd(arguments, out, session);
+            case ECHO, TYPE, PWD, HISTORY, HASH, JOBS, WAIT, FG, BG, KILL, PARALLEL, SET, JFR, GREP, SORT, FIND, LS ->
+                    BuiltInCommand.run(command, arguments, session.getIn(), out, err, session);
+            default -> ExternalCommand.execute(parts, session);
+        };
+    }
+
+    private int executeRedirected(SimpleCommand simple) throws IOException, InterruptedException {
+        Redirections redirections;
+        try {
+            redirections = Redirections.open(simple.getRedirections(), session);
+        } catch (IOException e) {
+            err.println("shell: " + e.getMessage());
+            return 1;
+        }
+
+        try (redirections) {
+            List<String> parts = simple.argv();
+            if (parts.isEmpty()) {
+                return 0;
+            }
+            String command = parts.get(0);
+            String[] arguments = parts.subList(1, parts.size()).toArray(new String[0]);
+
+            ShellType type = ShellState.builtinType(command);
+            if (type == ShellType.NONE) {
+                return ExternalCommand.execute(parts, redirections, session);
+            }
+            if (type == ShellType.EXIT) {
+                return exit(arguments);
+            }
+
+            handBackTerminal(type);
+            OutputStream output = redirections.output(out, err);
+            PrintStream error = redirections.error(out, err);
+            if (type == ShellType.CD) {
+                PrintStream printer = output instanceof PrintStream ? (PrintStream) output : new PrintStream(output);
+                int status = BuiltInCommand.cd(arguments, printer, session);
+                printer.flush();
+                return status;
+            }
+            return BuiltInCommand.run(command, arguments, redirections.input(session.getIn()), output, error, session);
+        } catch (IOException e) {
+            err.println("shell: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // The line editor's mode leaves ISIG off, so Ctrl-C would only queue a byte for the next
+    // prompt: anything that may run a while gets the terminal back in its normal mode first
+    private void handBackTerminal(ShellType type) {
+        if (session.isConsole() && !INSTANT.contains(type)) {
+            Terminal.suspend();
+        }
+    }
+
+    private int exit(String[] arguments) {
+        exitRequested = true;
+        if (arguments.length == 0) {
+            return lastStatus;
+        }
+        try {
+            return Integer.parseInt(arguments[0]) & 0xff;
+        } catch (NumberFormatException e) {
+            out.println("exit: " + arguments[0] + ": numeric argument required");
+            return 2;
+        }
+    }
+
+    public int getLastStatus() {
+        return lastStatus;
+    }
+
+    public boolean isExitRequested() {
+        return exitRequested;
+    }
+}
@@ -0,0 +1,188 @@
+package shell.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import shell.jfr.ResolveEvent;
+
+public class CommandHash {
+
+    // Probe order ExternalCommand has always used when scanning PATH
+    private static final String[] EXTENSIONS = {".exe", ".bat", ".cmd", ""};
+
+    // PATH directory mtimes are re-checked at most this often; hash -r forces a rescan
+    private static final long VALIDATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    // ProcessBuilder searches the PATH the JVM started with, whatever the child's environment says
+    private static final String JVM_PATH = System.getenv("PATH");
+
+    public static class Entry {
+        private final String name;
+        private final String path;
+        // What ProcessBuilder is given to run it: name where its own search finds path
+        private final String command;
+        private int hits;
+
+        Entry(String name, String path, String command) {
+            this.name = name;
+            this.path = path;
+            this.command = command;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getHits() {
+            return hits;
+        }
+    }
+
+    private final String[] directories;
+    private final boolean jvmPath;
+    private final Supplier<File> currentDir;
+    private final long[] dirStamps;
+    private final Map<String, Entry> table = new LinkedHashMap<>();
+    private long lastValidated;
+    private long hits;
+    private long misses;
+
+    // Names containing a slash resolve against currentDir, the owning session's working directory
+    public CommandHash(String[] directories, Supplier<File> currentDir) {
+        this.directories = directories;
+        this.jvmPath = JVM_PATH != null && Arrays.equals(directories, JVM_PATH.split(File.pathSeparator));
+        this.currentDir = currentDir;
+        this.dirStamps = new long[directories.length];
+        snapshotDirectories();
+    }
+
+    // Returns the absolute path of the executable for name, or null if PATH has none
+    public synchronized String lookup(String name) {
+        Entry entry = resolve(name);
+        return entry != null ? entry.path : null;
+    }
+
+    // Returns what to hand ProcessBuilder as argv[0] for name, or null if PATH has none. That is
+    // name itself, so the child sees what was typed, unless ProcessBuilder's own search would
+    // not find the same file: then only the absolute path runs the right one.
+    public synchronized String command(String name) {
+        Entry entry = resolve(name);
+        return entry != null ? entry.command : null;
+    }
+
+    private Entry resolve(String name) {
+        if (name.isEmpty()) {
+            return null;
+        }
+        ResolveEvent event = new ResolveEvent();
+        event.begin();
+        long before = hits;
+        Entry entry = find(name);
+        if (event.shouldCommit()) {
+            event.command = name;
+            event.path = entry != null ? entry.path : null;
+            event.cached = hits != before;
+            event.commit();
+        }
+        return entry;
+    }
+
+    private Entry find(String name) {
+        if (name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0) {
+            File file = new File(name);
+            if (!file.isAbsolute()) {
+                file = new File(currentDir.get(), name);
+            }
+            // The child starts in the same directory, so a relative name finds the same file
+            return file.isFile() && file.canExecute() ? new Entry(name, file.getAbsolutePath(), name) : null;
+        }
+
+        validate();
+
+        Entry entry = table.get(name);
+        if (entry != null) {
+            entry.hits++;
+            hits++;
+            return entry;
+        }
+
+        misses++;
+        String path = scan(name);
+        if (path != null) {
+            // The scan stops at the first match, which is ProcessBuilder's too when it has no
+            // extension and both search the same directories
+            entry = new Entry(name, path, jvmPath && new File(path).getName().equals(name) ? name : path);
+            entry.hits = 1;
+            table.put(name, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void put(String name, String path) {
+        table.put(name, new Entry(name, path, path));
+    }
+
+    public synchronized boolean remove(String name) {
+        return table.remove(name) != null;
+    }
+
+    public synchronized void clear() {
+        table.clear();
+        snapshotDirectories();
+    }
+
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(table.values());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private String scan(String name) {
+        for (String dir : directories) {
+            for (String ext : EXTENSIONS) {
+                File file = new File(dir, name + ext);
+                if (file.isFile() && file.canExecute()) {
+                    return file.getAbsolutePath();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void validate() {
+        long now = System.nanoTime();
+        if (now - lastValidated < VALIDATE_INTERVAL_NANOS) {
+            return;
+        }
+        lastValidated = now;
+
+        for (int i = 0; i < directories.length; i++) {
+            if (new File(directories[i]).lastModified() != dirStamps[i]) {
+                table.clear();
+                snapshotDirectories();
+                return;
+            }
+        }
+    }
+
+    private void snapshotDirectories() {
+        for (int i = 0; i < directories.length; i++) {
+            dirStamps[i] = new File(directories[i]).lastModified();
+        }
+        lastValidated = System.nanoTime();
+    }
+}
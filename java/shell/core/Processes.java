@@ -0,0 +1,296 @@
+package shell.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import shell.jfr.SpawnEvent;
+import shell.pipeline.StreamUtils;
+
+// Every child process is started here. For the console session that is just
+// ProcessBuilder.start, and children inherit the JVM's file descriptors. Any other session has
+// no descriptors of its own to hand out, so a stream a child would inherit becomes a pipe
+// pumped to or from the session's in/out/err, and the child gets the session's environment.
+public final class Processes {
+    private static final File STDOUT_DEVICE = new File("/dev/stdout");
+    private static final File STDERR_DEVICE = new File("/dev/stderr");
+
+    private Processes() {
+    }
+
+    public static Process start(ProcessBuilder pb, ShellSession session) throws IOException {
+        if (session.isConsole()) {
+            return spawn(pb);
+        }
+        checkCancelled(session);
+        applyEnvironment(pb, session);
+        Forwarding forward = new Forwarding(pb, session);
+        Process process = forward.attach(spawn(pb));
+        session.track(process);
+        return process;
+    }
+
+    public static List<Process> startPipeline(List<ProcessBuilder> builders, ShellSession session) throws IOException {
+        if (builders.size() == 1) {
+            return List.of(start(builders.get(0), session));
+        }
+        if (session.isConsole()) {
+            return spawn(builders);
+        }
+        checkCancelled(session);
+        List<Forwarding> forwards = new ArrayList<>(builders.size());
+        for (ProcessBuilder pb : builders) {
+            applyEnvironment(pb, session);
+            forwards.add(new Forwarding(pb, session));
+        }
+        List<Process> started = spawn(builders);
+        List<Process> result = new ArrayList<>(started.size());
+        for (int i = 0; i < started.size(); i++) {
+            result.add(forwards.get(i).attach(started.get(i)));
+            session.track(result.get(i));
+        }
+        return result;
+    }
+
+    private static void checkCancelled(ShellSession session) throws IOException {
+        if (session.isCancelled()) {
+            throw new IOException("session cancelled");
+        }
+    }
+
+    private static Process spawn(ProcessBuilder pb) throws IOException {
+        SpawnEvent event = new SpawnEvent();
+        event.begin();
+        try {
+            Process process = pb.start();
+            if (event.shouldCommit()) {
+                event.pid = process.pid();
+                commit(event, pb.command(), 1, null);
+            }
+            return process;
+        } catch (IOException e) {
+            if (event.shouldCommit()) {
+                commit(event, pb.command(), 1, e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private static List<Process> spawn(List<ProcessBuilder> builders) throws IOException {
+        SpawnEvent event = new SpawnEvent();
+        event.begin();
+        try {
+            List<Process> started = ProcessBuilder.startPipeline(builders);
+            if (event.shouldCommit()) {
+                event.pid = started.get(0).pid();
+                commit(event, builders.get(0).command(), builders.size(), null);
+            }
+            return started;
+        } catch (IOException e) {
+            if (event.shouldCommit()) {
+                commit(event, builders.get(0).command(), builders.size(), e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private static void commit(SpawnEvent event, List<String> command, int processes, String error) {
+        event.command = String.join(" ", command);
+        event.processes = processes;
+        event.error = error;
+        event.commit();
+    }
+
+    private static void applyEnvironment(ProcessBuilder pb, ShellSession session) {
+        Map<String, String> environment = pb.environment();
+        environment.clear();
+        environment.putAll(session.getEnvironment());
+    }
+
+    // The builder's streams that would reach the JVM's own descriptors, turned into pipes
+    private static final class Forwarding {
+        final boolean stdinPiped;
+        final SessionInput in;
+        final PrintStream out;
+        final PrintStream err;
+
+        Forwarding(ProcessBuilder pb, ShellSession session) {
+            stdinPiped = pb.redirectInput() == ProcessBuilder.Redirect.INHERIT;
+            in = stdinPiped && session.isForwardInput() ? session.getInput() : null;
+            if (stdinPiped) {
+                pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+            }
+
+            out = target(pb.redirectOutput(), session.getOut(), session);
+            if (out != null) {
+                pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+            }
+            err = pb.redirectErrorStream() ? null : target(pb.redirectError(), session.getErr(), session);
+            if (err != null) {
+                pb.redirectError(ProcessBuilder.Redirect.PIPE);
+            }
+        }
+
+        // Inheriting means the session's stream; /dev/stdout and /dev/stderr name one explicitly
+        private static PrintStream target(ProcessBuilder.Redirect redirect, PrintStream inherited,
+                                          ShellSession session) {
+            if (redirect == ProcessBuilder.Redirect.INHERIT) {
+                return inherited;
+            }
+            File file = redirect.file();
+            if (STDOUT_DEVICE.equals(file)) {
+                return session.getOut();
+            }
+            return STDERR_DEVICE.equals(file) ? session.getErr() : null;
+        }
+
+        Process attach(Process process) {
+            List<CompletableFuture<Void>> drains = new ArrayList<>(2);
+            if (out != null) {
+                drains.add(pump(process.getInputStream(), out, "stdout"));
+            }
+            if (err != null) {
+                drains.add(pump(process.getErrorStream(), err, "stderr"));
+            }
+            if (in != null) {
+                // Fed from the session's input as it arrives, like any pipe
+                in.attach(process, process.getOutputStream());
+            } else if (stdinPiped) {
+                StreamUtils.closeQuietly(process.getOutputStream());
+            }
+            if (drains.isEmpty()) {
+                return process;
+            }
+            return new ForwardedProcess(process, CompletableFuture.allOf(drains.toArray(new CompletableFuture<?>[0])));
+        }
+
+        private static CompletableFuture<Void> pump(InputStream source, PrintStream target, String name) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = source.read(buffer)) != -1) {
+                        target.write(buffer, 0, n);
+                        if (source.available() == 0) {
+                            target.flush();
+                        }
+                    }
+                    target.flush();
+                } catch (IOException e) {
+                    // Child gone or client disconnected
+                } finally {
+                    StreamUtils.closeQuietly(source);
+                    done.complete(null);
+                }
+            }, "stdio-" + name);
+            thread.setDaemon(true);
+            thread.start();
+            return done;
+        }
+    }
+
+    // A child whose output is pumped by the shell: it has only finished once the pumps have
+    // passed on everything it wrote, so the next command's output cannot overtake it
+    private static final class ForwardedProcess extends Process {
+        private final Process process;
+        private final CompletableFuture<Void> drained;
+
+        ForwardedProcess(Process process, CompletableFuture<Void> drained) {
+            this.process = process;
+            this.drained = drained;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return process.getOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return process.getInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return process.getErrorStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            int status = process.waitFor();
+            try {
+                drained.get();
+            } catch (ExecutionException e) {
+                // Pumps never fail
+            }
+            return status;
+        }
+
+        @Override
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!process.waitFor(timeout, unit)) {
+                return false;
+            }
+            try {
+                drained.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                return true;
+            } catch (ExecutionException e) {
+                // Pumps never fail
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int exitValue() {
+            return process.exitValue();
+        }
+
+        @Override
+        public void destroy() {
+            process.destroy();
+        }
+
+        @Override
+        public Process destroyForcibly() {
+            process.destroyForcibly();
+            return this;
+        }
+
+        @Override
+        public boolean supportsNormalTermination() {
+            return process.supportsNormalTermination();
+        }
+
+        @Override
+        public boolean isAlive() {
+            return process.isAlive();
+        }
+
+        @Override
+        public long pid() {
+            return process.pid();
+        }
+
+        @Override
+        public ProcessHandle toHandle() {
+            return process.toHandle();
+        }
+
+        @Override
+        public CompletableFuture<Process> onExit() {
+            return process.onExit().thenCombine(drained, (exited, ignored) -> this);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package shell.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import shell.enums.RedirectType;
+import shell.parser.Redirection;
+import shell.pipeline.ChannelOutputStream;
+
+// A command's redirections, applied left to right the way bash does: each one points fd 0, 1
+// or 2 at a file, or (n>&m) at whatever fd m points at right then, so ">out 2>&1" sends both
+// to out while "2>&1 >out" leaves stderr on the original stdout.
+//
+// Processes get the files as ProcessBuilder redirects, so the kernel reads and writes them
+// without the JVM. Builtins get streams; output files are written through a buffered
+// FileChannel. Output files are created (or truncated) when the redirections are opened,
+// even if the command then turns out not to exist.
+public final class Redirections implements Closeable {
+    private static final File STDERR_DEVICE = new File("/dev/stderr");
+
+    private static final class Target {
+        final int fd;
+        final File file;
+        final boolean append;
+        Closeable stream;
+        PrintStream printer;
+
+        // One of the command's own standard streams
+        Target(int fd) {
+            this(fd, null, false);
+        }
+
+        Target(int fd, File file, boolean append) {
+            this.fd = fd;
+            this.file = file;
+            this.append = append;
+        }
+    }
+
+    // Linux's ceiling on descriptors per process (fs.nr_open); the parser saturates longer numbers
+    private static final int MAX_FD = 1 << 20;
+
+    private final Target[] fds = {new Target(0), new Target(1), new Target(2)};
+    private final Target stdin = fds[0];
+    private final Target stdout = fds[1];
+
+    // File names are relative to the session's working directory
+    public static Redirections open(List<Redirection> redirections, ShellSession session) throws IOException {
+        Redirections result = new Redirections();
+        for (Redirection redirection : redirections) {
+            result.add(redirection, session);
+        }
+        return result;
+    }
+
+    private void add(Redirection redirection, ShellSession session) throws IOException {
+        int fd = redirection.getFd();
+        String name = redirection.getTarget().text();
+
+        if (fd > MAX_FD) {
+            throw new IOException(fd + ": Bad file descriptor");
+        }
+        if (redirection.getType() == RedirectType.DUPLICATE) {
+            int source;
+            try {
+                source = Integer.parseInt(name);
+            } catch (NumberFormatException e) {
+                // More digits than an int holds
+                source = Integer.MAX_VALUE;
+            }
+            if (source > 2) {
+                throw new IOException(name + ": Bad file descriptor");
+            }
+            if (fd <= 2) {
+                fds[fd] = fds[source];
+            }
+            return;
+        }
+
+        File file = session.resolve(name);
+        if (redirection.getType() == RedirectType.INPUT) {
+            if (!file.exists()) {
+                throw new IOException(name + ": No such file or directory");
+            }
+            if (fd <= 2) {
+                fds[fd] = new Target(-1, file, false);
+            }
+            return;
+        }
+
+        boolean append = redirection.getType() == RedirectType.APPEND;
+        // Created now, like bash; descriptors above 2 are not passed on but still get their file
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING).close();
+        } catch (IOException e) {
+            throw new IOException(name + ": " + describe(e, file));
+        }
+        if (fd <= 2) {
+            fds[fd] = new Target(-1, file, append);
+        }
+    }
+
+    private static String describe(IOException e, File file) {
+        if (file.isDirectory()) {
+            return "Is a directory";
+        }
+        if (e instanceof NoSuchFileException) {
+            return "No such file or directory";
+        }
+        if (e instanceof AccessDeniedException) {
+            return "Permission denied";
+        }
+        if (e instanceof FileSystemException && ((FileSystemException) e).getReason() != null) {
+            return ((FileSystemException) e).getReason();
+        }
+        return e.getMessage();
+    }
+
+    public boolean redirectsInput() {
+        return fds[0] != stdin;
+    }
+
+    public boolean redirectsOutput() {
+        return fds[1] != stdout;
+    }
+
+    public boolean isEmpty() {
+        return !redirectsInput() && !redirectsOutput() && fds[2].fd == 2 && fds[2].file == null;
+    }
+
+    // Points the process's streams at the files; streams left alone keep whatever the
+    // caller set up (inherited, or a pipe to the next stage)
+    public void apply(ProcessBuilder pb) {
+        Target in = fds[0];
+        Target out = fds[1];
+        Target err = fds[2];
+
+        if (in.file != null) {
+            pb.redirectInput(ProcessBuilder.Redirect.from(in.file));
+        }
+
+        if (out.file != null) {
+            pb.redirectOutput(redirect(out));
+        } else if (out.fd == 2) {
+            pb.redirectOutput(STDERR_DEVICE.exists()
+                    ? ProcessBuilder.Redirect.appendTo(STDERR_DEVICE) : ProcessBuilder.Redirect.INHERIT);
+        }
+
+        if (err == out) {
+            pb.redirectErrorStream(true);
+        } else if (err.file != null) {
+            pb.redirectError(redirect(err));
+        } else if (err.fd == 1) {
+            // Stderr to the stdout the command started with, which ProcessBuilder can only
+            // approximate with the shell's own stream
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+    }
+
+    private static ProcessBuilder.Redirect redirect(Target target) {
+        return target.append ? ProcessBuilder.Redirect.appendTo(target.file) : ProcessBuilder.Redirect.to(target.file);
+    }
+
+    // The builtin's streams, given the ones it would have had without redirections
+    public InputStream input(InputStream in) throws IOException {
+        Target target = fds[0];
+        if (target.file == null) {
+            return target.fd == 0 ? in : InputStream.nullInputStream();
+        }
+        if (target.stream == null) {
+            target.stream = new FileInputStream(target.file);
+        }
+        return target.stream instanceof InputStream ? (InputStream) target.stream : InputStream.nullInputStream();
+    }
+
+    public OutputStream output(OutputStream out, PrintStream err) throws IOException {
+        return outputFor(fds[1], out, err);
+    }
+
+    public PrintStream error(OutputStream out, PrintStream err) throws IOException {
+        Target target = fds[2];
+        if (target.file == null && target.fd == 2) {
+            return err;
+        }
+        if (target.printer == null) {
+            OutputStream stream = outputFor(target, out, err);
+            target.printer = stream instanceof PrintStream ? (PrintStream) stream : new PrintStream(stream);
+        }
+        return target.printer;
+    }
+
+    private static OutputStream outputFor(Target target, OutputStream out, PrintStream err) throws IOException {
+        if (target.file == null) {
+            return target.fd == 1 ? out : target.fd == 2 ? err : OutputStream.nullOutputStream();
+        }
+        if (target.stream == null) {
+            target.stream = new ChannelOutputStream(FileChannel.open(target.file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, target.append ? StandardOpenOption.APPEND : StandardOpenOption.WRITE));
+        }
+        return target.stream instanceof OutputStream ? (OutputStream) target.stream : OutputStream.nullOutputStream();
+    }
+
+    // Flushes what the builtin wrote and closes the files opened for it
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Target target : fds) {
+            try {
+                if (target.printer != null) {
+                    target.printer.flush();
+                }
+                if (target.stream != null) {
+                    target.stream.close();
+                    target.stream = null;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
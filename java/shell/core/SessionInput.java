@@ -0,0 +1,147 @@
+package shell.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import shell.pipeline.StreamUtils;
+
+// The stdin of an embedded session, shared by its builtins and the children Processes
+// forwards it to. A child's stdin is a plain pipe: while any child is attached, one pump per
+// session waits for the session's input and passes each chunk on as it arrives, to the child
+// started last. Like any pipe, whatever a child has been given but not read when it exits is
+// gone. A chunk that arrives after the child exited, or closed its end, is pushed back in
+// front of the stream for the next reader.
+final class SessionInput extends InputStream {
+    private static final int CHUNK = 64 * 1024;
+
+    private final InputStream source;
+    private final List<Reader> readers = new ArrayList<>();
+    private byte[] pushed = new byte[0];
+    private int pushedStart;
+    // Bytes pushed back, readable without waiting for the pump to let go of the stream
+    private volatile int pending;
+    private boolean pumping;
+
+    SessionInput(InputStream source) {
+        this.source = source;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (pushedStart < pushed.length) {
+            pending--;
+            return pushed[pushedStart++] & 0xff;
+        }
+        return source.read();
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (pushedStart < pushed.length) {
+            int n = Math.min(len, pushed.length - pushedStart);
+            System.arraycopy(pushed, pushedStart, b, off, n);
+            pushedStart += n;
+            pending -= n;
+            return n;
+        }
+        return source.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return pending + source.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    // Feeds process's stdin pipe from the session until the process exits
+    void attach(Process process, OutputStream sink) {
+        Reader reader = new Reader(process, sink);
+        synchronized (readers) {
+            readers.add(reader);
+            if (!pumping) {
+                pumping = true;
+                Thread pump = new Thread(this::pump, "stdio-stdin");
+                pump.setDaemon(true);
+                pump.start();
+            }
+        }
+        process.onExit().thenRun(() -> detach(reader));
+    }
+
+    private void detach(Reader reader) {
+        synchronized (readers) {
+            readers.remove(reader);
+        }
+        StreamUtils.closeQuietly(reader.sink);
+    }
+
+    // Runs while any child is attached
+    private void pump() {
+        byte[] buffer = new byte[CHUNK];
+        while (true) {
+            Reader reader;
+            synchronized (readers) {
+                if (readers.isEmpty()) {
+                    pumping = false;
+                    return;
+                }
+                reader = readers.get(readers.size() - 1);
+            }
+            transfer(reader, buffer);
+        }
+    }
+
+    // One chunk from the session to reader, as soon as there is one. Reading and handing over
+    // happen under the stream's lock, so bytes the reader cannot take are back in front before
+    // anyone reads past them.
+    private synchronized void transfer(Reader reader, byte[] buffer) {
+        int n;
+        try {
+            n = read(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            // End of the session's input is end of the child's
+            detach(reader);
+            return;
+        }
+        if (!reader.process.isAlive()) {
+            unread(buffer, n);
+            detach(reader);
+            return;
+        }
+        try {
+            reader.sink.write(buffer, 0, n);
+            reader.sink.flush();
+        } catch (IOException e) {
+            unread(buffer, n);
+            detach(reader);
+        }
+    }
+
+    private void unread(byte[] buffer, int n) {
+        byte[] joined = new byte[n + pushed.length - pushedStart];
+        System.arraycopy(buffer, 0, joined, 0, n);
+        System.arraycopy(pushed, pushedStart, joined, n, pushed.length - pushedStart);
+        pushed = joined;
+        pushedStart = 0;
+        pending = joined.length;
+    }
+
+    private static final class Reader {
+        final Process process;
+        final OutputStream sink;
+
+        Reader(Process process, OutputStream sink) {
+            this.process = process;
+            this.sink = sink;
+        }
+    }
+}
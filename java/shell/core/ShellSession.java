@@ -0,0 +1,185 @@
+package shell.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import shell.history.HistoryManager;
+import shell.jobs.Job;
+import shell.jobs.JobTable;
+import shell.terminal.TerminalOutput;
+
+// Everything one shell owns: working directory, environment, PATH lookup cache, history, jobs
+// and stdio. Executors, builtins and child processes work against a session rather than
+// globals, so any number of shells can run side by side in one JVM.
+//
+// The console session is the JVM's own shell: its children inherit the JVM's descriptors and
+// environment. Any other session is embedded: its streams are plain Java streams, so child
+// processes get pipes pumped to and from them and the session's environment.
+public class ShellSession {
+    private final boolean console;
+    private final Map<String, String> environment;
+    private final String[] directories;
+    private final CommandHash commandHash;
+    private final HistoryManager history;
+    private final JobTable jobs = new JobTable();
+    private final InputStream in;
+    private final SessionInput input;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final TerminalOutput terminal;
+    // Live children of an embedded session, destroyed when it is cancelled
+    private final Set<Process> children = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+    private volatile File currentDir;
+    private volatile boolean forwardInput = true;
+    private volatile boolean profile;
+
+    private ShellSession(boolean console, File currentDir, Map<String, String> environment, InputStream in,
+                         PrintStream out, PrintStream err, HistoryManager history) {
+        this.console = console;
+        this.currentDir = currentDir.getAbsoluteFile();
+        this.environment = environment;
+        // Children forwarded the stdin of an embedded session share it with its builtins
+        this.input = console ? null : new SessionInput(in);
+        this.in = console ? in : input;
+        this.out = out;
+        this.err = err;
+        this.terminal = new TerminalOutput(out);
+        this.history = history;
+        String path = environment.get("PATH");
+        this.directories = path != null ? path.split(File.pathSeparator) : new String[0];
+        this.commandHash = new CommandHash(directories, this::getCurrentDir);
+    }
+
+    // An embedded shell with its own copy of env and no history file
+    public ShellSession(File currentDir, Map<String, String> env, InputStream in, PrintStream out, PrintStream err) {
+        this(false, currentDir, new HashMap<>(env), in, out, err, new HistoryManager(null));
+    }
+
+    // The shell of this JVM: its working directory, environment and standard streams
+    public static ShellSession console(HistoryManager history) {
+        return new ShellSession(true, new File(System.getProperty("user.dir")), System.getenv(),
+                System.in, System.out, System.err, history);
+    }
+
+    // Runs a script or -c string to the end and returns the status of its last command
+    public int run(Reader script) throws IOException, InterruptedException {
+        CommandExecutor executor = new CommandExecutor(this);
+        int status = executor.executeScript(script instanceof BufferedReader
+                ? (BufferedReader) script : new BufferedReader(script, 65536));
+        out.flush();
+        return status;
+    }
+
+    public int run(String script) throws IOException, InterruptedException {
+        return run(new StringReader(script));
+    }
+
+    // Kills every child and job of an embedded session whose client has gone; it starts no more
+    public void cancel() {
+        cancelled = true;
+        jobs.list().forEach(Job::cancel);
+        for (Process child : children) {
+            child.toHandle().descendants().forEach(ProcessHandle::destroy);
+            child.destroy();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void track(Process child) {
+        children.add(child);
+        child.onExit().thenRun(() -> children.remove(child));
+        if (cancelled) {
+            cancel();
+        }
+    }
+
+    public boolean isConsole() {
+        return console;
+    }
+
+    public File getCurrentDir() {
+        return currentDir;
+    }
+
+    public void setCurrentDir(File dir) {
+        currentDir = dir;
+    }
+
+    // name relative to the session's working directory
+    public File resolve(String name) {
+        File file = new File(name);
+        return file.isAbsolute() ? file : new File(currentDir, name);
+    }
+
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    public String[] getDirectories() {
+        return directories;
+    }
+
+    public CommandHash getCommandHash() {
+        return commandHash;
+    }
+
+    public HistoryManager getHistory() {
+        return history;
+    }
+
+    public JobTable getJobs() {
+        return jobs;
+    }
+
+    public InputStream getIn() {
+        return in;
+    }
+
+    // The pump that feeds children's stdin pipes; null for the console session
+    SessionInput getInput() {
+        return input;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public PrintStream getErr() {
+        return err;
+    }
+
+    // Buffered view of out for the prompt and line editor, flushed once per redraw
+    public TerminalOutput getTerminal() {
+        return terminal;
+    }
+
+    // Whether children may read the session's stdin; off when stdin is the script itself
+    public boolean isForwardInput() {
+        return forwardInput;
+    }
+
+    public void setForwardInput(boolean forwardInput) {
+        this.forwardInput = forwardInput;
+    }
+
+    // set -o profile: every foreground pipeline is timed, stage by stage
+    public boolean isProfile() {
+        return profile;
+    }
+
+    public void setProfile(boolean profile) {
+        this.profile = profile;
+    }
+}
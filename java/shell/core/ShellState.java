@@ -6,27 +6,36 @@ import shell.enums.ShellType;
 
 public class ShellState {
     public static final Map<String, ShellType> BUILTINS =
-            Map.of(
-                    "type", ShellType.TYPE,
-                    "echo", ShellType.ECHO,
-                    "exit", ShellType.EXIT,
-                    "pwd", ShellType.PWD,
-                    "cd", ShellType.CD,
-                    "history", ShellType.HISTORY);
+            Map.ofEntries(
+                    Map.entry("type", ShellType.TYPE),
+                    Map.entry("echo", ShellType.ECHO),
+                    Map.entry("exit", ShellType.EXIT),
+                    Map.entry("pwd", ShellType.PWD),
+                    Map.entry("cd", ShellType.CD),
+                    Map.entry("history", ShellType.HISTORY),
+                    Map.entry("hash", ShellType.HASH),
+                    Map.entry("jobs", ShellType.JOBS),
+                    Map.entry("wait", ShellType.WAIT),
+                    Map.entry("fg", ShellType.FG),
+                    Map.entry("bg", ShellType.BG),
+                    Map.entry("kill", ShellType.KILL),
+                    Map.entry("parallel", ShellType.PARALLEL),
+                    Map.entry("set", ShellType.SET),
+                    Map.entry("jfr", ShellType.JFR),
+                    Map.entry("grep", ShellType.GREP),
+                    Map.entry("sort", ShellType.SORT),
+                    Map.entry("find", ShellType.FIND),
+                    Map.entry("ls", ShellType.LS));
     
     public static final Map<String, ShellType> EXTERNALS = Map.of("cat", ShellType.CAT);
 
-    public static final String PATH = System.getenv("PATH");
-    public static final String[] DIRECTORIES = PATH != null ? PATH.split(File.pathSeparator) : new String[0];
-    
-    private static File currentDir = new File(System.getProperty("user.dir"));
-
-    public static File getCurrentDir() {
-        return currentDir;
+    // Commands the shell runs itself: true builtins plus those that shadow an external program
+    public static ShellType builtinType(String name) {
+        ShellType type = BUILTINS.get(name);
+        return type != null ? type : EXTERNALS.getOrDefault(name, ShellType.NONE);
     }
 
-    public static void setCurrentDir(File dir) {
-        currentDir = dir;
-        System.setProperty("user.dir", currentDir.getAbsolutePath());
-    }
-}
\ No newline at end of file
+    // The JVM's own PATH; each session looks commands up through its own copy (ShellSession)
+    public static final String PATH = System.getenv("PATH");
+    public static final String[] DIRECTORIES = PATH != null ? PATH.split(File.pathSeparator) : new String[0];
+}
@@ -0,0 +1,144 @@
+package shell.daemon;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Frames exchanged between ShellClient and ShellServer over the daemon socket: a type byte,
+// a 4-byte big-endian payload length, then the payload.
+//
+// The client sends ARGS, CWD and ENV (strings each ended by a NUL), then START, then its stdin
+// as STDIN frames, where an empty STDIN frame is end of input. The server answers with STDOUT
+// and STDERR frames and finishes the session with EXIT carrying the 4-byte exit status.
+final class Protocol {
+    static final byte ARGS = 1;
+    static final byte CWD = 2;
+    static final byte ENV = 3;
+    static final byte START = 4;
+    static final byte STDIN = 5;
+    static final byte STDOUT = 16;
+    static final byte STDERR = 17;
+    static final byte EXIT = 18;
+
+    private static final int HEADER = 5;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    static final class Frame {
+        final byte type;
+        final byte[] payload;
+
+        Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private Protocol() {
+    }
+
+    // -Dshell.socket, then $SHELL_DAEMON_SOCKET, then a per-user directory under the temp dir
+    static Path socketPath() {
+        String path = System.getProperty("shell.socket", System.getenv("SHELL_DAEMON_SOCKET"));
+        if (path != null && !path.isEmpty()) {
+            return Path.of(path);
+        }
+        return Path.of(System.getProperty("java.io.tmpdir"), "shell-" + System.getProperty("user.name"), "shell.sock");
+    }
+
+    // Writes are whole frames, so stdout and stderr from different threads never interleave mid-frame
+    static void write(SocketChannel channel, byte type, byte[] data, int off, int len) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).put(type).putInt(len).flip();
+        ByteBuffer[] frame = {header, ByteBuffer.wrap(data, off, len)};
+        synchronized (channel) {
+            while (header.hasRemaining() || frame[1].hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+    }
+
+    static void write(SocketChannel channel, byte type, byte[] data) throws IOException {
+        write(channel, type, data, 0, data.length);
+    }
+
+    static void writeStrings(SocketChannel channel, byte type, Iterable<String> strings) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String s : strings) {
+            sb.append(s).append('\0');
+        }
+        write(channel, type, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeExit(SocketChannel channel, int status) throws IOException {
+        write(channel, EXIT, ByteBuffer.allocate(4).putInt(status).array());
+    }
+
+    // Next frame, or null at end of stream
+    static Frame read(SocketChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (!readFully(channel, header, true)) {
+            return null;
+        }
+        header.flip();
+        byte type = header.get();
+        int length = header.getInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("bad frame length " + length);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, false);
+        return new Frame(type, payload.array());
+    }
+
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (eofAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+
+    static List<String> strings(byte[] payload) {
+        List<String> strings = new ArrayList<>();
+        String all = new String(payload, StandardCharsets.UTF_8);
+        int start = 0;
+        int end;
+        while ((end = all.indexOf('\0', start)) >= 0) {
+            strings.add(all.substring(start, end));
+            start = end + 1;
+        }
+        return strings;
+    }
+
+    // An OutputStream whose every write becomes one frame of the given type
+    static class FrameOutputStream extends OutputStream {
+        private final SocketChannel channel;
+        private final byte type;
+
+        FrameOutputStream(SocketChannel channel, byte type) {
+            this.channel = channel;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                Protocol.write(channel, type, b, off, len);
+            }
+        }
+    }
+}
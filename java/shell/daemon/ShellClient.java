@@ -0,0 +1,78 @@
+package shell.daemon;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import shell.Main;
+import shell.daemon.Protocol.Frame;
+
+// Thin front end for ShellServer: takes the same arguments as the shell, hands them to the
+// daemon with this process's cwd and environment, and streams stdio both ways until the
+// daemon reports the exit status. Without a daemon it runs the shell in this JVM instead.
+// Only this class and Protocol are loaded on the fast path.
+public class ShellClient {
+    public static void main(String[] args) throws Exception {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Protocol.socketPath()));
+        } catch (IOException | UnsupportedOperationException e) {
+            Main.main(args);
+            return;
+        }
+
+        Protocol.writeStrings(channel, Protocol.ARGS, List.of(args));
+        Protocol.write(channel, Protocol.CWD, System.getProperty("user.dir").getBytes());
+        List<String> env = new ArrayList<>();
+        for (Map.Entry<String, String> entry : System.getenv().entrySet()) {
+            env.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Protocol.writeStrings(channel, Protocol.ENV, env);
+        Protocol.write(channel, Protocol.START, new byte[0]);
+
+        Thread input = new Thread(() -> sendInput(channel), "client-stdin");
+        input.setDaemon(true);
+        input.start();
+
+        OutputStream out = new FileOutputStream(FileDescriptor.out);
+        OutputStream err = new FileOutputStream(FileDescriptor.err);
+        Frame frame;
+        while ((frame = Protocol.read(channel)) != null) {
+            switch (frame.type) {
+                case Protocol.STDOUT -> out.write(frame.payload);
+                case Protocol.STDERR -> err.write(frame.payload);
+                case Protocol.EXIT -> {
+                    // Exit without waiting for stdin, which may never end
+                    Runtime.getRuntime().halt(ByteBuffer.wrap(frame.payload).getInt());
+                }
+                default -> {
+                    // Newer frame types are ignored
+                }
+            }
+        }
+        err.write("shell: daemon closed the connection\n".getBytes());
+        Runtime.getRuntime().halt(1);
+    }
+
+    private static void sendInput(SocketChannel channel) {
+        InputStream in = new FileInputStream(FileDescriptor.in);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                Protocol.write(channel, Protocol.STDIN, buffer, 0, n);
+            }
+            Protocol.write(channel, Protocol.STDIN, new byte[0]);
+        } catch (IOException e) {
+            // Session finished first
+        }
+    }
+}
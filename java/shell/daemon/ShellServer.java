@@ -0,0 +1,218 @@
+package shell.daemon;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import shell.Main;
+import shell.core.ShellSession;
+import shell.daemon.Protocol.Frame;
+import shell.pipeline.RingPipe;
+import shell.pipeline.StreamUtils;
+
+// shell --daemon [socket]: one warm JVM that runs scripts and -c strings for ShellClient.
+// Each connection is a session with the client's arguments, working directory, environment
+// and stdio; children's inherited streams are pumped over the socket (see Processes).
+// Every connection gets its own ShellSession and thread, so sessions run concurrently.
+public class ShellServer {
+    private static final AtomicInteger SESSIONS = new AtomicInteger();
+
+    public static void serve(String[] args) throws IOException {
+        Path socket = args.length > 0 ? Path.of(args[0]) : Protocol.socketPath();
+        ServerSocketChannel server = bind(socket);
+        System.err.println("shell: daemon listening on " + socket);
+
+        while (true) {
+            SocketChannel client = server.accept();
+            Thread thread = new Thread(() -> session(client), "shell-session-" + SESSIONS.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static ServerSocketChannel bind(Path socket) throws IOException {
+        Path dir = socket.toAbsolutePath().getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                Files.createDirectories(dir);
+                // Anyone who can connect can run commands as this user
+                if (posix) {
+                    Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Created meanwhile, maybe by someone else: checked below like any existing one
+            }
+        }
+        checkPrivate(dir, posix);
+        if (Files.exists(socket)) {
+            if (isListening(socket)) {
+                throw new IOException("a daemon is already listening on " + socket);
+            }
+            // Left behind by a daemon that died
+            Files.delete(socket);
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                // Nothing left to do at exit
+            }
+        }));
+        return server;
+    }
+
+    // In a shared temp directory another user could create the directory first and later swap
+    // the socket, and clients would send them their environment and commands. So it has to be
+    // a real directory of this user's that nobody else can enter.
+    private static void checkPrivate(Path dir, boolean posix) throws IOException {
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(dir + " is not a directory");
+        }
+        UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).equals(user)) {
+            throw new IOException(dir + " is not owned by " + user.getName());
+        }
+        if (posix && !Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS)
+                .equals(PosixFilePermissions.fromString("rwx------"))) {
+            throw new IOException(dir + " must have mode 0700");
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void session(SocketChannel channel) {
+        RingPipe stdin = new RingPipe();
+        try (channel) {
+            List<String> args = List.of();
+            String cwd = null;
+            Map<String, String> env = null;
+
+            Frame frame;
+            while ((frame = Protocol.read(channel)) != null && frame.type != Protocol.START) {
+                switch (frame.type) {
+                    case Protocol.ARGS -> args = Protocol.strings(frame.payload);
+                    case Protocol.CWD -> cwd = new String(frame.payload, StandardCharsets.UTF_8);
+                    case Protocol.ENV -> env = environment(Protocol.strings(frame.payload));
+                    default -> {
+                        // Unknown setup frames are skipped
+                    }
+                }
+            }
+            if (frame == null) {
+                return;
+            }
+
+            PrintStream out = new PrintStream(new BufferedOutputStream(
+                    new Protocol.FrameOutputStream(channel, Protocol.STDOUT), 64 * 1024), false);
+            // stdout is buffered, so it is flushed before anything goes to stderr to keep their order
+            PrintStream err = new PrintStream(new Protocol.FrameOutputStream(channel, Protocol.STDERR) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.flush();
+                    super.write(b, off, len);
+                }
+            }, true);
+            ShellSession session = new ShellSession(new File(cwd != null ? cwd : System.getProperty("user.dir")),
+                    env != null ? env : System.getenv(), stdin.source(), out, err);
+            Thread runner = Thread.currentThread();
+            Thread reader = new Thread(() -> {
+                readInput(channel, stdin.sink());
+                // The client has gone, or the session is over and closed the socket
+                session.cancel();
+                runner.interrupt();
+            }, runner.getName() + "-stdin");
+            reader.setDaemon(true);
+            reader.start();
+
+            int status = run(args.toArray(new String[0]), session);
+            out.flush();
+            err.flush();
+            Protocol.writeExit(channel, status);
+        } catch (IOException e) {
+            // The client went away; its session is over
+        } finally {
+            StreamUtils.closeQuietly(stdin.source());
+        }
+    }
+
+    // The session gets the client's directory and environment and the socket's streams; the
+    // JVM's own state is left alone, so sessions run side by side
+    private static int run(String[] args, ShellSession session) {
+        // A script read from stdin keeps it; otherwise children read the client's stdin
+        session.setForwardInput(args.length > 0);
+        try {
+            return Main.run(args, session);
+        } catch (Exception e) {
+            session.getErr().println("shell: " + e);
+            return 1;
+        } finally {
+            session.getOut().flush();
+        }
+    }
+
+    private static Map<String, String> environment(List<String> entries) {
+        Map<String, String> env = new HashMap<>();
+        for (String entry : entries) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                env.put(entry.substring(0, eq), entry.substring(eq + 1));
+            }
+        }
+        return env;
+    }
+
+    // Client stdin frames into the session's stdin pipe. An empty one is the end of the
+    // client's stdin; the socket is still watched after that, and returns once it closes.
+    private static void readInput(SocketChannel channel, OutputStream sink) {
+        try {
+            Frame frame;
+            while ((frame = Protocol.read(channel)) != null) {
+                if (frame.type != Protocol.STDIN) {
+                    continue;
+                }
+                if (frame.payload.length == 0) {
+                    StreamUtils.closeQuietly(sink);
+                    continue;
+                }
+                sink.write(frame.payload);
+                sink.flush();
+            }
+        } catch (IOException e) {
+            // Session over or client gone
+        } finally {
+            StreamUtils.closeQuietly(sink);
+        }
+    }
+}
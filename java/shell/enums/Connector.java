@@ -0,0 +1,5 @@
+package shell.enums;
+
+public enum Connector {
+    SEQUENCE, AND, OR
+}
@@ -0,0 +1,5 @@
+package shell.enums;
+
+public enum RedirectType {
+    INPUT, OUTPUT, APPEND, DUPLICATE
+}
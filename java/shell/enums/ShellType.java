@@ -1,5 +1,5 @@
 package shell.enums;
 
 public enum ShellType {
-    TYPE, ECHO, EXIT, PWD, CD, CAT, HISTORY, NONE
+    TYPE, ECHO, EXIT, PWD, CD, CAT, HISTORY, HASH, JOBS, WAIT, FG, BG, KILL, PARALLEL, SET, JFR, GREP, SORT, FIND, LS, NONE
 }
\ No newline at end of file
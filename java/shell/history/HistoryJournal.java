@@ -0,0 +1,288 @@
+package shell.history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import shell.jfr.HistoryFlushEvent;
+
+// Append-only HISTFILE shared by every session. Commands are queued and written in one
+// append per group-commit interval; writers in any process serialise on an exclusive lock of
+// HISTFILE.lock, so concurrent sessions interleave their entries instead of overwriting them.
+//
+// When the file has doubled in size since it was last compacted it is rewritten once:
+// duplicates keep only their latest occurrence and the newest HISTFILESIZE entries survive.
+// The rewrite goes to a temporary file that is renamed over HISTFILE, so a reader holding the
+// old file open (or mapped) keeps a consistent snapshot. Windows refuses to replace a file that
+// is open or mapped, so the append channel is closed before compacting and HISTFILE is never
+// left mapped there.
+public class HistoryJournal {
+    private static final long COMMIT_MILLIS = Long.getLong("shell.history.commitMillis", 100);
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+    private static final Object PROCESS_LOCK = new Object();
+    private static final boolean REPLACEABLE_WHILE_MAPPED = !System.getProperty("os.name", "").startsWith("Windows");
+    private static final int TAIL_CHUNK = 64 * 1024;
+
+    private final Path file;
+    private final Path lockFile;
+    private final int maxFileEntries;
+    private final List<String> pending = new ArrayList<>();
+    private final ScheduledExecutorService committer;
+    private boolean commitScheduled;
+    private long compactedSize;
+
+    public HistoryJournal(Path file, int maxFileEntries) {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        this.maxFileEntries = maxFileEntries;
+        this.committer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "history-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.compactedSize = Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            this.compactedSize = 0;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "history-flush"));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized void append(String command) {
+        pending.add(command);
+        if (!commitScheduled) {
+            commitScheduled = true;
+            committer.schedule(this::flush, COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Reads every entry under a shared lock, so a concurrent compaction is never seen half-done
+    public List<String> readAll() throws IOException {
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        return locked(true, this::readEntries);
+    }
+
+    // Maps the file read-only. A compaction renames a new file into place rather than
+    // truncating this one, so the mapping stays valid for the life of the session. Where a
+    // mapped file cannot be replaced, only the part holding the newest lines entries is read,
+    // into memory.
+    public ByteBuffer map(int lines) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return locked(true, () -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (!REPLACEABLE_WHILE_MAPPED) {
+                    return readTail(channel, lines);
+                }
+                long size = channel.size();
+                long base = Math.max(0, size - Integer.MAX_VALUE);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, size - base);
+                if (base == 0) {
+                    return buffer;
+                }
+                // Too big to map whole: keep the newest part, starting at a line boundary
+                int start = 0;
+                while (start < buffer.limit() && buffer.get(start) != '\n') {
+                    start++;
+                }
+                return buffer.position(Math.min(start + 1, buffer.limit())).slice();
+            }
+        });
+    }
+
+    // The end of the file from where its last lines non-blank lines begin, found by scanning
+    // backwards a chunk at a time
+    private static ByteBuffer readTail(FileChannel channel, int lines) throws IOException {
+        if (lines <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+        long size = channel.size();
+        long start = 0;
+        int count = 0;
+        boolean text = false;
+        ByteBuffer chunk = ByteBuffer.allocate(TAIL_CHUNK);
+        scan:
+        for (long end = size; end > 0; end -= chunk.capacity()) {
+            long from = Math.max(0, end - chunk.capacity());
+            chunk.clear().limit((int) (end - from));
+            while (chunk.hasRemaining() && channel.read(chunk, from + chunk.position()) >= 0) {
+                // Until the chunk is full; the file only grows under the shared lock
+            }
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                byte b = chunk.get(i);
+                if (b == '\n') {
+                    if (text && ++count == lines) {
+                        start = from + i + 1;
+                        break scan;
+                    }
+                    text = false;
+                } else if ((b & 0xff) > ' ') {
+                    text = true;
+                }
+            }
+        }
+        if (size - start > Integer.MAX_VALUE) {
+            throw new IOException("history file too large");
+        }
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - start));
+        while (tail.hasRemaining() && channel.read(tail, start + tail.position()) >= 0) {
+            // Until the buffer is full
+        }
+        return tail.flip();
+    }
+
+    public void flush() {
+        List<String> batch;
+        synchronized (this) {
+            commitScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String command : batch) {
+            sb.append(command).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        HistoryFlushEvent event = new HistoryFlushEvent();
+        event.begin();
+
+        try {
+            locked(false, () -> {
+                long size;
+                // Reopened per batch: another session may have renamed a compacted file into place
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    size = out.size();
+                }
+                // Closed first: the rename over HISTFILE fails on Windows while it is open
+                if (size > Math.max(MIN_COMPACT_BYTES, compactedSize * 2)) {
+                    try {
+                        compactLocked();
+                    } catch (IOException e) {
+                        // The batch is on disk either way; the next flush tries compacting again
+                    }
+                }
+                return null;
+            });
+            event.succeeded = true;
+        } catch (IOException e) {
+            // History is best effort; the append failed, so keep the entries for the next attempt
+            synchronized (this) {
+                pending.addAll(0, batch);
+            }
+        }
+        if (event.shouldCommit()) {
+            event.file = file.toString();
+            event.entries = batch.size();
+            event.bytes = bytes.limit();
+            event.commit();
+        }
+    }
+
+    // Replaces the file with the given entries (history -w on HISTFILE)
+    public void rewrite(List<String> entries) throws IOException {
+        flush();
+        locked(false, () -> {
+            replaceLocked(entries);
+            return null;
+        });
+    }
+
+    public void compact() throws IOException {
+        flush();
+        locked(false, () -> {
+            compactLocked();
+            return null;
+        });
+    }
+
+    public void close() {
+        flush();
+        committer.shutdown();
+    }
+
+    private void compactLocked() throws IOException {
+        List<String> entries = readEntries();
+
+        // Walk newest to oldest so each command keeps its most recent position
+        LinkedHashSet<String> newestFirst = new LinkedHashSet<>();
+        for (int i = entries.size() - 1; i >= 0 && newestFirst.size() < maxFileEntries; i--) {
+            newestFirst.add(entries.get(i));
+        }
+        List<String> kept = new ArrayList<>(newestFirst);
+        Collections.reverse(kept);
+        replaceLocked(kept);
+    }
+
+    private void replaceLocked(List<String> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compactedSize = Files.size(file);
+    }
+
+    private List<String> readEntries() throws IOException {
+        List<String> entries = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return entries;
+        }
+        try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.trim().isEmpty()).forEach(entries::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return entries;
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    // FileLock only excludes other processes, so threads of this one also take PROCESS_LOCK
+    private <T> T locked(boolean shared, LockedAction<T> action) throws IOException {
+        synchronized (PROCESS_LOCK) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock(0, Long.MAX_VALUE, shared);
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+}
@@ -1,24 +1,76 @@
 package shell.history;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import shell.completion.Completer;
+import shell.terminal.Terminal;
+import shell.terminal.TerminalOutput;
 
 public class HistoryManager {
-    private final List<String> commandHistory = new ArrayList<>();
+    private static final int MAX_LISTED = 100;
+
+    private final MappedHistory commandHistory = new MappedHistory();
     private final String histFile;
     private int historyLoadedCount = 0;
     private final Map<String, Integer> fileAppendIndex = new HashMap<>();
+    private final HistoryJournal journal;
+    private final int maxEntries;
+    private BufferedReader lineReader;
+    private final HistorySearch search = new HistorySearch(commandHistory);
+    private Completer completer;
 
     public HistoryManager() {
-        this.histFile = System.getenv("HISTFILE");
+        this(System.getenv("HISTFILE"));
+    }
+
+    // A null histFile keeps history in memory only
+    public HistoryManager(String histFile) {
+        this.histFile = histFile;
+        this.maxEntries = limit("HISTSIZE", 1000);
+        this.journal = (histFile == null || histFile.isEmpty()) ? null
+                : new HistoryJournal(Path.of(histFile).toAbsolutePath(), limit("HISTFILESIZE", maxEntries));
         loadFromFile();
     }
 
+    // bash semantics: unset or garbage keeps the default, a negative value means unlimited
+    private static int limit(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int n = Integer.parseInt(value.trim());
+            return n < 0 ? Integer.MAX_VALUE : n;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public void addCommand(String command) {
+        loadedCount();
         commandHistory.add(command);
+        if (journal != null) {
+            journal.append(command);
+        }
+        trimToSize();
+    }
+
+    // Keeps only the newest HISTSIZE entries in memory
+    private void trimToSize() {
+        int excess = commandHistory.size() - maxEntries;
+        if (excess <= 0) {
+            return;
+        }
+        commandHistory.subList(0, excess).clear();
+        historyLoadedCount = Math.max(0, loadedCount() - excess);
+        fileAppendIndex.replaceAll((file, index) -> Math.max(0, index - excess));
     }
 
     public List<String> getHistory() {
@@ -26,75 +78,101 @@ public class HistoryManager {
     }
 
     public int getHistoryLoadedCount() {
+        return loadedCount();
+    }
+
+    // Everything mapped from HISTFILE counts as loaded; resolving it waits for the index
+    private int loadedCount() {
+        if (historyLoadedCount < 0) {
+            historyLoadedCount = commandHistory.size();
+        }
         return historyLoadedCount;
     }
 
     public void loadFromFile() {
-        if (histFile == null || histFile.isEmpty()) {
+        if (journal == null) {
             return;
         }
-        
-        File file = new File(histFile);
-        if (!file.exists()) {
-            return;
-        }
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    commandHistory.add(line);
-                    historyLoadedCount++;
-                }
+
+        try {
+            ByteBuffer mapped = journal.map(maxEntries);
+            if (mapped != null) {
+                commandHistory.load(mapped, maxEntries);
+                historyLoadedCount = -1;
+                search.warmUp();
             }
         } catch (IOException e) {
             // Silently ignore errors
         }
     }
 
+    // Commands are journaled as they are added, so exit only has the last batch to write
     public void saveToFile() {
-        if (histFile == null || histFile.isEmpty()) {
-            return;
+        if (journal != null) {
+            journal.close();
         }
-        
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(histFile))) {
-            for (String cmd : commandHistory) {
-                writer.write(cmd);
-                writer.newLine();
-            }
+    }
+
+    // history -r, -w and -a report failures on err and return false
+    public boolean readFromFile(String filename, PrintStream err) {
+        try {
+            List<String> entries = isHistFile(filename) ? journal.readAll() : readEntries(filename);
+            historyLoadedCount = loadedCount() + entries.size();
+            commandHistory.addAll(entries);
+            trimToSize();
+            return true;
         } catch (IOException e) {
-            // Silently ignore errors
+            err.println("history: " + filename + ": cannot read file");
+            return false;
         }
     }
 
-    public void readFromFile(String filename) {
+    private static List<String> readEntries(String filename) throws IOException {
+        List<String> entries = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 if (!line.trim().isEmpty()) {
-                    commandHistory.add(line);
-                    historyLoadedCount++;
+                    entries.add(line);
                 }
             }
-        } catch (IOException e) {
-            System.err.println("history: " + filename + ": cannot read file");
         }
+        return entries;
     }
 
-    public void writeToFile(String filename) {
+    public boolean writeToFile(String filename, PrintStream err) {
+        if (isHistFile(filename)) {
+            try {
+                journal.rewrite(commandHistory);
+                return true;
+            } catch (IOException e) {
+                err.println("history: " + filename + ": cannot write to file");
+                return false;
+            }
+        }
+
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename, false))) {
             for (String cmd : commandHistory) {
                 writer.write(cmd);
                 writer.newLine();
             }
+            return true;
         } catch (IOException e) {
-            System.err.println("history: " + filename + ": cannot write to file");
+            err.println("history: " + filename + ": cannot write to file");
+            return false;
         }
     }
 
-    public void appendToFile(String filename) {
+    public boolean appendToFile(String filename, PrintStream err) {
+        if (isHistFile(filename)) {
+            // Every new command is already in the journal; just make sure it reached the file
+            journal.flush();
+            fileAppendIndex.put(filename, commandHistory.size());
+            return true;
+        }
+
         try {
-            int startIndex = fileAppendIndex.getOrDefault(filename, historyLoadedCount);
+            int startIndex = fileAppendIndex.getOrDefault(filename, loadedCount());
             
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename, true))) {
                 for (int i = startIndex; i < commandHistory.size(); i++) {
@@ -104,122 +182,268 @@ public class HistoryManager {
             }
             
             fileAppendIndex.put(filename, commandHistory.size());
+            return true;
         } catch (IOException e) {
-            System.err.println("history: " + filename + ": cannot write to file");
+            err.println("history: " + filename + ": cannot write to file");
+            return false;
         }
     }
 
-    public String readLineWithHistory() throws IOException {
-        boolean rawModeEnabled = false;
-        try {
-            String[] enableCmd = {"/bin/sh", "-c", "stty raw -echo < /dev/tty"};
-            Process p = Runtime.getRuntime().exec(enableCmd);
-            p.waitFor();
-            rawModeEnabled = (p.exitValue() == 0);
-        } catch (Exception e) {
-            // Couldn't enable raw mode
+    private boolean isHistFile(String filename) {
+        return journal != null && Path.of(filename).toAbsolutePath().normalize().equals(journal.getFile().normalize());
+    }
+
+    // prompt is already in screen's buffer; it is only needed to redraw the line. currentDir
+    // is where TAB completes relative paths from. Everything echoed goes through screen, which
+    // is flushed only when no more input is waiting, so a pasted line is drawn in one write.
+    public String readLineWithHistory(String prompt, File currentDir, TerminalOutput screen) throws IOException {
+        if (!Terminal.enableRawMode()) {
+            screen.flush();
+            if (lineReader == null) {
+                lineReader = new BufferedReader(new InputStreamReader(System.in));
+            }
+            return lineReader.readLine();
         }
-        
-        if (!rawModeEnabled) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-            return reader.readLine();
+        if (completer == null) {
+            completer = new Completer();
         }
+        completer.warmUp();
         
-        try {
-            StringBuilder line = new StringBuilder();
-            int historyIndex = commandHistory.size();
-            String savedLine = "";
+        StringBuilder line = new StringBuilder();
+        int historyIndex = commandHistory.size();
+        String savedLine = "";
+        int columns = terminalColumns();
+        
+        boolean lastWasTab = false;
+        
+        while (true) {
+            if (System.in.available() == 0) {
+                screen.flush();
+            }
+            int c = System.in.read();
+            boolean repeatedTab = lastWasTab;
+            lastWasTab = c == '\t';
             
-            while (true) {
-                int c = System.in.read();
-                
-                if (c == -1) {
-                    return null;
-                }
-                
-                if (c == '\n' || c == '\r') {
-                    System.out.print("\r\n");
-                    System.out.flush();
-                    return line.toString();
-                }
-                
-                if (c == 127 || c == 8) {
-                    if (line.length() > 0) {
-                        line.deleteCharAt(line.length() - 1);
-                        System.out.print("\b \b");
-                        System.out.flush();
-                    }
-                    continue;
+            if (c == -1) {
+                screen.flush();
+                return null;
+            }
+            
+            if (c == '\t') {
+                completeWord(prompt, line, repeatedTab, currentDir, screen);
+                continue;
+            }
+            
+            if (c == '\n' || c == '\r') {
+                screen.append("\r\n").flush();
+                return line.toString();
+            }
+            
+            if (c == 127 || c == 8) {
+                if (line.length() > 0) {
+                    line.deleteCharAt(line.length() - 1);
+                    screen.append("\b \b");
                 }
-                
-                if (c == 27) {
-                    int next1 = System.in.read();
-                    if (next1 == '[') {
-                        int next2 = System.in.read();
-                        
-                        if (next2 == 'A') {
-                            if (historyIndex > 0) {
-                                if (historyIndex == commandHistory.size()) {
-                                    savedLine = line.toString();
-                                }
-                                historyIndex--;
-                                clearLine(line.length());
-                                line.setLength(0);
-                                line.append(commandHistory.get(historyIndex));
-                                System.out.print(line);
-                                System.out.flush();
+                continue;
+            }
+            
+            if (c == 27) {
+                int next1 = System.in.read();
+                if (next1 == '[') {
+                    int next2 = System.in.read();
+                    int shown = prompt.length() + line.length();
+                    
+                    if (next2 == 'A') {
+                        if (historyIndex > 0) {
+                            if (historyIndex == commandHistory.size()) {
+                                savedLine = line.toString();
                             }
-                        } else if (next2 == 'B') {
-                            if (historyIndex < commandHistory.size()) {
-                                historyIndex++;
-                                clearLine(line.length());
-                                line.setLength(0);
-                                if (historyIndex == commandHistory.size()) {
-                                    line.append(savedLine);
-                                } else {
-                                    line.append(commandHistory.get(historyIndex));
-                                }
-                                System.out.print(line);
-                                System.out.flush();
+                            historyIndex--;
+                            line.setLength(0);
+                            line.append(commandHistory.get(historyIndex));
+                            screen.redraw(shown, prompt, line, columns);
+                        }
+                    } else if (next2 == 'B') {
+                        if (historyIndex < commandHistory.size()) {
+                            historyIndex++;
+                            line.setLength(0);
+                            if (historyIndex == commandHistory.size()) {
+                                line.append(savedLine);
+                            } else {
+                                line.append(commandHistory.get(historyIndex));
                             }
+                            screen.redraw(shown, prompt, line, columns);
                         }
                     }
-                    continue;
                 }
-                
-                if (c == 3) {
-                    System.out.print("^C\r\n");
-                    System.out.flush();
-                    return "";
+                continue;
+            }
+            
+            if (c == 18 || c == 19) {
+                if (incrementalSearch(prompt, line, c == 18, columns, screen)) {
+                    screen.append("\r\n").flush();
+                    return line.toString();
                 }
-                
-                if (c == 4) {
-                    if (line.length() == 0) {
-                        return null;
-                    }
-                    continue;
+                historyIndex = commandHistory.size();
+                continue;
+            }
+            
+            if (c == 3) {
+                screen.append("^C\r\n").flush();
+                return "";
+            }
+            
+            if (c == 4) {
+                if (line.length() == 0) {
+                    screen.flush();
+                    return null;
                 }
-                
-                if (c >= 32 && c < 127) {
-                    line.append((char) c);
-                    System.out.print((char) c);
-                    System.out.flush();
+                continue;
+            }
+            
+            if (c >= 32 && c < 127) {
+                line.append((char) c);
+                screen.append((char) c);
+            }
+        }
+    }
+
+    // TAB completes the word before the cursor as far as it is unambiguous; a second TAB
+    // lists the candidates, asking first when there are many
+    private void completeWord(String prompt, StringBuilder line, boolean repeated, File currentDir,
+                              TerminalOutput screen) throws IOException {
+        Completer.Completion completion = completer.complete(line.toString(), currentDir);
+        String replacement = completion.replacement();
+        if (replacement != null) {
+            int shown = prompt.length() + line.length();
+            line.setLength(completion.getStart());
+            line.append(replacement);
+            screen.redraw(shown, prompt, line, terminalColumns());
+            return;
+        }
+        if (completion.size() == 0 || !repeated) {
+            screen.append('\007');
+            return;
+        }
+
+        if (completion.size() > MAX_LISTED) {
+            screen.append("\r\nDisplay all ").append(completion.size(), 0).append(" possibilities? (y or n)").flush();
+            int answer = System.in.read();
+            if (answer != 'y' && answer != 'Y') {
+                screen.append("\r\n").append(prompt).append(line);
+                return;
+            }
+        }
+
+        List<String> matches = completion.display(Integer.MAX_VALUE);
+        int width = 0;
+        for (String match : matches) {
+            width = Math.max(width, match.length() + 2);
+        }
+        int columns = Math.max(1, terminalColumns() / width);
+        int rows = (matches.size() + columns - 1) / columns;
+        screen.append("\r\n");
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int i = col * rows + row;
+                if (i < matches.size()) {
+                    String match = matches.get(i);
+                    screen.append(match);
+                    if (col + 1 < columns && i + rows < matches.size()) {
+                        screen.spaces(width - match.length());
+                    }
                 }
             }
-        } finally {
-            try {
-                String[] restoreCmd = {"/bin/sh", "-c", "stty sane < /dev/tty"};
-                Runtime.getRuntime().exec(restoreCmd).waitFor();
-            } catch (Exception e) {
-                // Ignore
+            screen.append("\r\n");
+        }
+        screen.append(prompt).append(line);
+    }
+
+    private static int terminalColumns() {
+        try {
+            return Integer.parseInt(System.getenv().getOrDefault("COLUMNS", "80"));
+        } catch (NumberFormatException e) {
+            return 80;
+        }
+    }
+
+    // Ctrl-R searches older entries, Ctrl-S newer ones; repeating either moves to the next
+    // distinct match. Returns true when Enter accepted the match, which is left in line.
+    private boolean incrementalSearch(String prompt, StringBuilder line, boolean older, int columns,
+                                      TerminalOutput screen) throws IOException {
+        String original = line.toString();
+        StringBuilder query = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        int end = commandHistory.firstId() + commandHistory.size();
+        int match = -1;
+        boolean failed = false;
+        int shown = prompt.length() + line.length();
+
+        while (true) {
+            String shownMatch = match >= 0 ? search.get(match) : "";
+            shown = screen.redraw(shown, "(" + (failed ? "failed " : "") + (older ? "reverse-" : "")
+                    + "i-search)`" + query + "': ", shownMatch, columns);
+            screen.flush();
+
+            int c = System.in.read();
+            if (c == 18 || c == 19) {
+                if (older != (c == 18) && match >= 0) {
+                    // Turning around: entries passed on the way are fair game again
+                    seen.clear();
+                    seen.add(search.get(match));
+                }
+                older = c == 18;
+                if (query.length() > 0) {
+                    int next = nextMatch(query.toString(), match >= 0 ? match : end, older, seen);
+                    failed = next < 0;
+                    match = failed ? match : next;
+                }
+            } else if (c == 127 || c == 8 || (c >= 32 && c < 127)) {
+                if (c >= 32) {
+                    query.append((char) c);
+                } else if (query.length() > 0) {
+                    query.setLength(query.length() - 1);
+                }
+                seen.clear();
+                // The current match stays while it still contains the query
+                if (match >= 0 && search.get(match).contains(query)) {
+                    failed = false;
+                    seen.add(search.get(match));
+                } else {
+                    int next = nextMatch(query.toString(), match >= 0 ? match : end, older, seen);
+                    failed = next < 0;
+                    match = failed ? match : next;
+                }
+            } else if (c == 7 || c == 3 || c == -1) {
+                line.setLength(0);
+                line.append(original);
+                break;
+            } else {
+                if (match >= 0) {
+                    line.setLength(0);
+                    line.append(search.get(match));
+                }
+                if (c == '\r' || c == '\n') {
+                    screen.redraw(shown, prompt, line, columns);
+                    return true;
+                }
+                // Any other key leaves the match on the line for editing; drop an arrow key's tail
+                if (c == 27 && System.in.available() >= 2) {
+                    System.in.read();
+                    System.in.read();
+                }
+                break;
             }
         }
+        screen.redraw(shown, prompt, line, columns);
+        return false;
     }
 
-    private void clearLine(int length) {
-        for (int i = 0; i < length; i++) {
-            System.out.print("\b \b");
+    private int nextMatch(String query, int from, boolean older, Set<String> seen) {
+        int id = search.find(query, from, older);
+        while (id >= 0 && !seen.add(search.get(id))) {
+            id = search.find(query, id, older);
         }
-        System.out.flush();
+        return id;
     }
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+package shell.history;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// Trigram index for Ctrl-R / Ctrl-S. Every trigram of every entry maps to the ascending ids
+// of the entries containing it; a query walks the rarest of its trigrams' lists from the
+// starting id towards older (or newer) entries, checks the other lists by binary search and
+// confirms the survivors with a substring test. Queries shorter than a trigram scan instead,
+// which stops at the first match and almost every entry matches one or two characters.
+//
+// Entries loaded from HISTFILE are indexed on a background thread from startup; entries
+// added since are caught up on each query. The index is rebuilt once trimmed entries make
+// up more than half of what it holds.
+public class HistorySearch {
+    private final MappedHistory history;
+    private FutureTask<TrigramTable> warmUp;
+    private TrigramTable index = new TrigramTable();
+    private int indexedFrom;
+    private int indexedTo;
+
+    public HistorySearch(MappedHistory history) {
+        this.history = history;
+    }
+
+    // Starts indexing the loaded entries so the first Ctrl-R does not pay for it
+    public void warmUp() {
+        if (warmUp != null || indexedTo > 0) {
+            return;
+        }
+        warmUp = new FutureTask<>(() -> {
+            TrigramTable table = new TrigramTable();
+            int loaded = history.loadedCount();
+            for (int id = 0; id < loaded; id++) {
+                table.addEntry(history.loaded(id), id);
+            }
+            return table;
+        });
+        Thread thread = new Thread(warmUp, "history-search-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Newest entry containing query with an id below from (older) or above it (newer), or -1
+    public int find(String query, int from, boolean older) {
+        update();
+        if (query.isEmpty()) {
+            return -1;
+        }
+        int first = history.firstId();
+        int end = first + history.size();
+        if (query.length() < 3) {
+            return scan(query, from, older, first, end);
+        }
+
+        Postings[] lists = new Postings[query.length() - 2];
+        for (int i = 0; i < lists.length; i++) {
+            Postings postings = index.get(trigram(query, i));
+            if (postings == null) {
+                return -1;
+            }
+            lists[i] = postings;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        Postings rarest = lists[0];
+
+        int pos = older ? rarest.lowerIndex(from) : rarest.higherIndex(Math.max(from, first - 1));
+        int step = older ? -1 : 1;
+        for (; pos >= 0 && pos < rarest.size; pos += step) {
+            int id = rarest.ids[pos];
+            if (id < first) {
+                break;
+            }
+            if (containsAll(lists, id) && history.get(id - first).contains(query)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public String get(int id) {
+        return history.get(id - history.firstId());
+    }
+
+    private int scan(String query, int from, boolean older, int first, int end) {
+        if (older) {
+            for (int id = Math.min(from, end) - 1; id >= first; id--) {
+                if (history.get(id - first).contains(query)) {
+                    return id;
+                }
+            }
+        } else {
+            for (int id = Math.max(from + 1, first); id < end; id++) {
+                if (history.get(id - first).contains(query)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean containsAll(Postings[] lists, int id) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void update() {
+        if (warmUp != null) {
+            adoptWarmUp();
+        }
+        int first = history.firstId();
+        int end = first + history.size();
+        if (first - indexedFrom > end - first) {
+            index = new TrigramTable();
+            indexedFrom = first;
+            indexedTo = first;
+        }
+        for (int id = Math.max(indexedTo, first); id < end; id++) {
+            index.addEntry(history.get(id - first), id);
+        }
+        indexedTo = end;
+    }
+
+    private void adoptWarmUp() {
+        try {
+            index = warmUp.get();
+            indexedTo = history.loadedCount();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warmUp.cancel(true);
+        } catch (ExecutionException e) {
+            // Fall back to indexing everything on this thread
+        }
+        warmUp = null;
+    }
+
+    private static long trigram(CharSequence s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // Open-addressing map from packed trigram to postings; avoids a boxed key per trigram
+    private static class TrigramTable {
+        private static final long EMPTY = -1;
+
+        private long[] keys = newKeys(1024);
+        private Postings[] values = new Postings[1024];
+        private int size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        void addEntry(String entry, int id) {
+            for (int i = 0; i + 3 <= entry.length(); i++) {
+                long key = trigram(entry, i);
+                int slot = slot(key);
+                if (keys[slot] == EMPTY) {
+                    keys[slot] = key;
+                    values[slot] = new Postings();
+                    if (++size * 2 > keys.length) {
+                        grow();
+                        slot = slot(key);
+                    }
+                }
+                values[slot].add(id);
+            }
+        }
+
+        Postings get(long key) {
+            int slot = slot(key);
+            return keys[slot] == EMPTY ? null : values[slot];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new Postings[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            // An entry repeating a trigram is listed once
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        // Index of the last id below bound, or -1
+        int lowerIndex(int bound) {
+            int i = Arrays.binarySearch(ids, 0, size, bound);
+            return (i >= 0 ? i : -i - 1) - 1;
+        }
+
+        // Index of the first id above bound, or size
+        int higherIndex(int bound) {
+            int i = Arrays.binarySearch(ids, 0, size, bound);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package shell.history;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// History as one list over two parts: entries loaded from HISTFILE stay in the mapped file
+// and are decoded only when read, and commands from this session are kept as Strings.
+//
+// Loading just maps the file; the line-start index is built on a background thread by
+// scanning backwards from the end, so only the newest HISTSIZE lines are ever touched. Reads
+// that need the index wait for it, which by the time anyone presses up-arrow is long done.
+public class MappedHistory extends AbstractList<String> implements RandomAccess {
+    private static final long[] NO_LINES = new long[0];
+
+    private ByteBuffer mapped;
+    private volatile FutureTask<long[]> index;
+    private volatile long[] lineStarts = NO_LINES;
+    private int dropped;
+    private int removed;
+    private final List<String> tail = new ArrayList<>();
+
+    // Starts indexing the newest limit lines of the mapped file
+    public void load(ByteBuffer buffer, int limit) {
+        mapped = buffer;
+        index = new FutureTask<>(() -> buildIndex(buffer, limit));
+        Thread thread = new Thread(index, "history-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public String get(int i) {
+        int loaded = mappedSize();
+        if (i < 0 || i >= loaded + tail.size()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+        }
+        return i < loaded ? decode(lineStarts[dropped + i]) : tail.get(i - loaded);
+    }
+
+    @Override
+    public int size() {
+        return mappedSize() + tail.size();
+    }
+
+    // Entries keep a stable id (first id + index) while older ones are trimmed off the front
+    public int firstId() {
+        return removed;
+    }
+
+    @Override
+    public boolean add(String command) {
+        modCount++;
+        return tail.add(command);
+    }
+
+    // Trimming the oldest entries from the front is just an offset into the index
+    @Override
+    protected void removeRange(int from, int to) {
+        int loaded = mappedSize();
+        if (from != 0 && from < loaded) {
+            throw new UnsupportedOperationException("history entries can only be removed from the front");
+        }
+        modCount++;
+        if (from == 0) {
+            removed += to;
+        }
+        int fromMapped = Math.max(0, Math.min(to, loaded) - from);
+        dropped += fromMapped;
+        if (to > loaded) {
+            tail.subList(Math.max(0, from - loaded), to - loaded).clear();
+        }
+    }
+
+    private int mappedSize() {
+        awaitIndex();
+        return lineStarts.length - dropped;
+    }
+
+    // Entries loaded from the file have ids 0..loadedCount()-1 for the whole session, so these
+    // two can be used from another thread while this one adds and trims
+    int loadedCount() {
+        awaitIndex();
+        return lineStarts.length;
+    }
+
+    String loaded(int id) {
+        return decode(lineStarts[id]);
+    }
+
+    private void awaitIndex() {
+        if (index != null) {
+            joinIndex();
+        }
+    }
+
+    private synchronized void joinIndex() {
+        if (index == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                lineStarts = index.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // An unreadable file behaves like an empty one
+                lineStarts = NO_LINES;
+                break;
+            }
+        }
+        index = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String decode(long start) {
+        int from = (int) start;
+        int end = from;
+        int limit = mapped.limit();
+        while (end < limit && mapped.get(end) != '\n') {
+            end++;
+        }
+        if (end > from && mapped.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[end - from];
+        mapped.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long[] buildIndex(ByteBuffer buffer, int limit) {
+        long[] starts = new long[Math.min(limit, 1024)];
+        int count = 0;
+        int lineEnd = buffer.limit();
+        for (int p = lineEnd - 1; p >= -1 && count < limit; p--) {
+            if (p >= 0 && buffer.get(p) != '\n') {
+                continue;
+            }
+            int start = p + 1;
+            if (!isBlank(buffer, start, lineEnd)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, (int) Math.min((long) limit, count * 2L));
+                }
+                starts[count++] = start;
+            }
+            lineEnd = p;
+        }
+
+        // Collected newest first
+        long[] ordered = new long[count];
+        for (int i = 0; i < count; i++) {
+            ordered[i] = starts[count - 1 - i];
+        }
+        return ordered;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buffer.get(i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("shell.HistoryFlush")
+@Label("History Flush")
+@Category({"Shell", "History"})
+@Description("A batch of commands appended to the HISTFILE journal")
+public class HistoryFlushEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Entries")
+    public int entries;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
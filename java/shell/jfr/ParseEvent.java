@@ -0,0 +1,22 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("shell.Parse")
+@Label("Parse")
+@Category({"Shell", "Commands"})
+@Description("One command line through CommandParser.parse")
+public class ParseEvent extends Event {
+    @Label("Length")
+    public int length;
+
+    @Label("Pipelines")
+    public int pipelines;
+
+    @Label("Error")
+    public String error;
+}
@@ -0,0 +1,24 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("shell.PipeStall")
+@Label("Pipe Stall")
+@Category({"Shell", "Pipelines"})
+@Description("A builtin stage parked on a RingPipe: the writer on a full buffer, the reader on an empty one")
+@Threshold("1 ms")
+public class PipeStallEvent extends Event {
+    @Label("Full")
+    @Description("True for a writer waiting for space, false for a reader waiting for data")
+    public boolean full;
+
+    @Label("Capacity")
+    @DataAmount
+    public int capacity;
+}
@@ -0,0 +1,22 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("shell.Resolve")
+@Label("Command Resolution")
+@Category({"Shell", "Commands"})
+@Description("A command name looked up in the PATH hash, scanning PATH on a miss")
+public class ResolveEvent extends Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Cached")
+    public boolean cached;
+}
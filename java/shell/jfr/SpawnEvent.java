@@ -0,0 +1,25 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("shell.Spawn")
+@Label("Process Spawn")
+@Category({"Shell", "Processes"})
+@Description("Time to start child processes: ProcessBuilder.start, or startPipeline for a run of stages")
+public class SpawnEvent extends Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Processes")
+    public int processes;
+
+    @Label("First PID")
+    public long pid;
+
+    @Label("Error")
+    public String error;
+}
@@ -0,0 +1,28 @@
+package shell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("shell.PipelineStage")
+@Label("Pipeline Stage")
+@Category({"Shell", "Pipelines"})
+@Description("One stage of a pipeline, from its start until its builtin returns or its process exits")
+public class StageEvent extends Event {
+    @Label("Stage")
+    public int stage;
+
+    @Label("Command")
+    public String command;
+
+    @Label("Builtin")
+    public boolean builtin;
+
+    @Label("PID")
+    public long pid;
+
+    @Label("Exit Status")
+    public int status;
+}
@@ -0,0 +1,101 @@
+package shell.jobs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import shell.pipeline.PipelineScheduler;
+
+// One background pipeline. Its status comes from the processes' onExit futures and the
+// builtin stages' results, so a job that is only waiting on its processes holds no thread.
+public class Job {
+    private final int id;
+    private final String command;
+    private final PipelineScheduler.Run run;
+    private final CompletableFuture<Integer> completion;
+
+    Job(int id, String command, PipelineScheduler.Run run) {
+        this.id = id;
+        this.command = command;
+        this.run = run;
+        this.completion = run.completion();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public List<Process> getProcesses() {
+        return run.processes();
+    }
+
+    public CompletableFuture<Integer> getCompletion() {
+        return completion;
+    }
+
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    // Blocks until every stage has finished and returns the last stage's status
+    public int await() throws InterruptedException {
+        return run.await();
+    }
+
+    // Kills the processes and interrupts the builtin stages
+    public void cancel() {
+        run.cancel();
+    }
+
+    // Pid shown for the job: its last process, or -1 for a job of builtins only
+    public long getPid() {
+        List<Process> processes = getProcesses();
+        return processes.isEmpty() ? -1 : processes.get(processes.size() - 1).pid();
+    }
+
+    public boolean isStopped() {
+        if (isDone()) {
+            return false;
+        }
+        for (Process process : getProcesses()) {
+            if (process.isAlive() && processState(process.pid()) == 'T') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // State column of jobs and of the completion notice
+    public String describe() {
+        if (!isDone()) {
+            return isStopped() ? "Stopped" : "Running";
+        }
+        int status = completion.getNow(1);
+        return switch (status) {
+            case 0 -> "Done";
+            case 128 + 1 -> "Hangup";
+            case 128 + 2 -> "Interrupt";
+            case 128 + 9 -> "Killed";
+            case 128 + 15 -> "Terminated";
+            default -> "Exit " + status;
+        };
+    }
+
+    // Third field of /proc/<pid>/stat, after the parenthesised command name; '?' when unknown
+    private static char processState(long pid) {
+        try {
+            String stat = new String(Files.readAllBytes(Path.of("/proc", Long.toString(pid), "stat")),
+                    StandardCharsets.US_ASCII);
+            int close = stat.lastIndexOf(')');
+            return close >= 0 && close + 2 < stat.length() ? stat.charAt(close + 2) : '?';
+        } catch (IOException | SecurityException e) {
+            return '?';
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package shell.jobs;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import shell.pipeline.PipelineScheduler;
+
+// The shell's background jobs, numbered like bash: one more than the highest live number.
+// The most recently started or resumed job is the current one (%+), the one before it %-.
+// Finished jobs stay in the table until they have been reported once.
+public class JobTable {
+    private final TreeMap<Integer, Job> jobs = new TreeMap<>();
+    private final List<Job> recent = new ArrayList<>();
+
+    public synchronized Job add(String command, PipelineScheduler.Run run) {
+        int id = jobs.isEmpty() ? 1 : jobs.lastKey() + 1;
+        Job job = new Job(id, command, run);
+        jobs.put(id, job);
+        recent.add(job);
+        return job;
+    }
+
+    public synchronized void remove(Job job) {
+        jobs.remove(job.getId());
+        recent.remove(job);
+    }
+
+    // Makes job the current one
+    public synchronized void touch(Job job) {
+        if (recent.remove(job)) {
+            recent.add(job);
+        }
+    }
+
+    public synchronized List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    public synchronized boolean isEmpty() {
+        return jobs.isEmpty();
+    }
+
+    public synchronized Job current() {
+        return recent.isEmpty() ? null : recent.get(recent.size() - 1);
+    }
+
+    // '+' for the current job, '-' for the previous one, ' ' otherwise
+    public synchronized char marker(Job job) {
+        int n = recent.size();
+        if (n > 0 && recent.get(n - 1) == job) {
+            return '+';
+        }
+        return n > 1 && recent.get(n - 2) == job ? '-' : ' ';
+    }
+
+    // Resolves %n, %+, %%, %-, %prefix and %?substring; null if no job matches
+    public synchronized Job find(String spec) {
+        if (!spec.startsWith("%")) {
+            return null;
+        }
+        String key = spec.substring(1);
+        if (key.isEmpty() || key.equals("%") || key.equals("+")) {
+            return current();
+        }
+        if (key.equals("-")) {
+            return recent.size() > 1 ? recent.get(recent.size() - 2) : null;
+        }
+        try {
+            return jobs.get(Integer.parseInt(key));
+        } catch (NumberFormatException e) {
+            // A command name
+        }
+        boolean anywhere = key.startsWith("?");
+        String text = anywhere ? key.substring(1) : key;
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            Job job = recent.get(i);
+            if (anywhere ? job.getCommand().contains(text) : job.getCommand().startsWith(text)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    // The job one of whose processes has this pid
+    public synchronized Job findByPid(long pid) {
+        for (Job job : jobs.values()) {
+            for (Process process : job.getProcesses()) {
+                if (process.pid() == pid) {
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    // "[n]+  State                   command", the line jobs and the prompt notice print
+    public synchronized String format(Job job, boolean withPid) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[').append(job.getId()).append(']').append(marker(job)).append("  ");
+        if (withPid) {
+            sb.append(job.getPid()).append(' ');
+        }
+        String state = job.describe();
+        sb.append(state);
+        for (int i = state.length(); i < 24; i++) {
+            sb.append(' ');
+        }
+        sb.append(job.getCommand());
+        if (!job.isDone()) {
+            sb.append(" &");
+        }
+        return sb.toString();
+    }
+
+    // Prints and forgets the jobs that finished since the last prompt
+    public void reportFinished(PrintStream out) {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            for (Job job : new ArrayList<>(jobs.values())) {
+                if (job.isDone()) {
+                    lines.add(format(job, false));
+                    remove(job);
+                }
+            }
+        }
+        for (String line : lines) {
+            out.println(line);
+        }
+        out.flush();
+    }
+}
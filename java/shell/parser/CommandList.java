@@ -0,0 +1,46 @@
+package shell.parser;
+
+import java.util.List;
+import shell.enums.Connector;
+
+// Pipelines joined left to right; connector i sits between pipeline i and i + 1
+public final class CommandList {
+    private final List<Pipeline> pipelines;
+    private final List<Connector> connectors;
+
+    CommandList(List<Pipeline> pipelines, List<Connector> connectors) {
+        this.pipelines = pipelines;
+        this.connectors = connectors;
+    }
+
+    public List<Pipeline> getPipelines() {
+        return pipelines;
+    }
+
+    public List<Connector> getConnectors() {
+        return connectors;
+    }
+
+    public boolean isEmpty() {
+        return pipelines.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pipelines.size(); i++) {
+            if (i > 0) {
+                sb.append(switch (connectors.get(i - 1)) {
+                    case SEQUENCE -> pipelines.get(i - 1).isBackground() ? " " : "; ";
+                    case AND -> " && ";
+                    case OR -> " || ";
+                });
+            }
+            sb.append(pipelines.get(i));
+            if (pipelines.get(i).isBackground()) {
+                sb.append(" &");
+            }
+        }
+        return sb.toString();
+    }
+}
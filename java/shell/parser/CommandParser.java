@@ -0,0 +1,351 @@
+package shell.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import shell.enums.Connector;
+import shell.enums.RedirectType;
+import shell.jfr.ParseEvent;
+
+// Single pass over the line: quoting, operators and redirections are recognised in the
+// same scan, and words are kept as offsets into the input until their text is needed.
+//
+//   list     := pipeline ((';' | '\n' | '&' | '&&' | '||') pipeline)* [';' | '\n' | '&']
+//   pipeline := ['time' ['-p']] command ('|' command)*
+//   command  := (word | redirect)+
+//   redirect := [digits] ('<' | '>' | '>>' | '>&' | '<&') word
+public final class CommandParser {
+    private final String src;
+    private final int length;
+    private int pos;
+
+    private CommandParser(String src) {
+        this.src = src;
+        this.length = src.length();
+    }
+
+    public static CommandList parse(String input) {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        try {
+            CommandList list = new CommandParser(input).parseList();
+            if (event.shouldCommit()) {
+                event.length = input.length();
+                event.pipelines = list.getPipelines().size();
+                event.commit();
+            }
+            return list;
+        } catch (SyntaxException e) {
+            if (event.shouldCommit()) {
+                event.length = input.length();
+                event.error = e.getMessage();
+                event.commit();
+            }
+            throw e;
+        }
+    }
+
+    private CommandList parseList() {
+        List<Pipeline> pipelines = new ArrayList<>();
+        List<Connector> connectors = new ArrayList<>();
+
+        skipBlankLines();
+        while (pos < length) {
+            Pipeline pipeline = parsePipeline();
+            pipelines.add(pipeline);
+            skipSpaces();
+            if (pos >= length) {
+                break;
+            }
+
+            char c = src.charAt(pos);
+            if (c == ';' || c == '\n') {
+                pos++;
+                skipBlankLines();
+                if (pos < length) {
+                    connectors.add(Connector.SEQUENCE);
+                }
+            } else if (c == '&' && peek(1) == '&') {
+                pos += 2;
+                skipBlankLines();
+                requireMore();
+                connectors.add(Connector.AND);
+            } else if (c == '&') {
+                // Runs in the background; what follows is simply the next command
+                pos++;
+                pipeline.setBackground();
+                skipBlankLines();
+                if (pos < length) {
+                    connectors.add(Connector.SEQUENCE);
+                }
+            } else if (c == '|' && peek(1) == '|') {
+                pos += 2;
+                skipBlankLines();
+                requireMore();
+                connectors.add(Connector.OR);
+            } else {
+                throw unexpected();
+            }
+        }
+        return new CommandList(pipelines, connectors);
+    }
+
+    private Pipeline parsePipeline() {
+        int timed = parseTimePrefix();
+        List<SimpleCommand> commands = new ArrayList<>(2);
+        if (timed > 0 && atCommandEnd()) {
+            // time on its own times an empty command, as in bash
+            if (pos < length && src.charAt(pos) == '#') {
+                skipComment();
+            }
+            commands.add(new SimpleCommand(new ArrayList<>(0), new ArrayList<>(0)));
+            Pipeline pipeline = new Pipeline(commands);
+            pipeline.setTimed(timed == 2);
+            return pipeline;
+        }
+        commands.add(parseCommand());
+        while (true) {
+            skipSpaces();
+            if (pos < length && src.charAt(pos) == '|' && peek(1) != '|') {
+                pos++;
+                skipBlankLines();
+                requireMore();
+                commands.add(parseCommand());
+            } else {
+                Pipeline pipeline = new Pipeline(commands);
+                if (timed > 0) {
+                    pipeline.setTimed(timed == 2);
+                }
+                return pipeline;
+            }
+        }
+    }
+
+    // The reserved word time, and its -p option, ahead of a pipeline: 0 if absent, 1 for time,
+    // 2 for time -p. Before a pipe, time is left to be an ordinary word.
+    private int parseTimePrefix() {
+        skipSpaces();
+        int start = pos;
+        if (!keywordAt("time")) {
+            return 0;
+        }
+        pos += 4;
+        skipSpaces();
+        int timed = 1;
+        if (keywordAt("-p")) {
+            pos += 2;
+            skipSpaces();
+            timed = 2;
+        }
+        if (pos < length && src.charAt(pos) == '|' && peek(1) != '|') {
+            pos = start;
+            return 0;
+        }
+        return timed;
+    }
+
+    private boolean atCommandEnd() {
+        if (pos >= length) {
+            return true;
+        }
+        char c = src.charAt(pos);
+        return c == '#' || c == ';' || c == '\n' || c == '|' || c == '&';
+    }
+
+    private boolean keywordAt(String word) {
+        if (!src.startsWith(word, pos)) {
+            return false;
+        }
+        char next = peek(word.length());
+        return next == '\0' || next == ' ' || next == '\t' || isOperatorStart(next);
+    }
+
+    private SimpleCommand parseCommand() {
+        List<Word> words = new ArrayList<>();
+        List<Redirection> redirections = new ArrayList<>(0);
+
+        while (true) {
+            skipSpaces();
+            if (pos >= length) {
+                break;
+            }
+            char c = src.charAt(pos);
+            if (c == '#') {
+                skipComment();
+                break;
+            }
+            if (c == ';' || c == '\n' || c == '|' || c == '&') {
+                break;
+            }
+            if (c == '<' || c == '>' || (isDigit(c) && redirectAfterDigits())) {
+                redirections.add(parseRedirection());
+            } else {
+                words.add(parseWord());
+            }
+        }
+
+        if (words.isEmpty() && redirections.isEmpty()) {
+            throw unexpected();
+        }
+        return new SimpleCommand(words, redirections);
+    }
+
+    private Redirection parseRedirection() {
+        int fd = -1;
+        if (isDigit(src.charAt(pos))) {
+            fd = 0;
+            while (isDigit(src.charAt(pos))) {
+                // Saturates instead of wrapping; Redirections rejects anything that large
+                fd = fd > (Integer.MAX_VALUE - 9) / 10 ? Integer.MAX_VALUE : fd * 10 + (src.charAt(pos) - '0');
+                pos++;
+            }
+        }
+
+        char op = src.charAt(pos++);
+        RedirectType type;
+        if (op == '<') {
+            type = RedirectType.INPUT;
+            if (fd < 0) {
+                fd = 0;
+            }
+        } else if (peek(0) == '>') {
+            pos++;
+            type = RedirectType.APPEND;
+        } else {
+            type = RedirectType.OUTPUT;
+        }
+        if (fd < 0) {
+            fd = 1;
+        }
+        if (type != RedirectType.APPEND && peek(0) == '&') {
+            pos++;
+            type = RedirectType.DUPLICATE;
+        }
+
+        skipSpaces();
+        if (pos >= length || isOperatorStart(src.charAt(pos))) {
+            throw unexpected();
+        }
+        Word target = parseWord();
+        if (type == RedirectType.DUPLICATE && !isNumber(target)) {
+            throw new SyntaxException(target.raw() + ": ambiguous redirect", target.getStart());
+        }
+        return new Redirection(fd, type, target);
+    }
+
+    private Word parseWord() {
+        int start = pos;
+        boolean quoted = false;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\\') {
+                quoted = true;
+                pos = Math.min(pos + 2, length);
+            } else if (c == '\'') {
+                quoted = true;
+                int close = src.indexOf('\'', pos + 1);
+                if (close < 0) {
+                    throw new SyntaxException("unexpected EOF while looking for matching `''", pos, true);
+                }
+                pos = close + 1;
+            } else if (c == '"') {
+                quoted = true;
+                pos = closingDoubleQuote(pos) + 1;
+            } else if (c == ' ' || c == '\t' || isOperatorStart(c)) {
+                break;
+            } else {
+                pos++;
+            }
+        }
+        return new Word(src, start, pos, quoted);
+    }
+
+    private int closingDoubleQuote(int open) {
+        int i = open + 1;
+        while (i < length) {
+            char c = src.charAt(i);
+            if (c == '"') {
+                return i;
+            }
+            i += (c == '\\' && i + 1 < length) ? 2 : 1;
+        }
+        throw new SyntaxException("unexpected EOF while looking for matching `\"'", open, true);
+    }
+
+    // A run of digits is a file descriptor only when a redirection operator follows it directly
+    private boolean redirectAfterDigits() {
+        int i = pos;
+        while (i < length && isDigit(src.charAt(i))) {
+            i++;
+        }
+        return i < length && (src.charAt(i) == '<' || src.charAt(i) == '>');
+    }
+
+    private static boolean isOperatorStart(char c) {
+        return c == '|' || c == ';' || c == '&' || c == '<' || c == '>' || c == '\n';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNumber(Word word) {
+        if (word.isQuoted() || word.getEnd() == word.getStart()) {
+            return false;
+        }
+        String raw = word.raw();
+        for (int i = 0; i < raw.length(); i++) {
+            if (!isDigit(raw.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char peek(int offset) {
+        int i = pos + offset;
+        return i < length ? src.charAt(i) : '\0';
+    }
+
+    private void skipSpaces() {
+        while (pos < length && (src.charAt(pos) == ' ' || src.charAt(pos) == '\t' || src.charAt(pos) == '\r')) {
+            pos++;
+        }
+    }
+
+    private void skipBlankLines() {
+        while (true) {
+            skipSpaces();
+            if (pos < length && src.charAt(pos) == '\n') {
+                pos++;
+            } else if (pos < length && src.charAt(pos) == '#') {
+                skipComment();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipComment() {
+        while (pos < length && src.charAt(pos) != '\n') {
+            pos++;
+        }
+    }
+
+    private void requireMore() {
+        if (pos >= length) {
+            throw new SyntaxException("syntax error: unexpected end of file", pos, true);
+        }
+    }
+
+    private SyntaxException unexpected() {
+        if (pos >= length || src.charAt(pos) == '\n') {
+            return new SyntaxException("syntax error near unexpected token `newline'", pos);
+        }
+        int end = pos + 1;
+        char c = src.charAt(pos);
+        if ((c == '&' || c == '|' || c == '>' || c == ';') && peek(1) == c) {
+            end++;
+        }
+        return new SyntaxException("syntax error near unexpected token `" + src.substring(pos, end) + "'", pos);
+    }
+}
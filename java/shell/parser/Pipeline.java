@@ -0,0 +1,62 @@
+package shell.parser;
+
+import java.util.List;
+
+public final class Pipeline {
+    private final List<SimpleCommand> commands;
+    private boolean background;
+    private boolean timed;
+    private boolean timePosix;
+
+    Pipeline(List<SimpleCommand> commands) {
+        this.commands = commands;
+    }
+
+    public List<SimpleCommand> getCommands() {
+        return commands;
+    }
+
+    // Ended with '&': the shell starts it and moves on without waiting
+    public boolean isBackground() {
+        return background;
+    }
+
+    void setBackground() {
+        background = true;
+    }
+
+    // Prefixed with time: the shell reports its resource use when it ends
+    public boolean isTimed() {
+        return timed;
+    }
+
+    // time -p: the POSIX report format
+    public boolean isTimePosix() {
+        return timePosix;
+    }
+
+    void setTimed(boolean posix) {
+        timed = true;
+        timePosix = posix;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (timed) {
+            sb.append(timePosix ? "time -p " : "time ");
+        }
+        int prefix = sb.length();
+        for (SimpleCommand command : commands) {
+            if (sb.length() > prefix) {
+                sb.append(" | ");
+            }
+            sb.append(command);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package shell.parser;
+
+import shell.enums.RedirectType;
+
+public final class Redirection {
+    private final int fd;
+    private final RedirectType type;
+    private final Word target;
+
+    Redirection(int fd, RedirectType type, Word target) {
+        this.fd = fd;
+        this.type = type;
+        this.target = target;
+    }
+
+    public int getFd() {
+        return fd;
+    }
+
+    public RedirectType getType() {
+        return type;
+    }
+
+    public Word getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        String op = switch (type) {
+            case INPUT -> "<";
+            case OUTPUT -> ">";
+            case APPEND -> ">>";
+            case DUPLICATE -> ">&";
+        };
+        return fd + op + target;
+    }
+}
@@ -0,0 +1,53 @@
+package shell.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class SimpleCommand {
+    private final List<Word> words;
+    private final List<Redirection> redirections;
+
+    SimpleCommand(List<Word> words, List<Redirection> redirections) {
+        this.words = words;
+        this.redirections = redirections;
+    }
+
+    public List<Word> getWords() {
+        return words;
+    }
+
+    public List<Redirection> getRedirections() {
+        return redirections;
+    }
+
+    public boolean hasWords() {
+        return !words.isEmpty();
+    }
+
+    public String name() {
+        return words.isEmpty() ? "" : words.get(0).text();
+    }
+
+    public List<String> argv() {
+        List<String> argv = new ArrayList<>(words.size());
+        for (Word word : words) {
+            argv.add(word.text());
+        }
+        return argv;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Word word : words) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(word);
+        }
+        for (Redirection redirection : redirections) {
+            sb.append(' ').append(redirection);
+        }
+        return sb.toString();
+    }
+}
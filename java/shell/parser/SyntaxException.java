@@ -0,0 +1,27 @@
+package shell.parser;
+
+public class SyntaxException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+    private final boolean incomplete;
+
+    public SyntaxException(String message, int position) {
+        this(message, position, false);
+    }
+
+    public SyntaxException(String message, int position, boolean incomplete) {
+        super(message);
+        this.position = position;
+        this.incomplete = incomplete;
+    }
+
+    // True when the input simply stopped too early, so more lines could complete it
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,87 @@
+package shell.parser;
+
+// A word is just a span of the input line; the unquoted text is only built when asked for
+public final class Word {
+    private final String source;
+    private final int start;
+    private final int end;
+    private final boolean quoted;
+    private String text;
+
+    Word(String source, int start, int end, boolean quoted) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.quoted = quoted;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    public String raw() {
+        return source.substring(start, end);
+    }
+
+    public String text() {
+        if (text == null) {
+            text = quoted ? unquote() : source.substring(start, end);
+        }
+        return text;
+    }
+
+    private String unquote() {
+        StringBuilder sb = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < end) {
+                    sb.append(source.charAt(i + 1));
+                    i += 2;
+                } else {
+                    sb.append('\\');
+                    i++;
+                }
+            } else if (c == '\'') {
+                int close = source.indexOf('\'', i + 1);
+                sb.append(source, i + 1, close);
+                i = close + 1;
+            } else if (c == '"') {
+                i++;
+                while (source.charAt(i) != '"') {
+                    char d = source.charAt(i);
+                    if (d == '\\' && isDoubleQuoteEscape(source.charAt(i + 1))) {
+                        sb.append(source.charAt(i + 1));
+                        i += 2;
+                    } else {
+                        sb.append(d);
+                        i++;
+                    }
+                }
+                i++;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    static boolean isDoubleQuoteEscape(char c) {
+        return c == '$' || c == '`' || c == '"' || c == '\\' || c == '\n';
+    }
+
+    @Override
+    public String toString() {
+        return raw();
+    }
+}
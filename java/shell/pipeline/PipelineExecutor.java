@@ -1,13 +1,18 @@
 package shell.pipeline;
 
-import shell.core.InputParser;
+import shell.commands.BuiltInCommand;
+import shell.commands.SortCommand;
+import shell.core.Processes;
+import shell.core.Redirections;
+import shell.core.ShellSession;
 import shell.core.ShellState;
-import shell.history.HistoryManager;
+import shell.enums.ShellType;
+import shell.jfr.StageEvent;
+import shell.parser.Pipeline;
+import shell.parser.SimpleCommand;
+import shell.terminal.Terminal;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,198 +20,302 @@ import static shell.pipeline.StreamUtils.*;
 
 public class PipelineExecutor {
     
-    public static void execute(String input, HistoryManager historyManager) throws IOException, InterruptedException {
-        String[] commands = input.split("\\s*\\|\\s*");
-        
+    public static int execute(Pipeline pipeline, ShellSession session) throws IOException, InterruptedException {
+        return execute(pipeline, session, null);
+    }
+    
+    // With a profile, every stage is timed into it as it runs
+    public static int execute(Pipeline pipeline, ShellSession session, PipelineProfile profile)
+            throws IOException, InterruptedException {
         List<List<String>> parsedCommands = new ArrayList<>();
-        for (String cmd : commands) {
-            List<String> parsed = InputParser.parse(cmd.trim());
-            if (!parsed.isEmpty()) {
-                parsedCommands.add(parsed);
-            }
+        List<Redirections> redirections = new ArrayList<>();
+        if (!open(pipeline, parsedCommands, redirections, session)) {
+            return 1;
         }
         
         if (parsedCommands.size() < 2) {
-            System.out.println("Pipeline requires at least 2 commands");
-            return;
+            session.getOut().println("Pipeline requires at least 2 commands");
+            return 2;
         }
         
-        executeMixedPipeline(parsedCommands);
+        PipelineScheduler.Run run = startMixedPipeline(parsedCommands, redirections, session, false, profile);
+        return run == null ? 127 : run.await();
     }
     
-    private static void executeMixedPipeline(List<List<String>> commands) throws IOException, InterruptedException {
-        PipedOutputStream[] pipeOuts = new PipedOutputStream[commands.size() - 1];
-        PipedInputStream[] pipeIns = new PipedInputStream[commands.size() - 1];
+    // Starts a pipeline (or a single command) without waiting for it. Stdin is empty, and the
+    // terminal stays with the line editor. Returns null if the pipeline could not be started.
+    public static PipelineScheduler.Run start(Pipeline pipeline, ShellSession session) throws IOException {
+        List<List<String>> parsedCommands = new ArrayList<>();
+        List<Redirections> redirections = new ArrayList<>();
+        if (!open(pipeline, parsedCommands, redirections, session) || parsedCommands.isEmpty()) {
+            return null;
+        }
+        return startMixedPipeline(parsedCommands, redirections, session, true, null);
+    }
+    
+    private static boolean open(Pipeline pipeline, List<List<String>> parsedCommands, List<Redirections> redirections,
+                                ShellSession session) {
+        try {
+            for (SimpleCommand cmd : pipeline.getCommands()) {
+                List<String> parsed = cmd.argv();
+                if (!parsed.isEmpty()) {
+                    parsedCommands.add(parsed);
+                    redirections.add(Redirections.open(cmd.getRedirections(), session));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            redirections.forEach(StreamUtils::closeQuietly);
+            session.getErr().println("shell: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static PipelineScheduler.Run startMixedPipeline(List<List<String>> commands, List<Redirections> redirections,
+                                                            ShellSession session, boolean background,
+                                                            PipelineProfile profile) throws IOException {
+        fuse(commands, redirections);
+        int last = commands.size() - 1;
+        PipelineScheduler.Run run = PipelineScheduler.begin(commands.size(), session.getErr());
+        Process[] stageProcesses = new Process[commands.size()];
         
-        for (int i = 0; i < commands.size() - 1; i++) {
-            pipeOuts[i] = new PipedOutputStream();
-            pipeIns[i] = new PipedInputStream(pipeOuts[i], 65536);
+        // A stage whose stdout goes to a file leaves the next stage reading an empty pipe, and
+        // one whose stdin comes from a file leaves the previous stage writing to nobody
+        boolean[] cut = new boolean[last];
+        for (int i = 0; i < last; i++) {
+            cut[i] = redirections.get(i).redirectsOutput() || redirections.get(i + 1).redirectsInput();
+        }
+        if (profile != null) {
+            boolean[] piped = new boolean[last];
+            for (int i = 0; i < last; i++) {
+                piped[i] = !cut[i];
+            }
+            profile.piped(piped);
         }
         
-        List<Thread> threads = new ArrayList<>();
-        List<Process> processes = new ArrayList<>();
+        // Stages may run processes or read stdin, so hand the terminal back in its normal mode first
+        if (!background && session.isConsole()) {
+            Terminal.suspend();
+        }
         
-        for (int i = 0; i < commands.size(); i++) {
-            List<String> cmd = commands.get(i);
-            String cmdName = cmd.get(0);
-            String[] args = cmd.subList(1, cmd.size()).toArray(new String[0]);
-            
-            InputStream cmdInput;
-            OutputStream cmdOutput;
-            
-            if (i == 0) {
-                cmdInput = System.in;
-            } else {
-                cmdInput = pipeIns[i - 1];
-            }
-            
-            if (i == commands.size() - 1) {
-                cmdOutput = System.out;
-            } else {
-                cmdOutput = pipeOuts[i];
-            }
-            
-            if (ShellState.BUILTINS.containsKey(cmdName)) {
-                final InputStream finalInput = cmdInput;
-                final OutputStream finalOutput = cmdOutput;
-                final int index = i;
+        // Start every run of adjacent external stages first, joined by kernel pipes,
+        // so builtin stages next to them can read and write the process streams directly
+        try {
+            int i = 0;
+            while (i <= last) {
+                if (isBuiltin(commands.get(i))) {
+                    i++;
+                    continue;
+                }
                 
-                Thread builtinThread = new Thread(() -> {
-                    try {
-                        executeBuiltinInPipeline(cmdName, args, finalInput, finalOutput);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } finally {
-                        if (index < commands.size() - 1) {
-                            closeQuietly(finalOutput);
-                        }
-                    }
-                });
-                builtinThread.start();
-                threads.add(builtinThread);
-            } else {
-                ProcessBuilder pb = new ProcessBuilder(cmd);
-                pb.directory(ShellState.getCurrentDir());
+                int runEnd = i;
+                while (runEnd < last && !cut[runEnd] && !isBuiltin(commands.get(runEnd + 1))) {
+                    runEnd++;
+                }
                 
-                Process process = pb.start();
-                processes.add(process);
+                List<ProcessBuilder> builders = new ArrayList<>();
+                for (int j = i; j <= runEnd; j++) {
+                    List<String> argv = resolve(commands.get(j), session);
+                    if (argv == null) {
+                        session.getErr().println(commands.get(j).get(0) + ": command not found");
+                        run.cancel();
+                        redirections.forEach(StreamUtils::closeQuietly);
+                        return null;
+                    }
+                    ProcessBuilder pb = new ProcessBuilder(argv);
+                    pb.directory(session.getCurrentDir());
+                    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+                    if (j == last) {
+                        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+                    }
+                    redirections.get(j).apply(pb);
+                    builders.add(pb);
+                }
                 
-                if (i > 0) {
-                    final InputStream in = cmdInput;
-                    final OutputStream out = process.getOutputStream();
-                    Thread inputThread = new Thread(() -> {
-                        pipeData(in, out, true);
-                    });
-                    inputThread.start();
-                    threads.add(inputThread);
-                } else {
-                    closeQuietly(process.getOutputStream());
+                List<Process> started = Processes.startPipeline(builders, session);
+                for (int k = 0; k < started.size(); k++) {
+                    stageProcesses[i + k] = started.get(k);
+                    run.addProcess(i + k, started.get(k));
+                    trace(i + k, commands.get(i + k), started.get(k));
+                    if (profile != null) {
+                        profile.process(profile.stage(i + k, String.join(" ", commands.get(i + k))), started.get(k));
+                    }
                 }
                 
-                if (i < commands.size() - 1) {
-                    final InputStream in = process.getInputStream();
-                    final OutputStream out = cmdOutput;
-                    Thread outputThread = new Thread(() -> {
-                        pipeData(in, out, true);
-                    });
-                    outputThread.start();
-                    threads.add(outputThread);
-                } else {
-                    Thread outputThread = new Thread(() -> {
-                        pipeData(process.getInputStream(), System.out, false);
-                    });
-                    outputThread.start();
-                    threads.add(outputThread);
+                if (i == 0 || cut[i - 1]) {
+                    closeQuietly(started.get(0).getOutputStream());
+                }
+                if (runEnd < last && cut[runEnd]) {
+                    closeQuietly(started.get(started.size() - 1).getInputStream());
                 }
                 
-                Thread errorThread = new Thread(() -> {
-                    pipeData(process.getErrorStream(), System.err, false);
-                });
-                errorThread.start();
-                threads.add(errorThread);
+                i = runEnd + 1;
             }
+        } catch (IOException e) {
+            run.cancel();
+            redirections.forEach(StreamUtils::closeQuietly);
+            throw e;
         }
         
-        for (Thread t : threads) {
-            t.join();
-        }
-        
-        for (Process p : processes) {
-            p.waitFor();
+        // Only two adjacent builtins need a JVM pipe between them
+        RingPipe[] pipes = new RingPipe[last];
+        for (int i = 0; i < last; i++) {
+            if (stageProcesses[i] == null && stageProcesses[i + 1] == null && !cut[i]) {
+                pipes[i] = new RingPipe();
+            }
         }
-    }
-    
-    private static void executeBuiltinInPipeline(String cmdName, String[] args, 
-                                                  InputStream input, OutputStream output) throws IOException {
-        PrintStream out = new PrintStream(output, true);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
         
-        switch (ShellState.BUILTINS.get(cmdName)) {
-            case ECHO -> {
-                if (args.length > 0) {
-                    out.println(String.join(" ", args));
-                } else {
-                    out.println();
-                }
+        for (int i = 0; i <= last; i++) {
+            if (stageProcesses[i] != null) {
+                continue;
             }
-            case TYPE -> {
-                while (reader.ready() && reader.readLine() != null) {
-                    // Consume input
-                }
-                
-                if (args.length >= 1) {
-                    String cmdToCheck = args[0];
-                    if (ShellState.BUILTINS.containsKey(cmdToCheck)) {
-                        out.println(cmdToCheck + " is a shell builtin");
-                    } else {
-                        boolean found = false;
-                        for (String dir : ShellState.DIRECTORIES) {
-                            File file = new File(dir, cmdToCheck);
-                            if (file.exists() && file.canExecute()) {
-                                out.println(cmdToCheck + " is " + file.getAbsolutePath());
-                                found = true;
-                                break;
-                            }
-                        }
-                        if (!found) {
-                            out.println(cmdToCheck + ": not found");
-                        }
-                    }
-                }
+            
+            List<String> cmd = commands.get(i);
+            String cmdName = cmd.get(0);
+            String[] args = cmd.subList(1, cmd.size()).toArray(new String[0]);
+            
+            InputStream input;
+            if (i == 0) {
+                input = background ? InputStream.nullInputStream() : session.getIn();
+            } else if (cut[i - 1]) {
+                input = InputStream.nullInputStream();
+            } else if (stageProcesses[i - 1] != null) {
+                input = stageProcesses[i - 1].getInputStream();
+            } else {
+                input = pipes[i - 1].source();
             }
-            case PWD -> {
-                out.println(ShellState.getCurrentDir().getAbsolutePath());
+            
+            OutputStream output;
+            if (i == last) {
+                output = session.getOut();
+            } else if (cut[i]) {
+                output = OutputStream.nullOutputStream();
+            } else if (stageProcesses[i + 1] != null) {
+                output = stageProcesses[i + 1].getOutputStream();
+            } else {
+                output = pipes[i].sink();
             }
-            case HISTORY -> {
-                if (args.length >= 2 && (args[0].equals("-a") || args[0].equals("-w") || args[0].equals("-r"))) {
-                    return;
-                }
-                
-                // History display not implemented in pipeline for simplicity
+            
+            final boolean closeInput = i > 0;
+            final boolean closeOutput = i < last;
+            if (closeInput) {
+                run.closeOnCancel(input);
+            }
+            if (closeOutput) {
+                // A ring pipe's sink belongs to the writing thread; others stop it from the read end
+                run.output(i, pipes[i] != null ? pipes[i].source() : output);
             }
-            case CAT -> {
-                if (args.length == 0) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        out.println(line);
+            
+            Redirections redirect = redirections.get(i);
+            PrintStream err = session.getErr();
+            PipelineProfile.Stage stage = profile != null ? profile.stage(i, String.join(" ", cmd)) : null;
+            int index = i;
+            run.submit(i, cmdName, () -> {
+                StageEvent event = new StageEvent();
+                event.begin();
+                try (redirect) {
+                    if (stage == null) {
+                        return event.status = BuiltInCommand.run(cmdName, args, redirect.input(input),
+                                redirect.output(output, err), redirect.error(output, err), session);
+                    }
+                    return event.status = runProfiled(cmdName, args, redirect.input(input),
+                            redirect.output(output, err), redirect.error(output, err), session, profile, stage);
+                } finally {
+                    if (event.shouldCommit()) {
+                        event.stage = index;
+                        event.command = String.join(" ", cmd);
+                        event.builtin = true;
+                        event.commit();
                     }
-                } else {
-                    for (String file : args) {
-                        try {
-                            Path filePath = Paths.get(file);
-                            String content = Files.readString(filePath);
-                            out.print(content);
-                        } catch (IOException e) {
-                            System.err.println("cat: " + file + ": No such file or directory");
-                        }
+                    // Closing our read end tells the upstream writer the pipe is broken
+                    if (closeInput) {
+                        closeQuietly(input);
+                    }
+                    if (closeOutput) {
+                        closeQuietly(output);
                     }
                 }
+            });
+        }
+        
+        // startPipeline keeps its own copy of each inter-process read end open, so an upstream
+        // process would never get SIGPIPE, and a builtin only notices at its next write: stop
+        // every stage feeding one that has ended, so `huge | head` ends with head
+        boolean[] feeds = new boolean[last];
+        for (int i = 0; i < last; i++) {
+            feeds[i] = !cut[i];
+        }
+        run.stopUpstreamOnExit(feeds);
+        
+        run.started();
+        return run;
+    }
+    
+    // `sort ... | uniq -c` becomes one stage, `sort --count ...`, that counts as it merges
+    // instead of pushing every line through a pipe to be counted again. Not when the sort's
+    // options leave it to the sort on PATH, which has no --count.
+    private static void fuse(List<List<String>> commands, List<Redirections> redirections) {
+        for (int i = commands.size() - 2; i >= 0; i--) {
+            List<String> uniq = commands.get(i + 1);
+            List<String> sort = commands.get(i);
+            if (sort.get(0).equals("sort") && redirections.get(i).isEmpty()
+                    && uniq.equals(List.of("uniq", "-c")) && !redirections.get(i + 1).redirectsInput()
+                    && SortCommand.accepts(sort.subList(1, sort.size()))) {
+                List<String> fused = new ArrayList<>(sort);
+                fused.add(1, "--count");
+                commands.set(i, fused);
+                commands.remove(i + 1);
+                // The sort's redirections are empty, so the fused stage takes uniq's
+                redirections.set(i, redirections.remove(i + 1));
             }
-            default -> {
-                // Other built-ins
+        }
+    }
+    
+    // A process stage's event spans from its start to its exit
+    private static void trace(int index, List<String> cmd, Process process) {
+        StageEvent event = new StageEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        process.onExit().thenRun(() -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = index;
+                event.command = String.join(" ", cmd);
+                event.pid = process.pid();
+                event.status = process.exitValue();
+                event.commit();
             }
+        });
+    }
+    
+    private static int runProfiled(String cmdName, String[] args, InputStream input, OutputStream output,
+                                   PrintStream error, ShellSession session, PipelineProfile profile,
+                                   PipelineProfile.Stage stage) throws IOException, InterruptedException {
+        if (profile.isDetailed()) {
+            input = profile.meter(stage, input);
+            output = profile.meter(stage, output);
         }
-        
-        out.flush();
+        stage.begin();
+        try {
+            return BuiltInCommand.run(cmdName, args, input, output, error, session);
+        } finally {
+            stage.end();
+        }
+    }
+    
+    private static boolean isBuiltin(List<String> cmd) {
+        return ShellState.builtinType(cmd.get(0)) != ShellType.NONE;
+    }
+    
+    private static List<String> resolve(List<String> cmd, ShellSession session) {
+        List<String> argv = new ArrayList<>(cmd);
+        String path = session.getCommandHash().command(cmd.get(0));
+        if (path == null) {
+            return null;
+        }
+        argv.set(0, path);
+        return argv;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,352 @@
+package shell.pipeline;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Resource use of one foreground pipeline, for `time` and `set -o profile`.
+//
+// The totals are what bash's time prints: wall time, and user and system CPU of the shell
+// thread, the builtin stages' threads and every child reaped meanwhile (the children's
+// share comes from /proc/self/stat, the equivalent of getrusage(RUSAGE_CHILDREN)).
+//
+// A detailed profile adds one row per stage. Builtin stages report their thread's CPU time,
+// and their streams are metered: bytes read and written, and the time spent blocked inside
+// those reads and writes, which includes the copying itself. The metering wraps the streams
+// rather than counting in StreamUtils.pipeData, as most builtins read and write their streams
+// directly and never go through it. On a virtual thread (Java 21 and later) the JVM does not
+// give a thread's CPU time, so those stages show - for it and are left out of the totals.
+// Process stages are sampled from /proc every few milliseconds while they run: CPU from
+// stat, and whether they are asleep in a pipe read or write from wchan. A process stage's
+// bytes on a pipe shared with a builtin are the builtin's metered count; otherwise they are
+// the last sample of io (rchar/wchar), which counts all of its reads and writes, not just the
+// pipe's, and misses whatever came after that sample, so those are shown with a ~. Metering
+// replaces the stream types cat looks for, so profiled builtins take the plain copy path.
+public class PipelineProfile {
+    private static final long SAMPLE_MILLIS = Long.getLong("shell.profile.sampleMillis", 5);
+    private static final long NANOS_PER_TICK = 1_000_000_000L / Long.getLong("shell.clockTicks", 100);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static final class Stage {
+        final String command;
+        volatile boolean process;
+        volatile long startNanos;
+        volatile long endNanos;
+        volatile long userNanos;
+        volatile long systemNanos;
+        volatile long bytesIn;
+        volatile long bytesOut;
+        volatile long blockedInNanos;
+        volatile long blockedOutNanos;
+        volatile boolean cpuUnknown;
+        private long threadUser;
+        private long threadCpu;
+
+        Stage(String command) {
+            this.command = command;
+        }
+
+        // Called on the builtin's own thread around its run
+        public void begin() {
+            startNanos = System.nanoTime();
+            threadUser = threadTime(false);
+            threadCpu = threadTime(true);
+            cpuUnknown = threadUser < 0 || threadCpu < 0;
+        }
+
+        public void end() {
+            if (!cpuUnknown) {
+                long user = threadTime(false) - threadUser;
+                long cpu = threadTime(true) - threadCpu;
+                userNanos = Math.max(0, user);
+                systemNanos = Math.max(0, cpu - user);
+            }
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private final boolean detailed;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Stage> processStages = new ArrayList<>();
+    // piped[i]: stage i's stdout is stage i + 1's stdin
+    private boolean[] piped = new boolean[0];
+    private final long startNanos = System.nanoTime();
+    private final long[] children = childTimes();
+    private final long threadUser = threadUserTime();
+    private final long threadCpu = threadCpuTime();
+    private Thread sampler;
+    private long realNanos;
+    private long userNanos;
+    private long systemNanos;
+
+    public PipelineProfile(boolean detailed) {
+        this.detailed = detailed;
+    }
+
+    public boolean isDetailed() {
+        return detailed;
+    }
+
+    public synchronized Stage stage(int index, String command) {
+        while (stages.size() <= index) {
+            stages.add(null);
+        }
+        Stage stage = new Stage(command);
+        stages.set(index, stage);
+        return stage;
+    }
+
+    public synchronized void piped(boolean[] piped) {
+        this.piped = piped.clone();
+    }
+
+    // A process stage: sampled from /proc until it exits
+    public synchronized void process(Stage stage, Process process) {
+        stage.process = true;
+        stage.startNanos = System.nanoTime();
+        process.onExit().thenRun(() -> stage.endNanos = System.nanoTime());
+        if (!detailed) {
+            return;
+        }
+        processes.add(process);
+        processStages.add(stage);
+        sample(stage, process.pid());
+        if (sampler == null) {
+            sampler = new Thread(this::sampleLoop, "profile-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    public InputStream meter(Stage stage, InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = super.read();
+                stage.blockedInNanos += System.nanoTime() - start;
+                if (b >= 0) {
+                    stage.bytesIn++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = in.read(b, off, len);
+                stage.blockedInNanos += System.nanoTime() - start;
+                if (n > 0) {
+                    stage.bytesIn += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    public OutputStream meter(Stage stage, OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = System.nanoTime();
+                out.write(b);
+                stage.blockedOutNanos += System.nanoTime() - start;
+                stage.bytesOut++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                out.write(b, off, len);
+                stage.blockedOutNanos += System.nanoTime() - start;
+                stage.bytesOut += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = System.nanoTime();
+                out.flush();
+                stage.blockedOutNanos += System.nanoTime() - start;
+            }
+        };
+    }
+
+    // Stops the clock: the shell thread's CPU, every builtin stage's and the reaped children's
+    public synchronized void finish() {
+        realNanos = System.nanoTime() - startNanos;
+        if (sampler != null) {
+            sampler.interrupt();
+        }
+        long[] reaped = childTimes();
+        long user = Math.max(0, threadUserTime() - threadUser);
+        long cpu = Math.max(0, threadCpuTime() - threadCpu);
+        userNanos = user + reaped[0] - children[0];
+        systemNanos = Math.max(0, cpu - user + reaped[1] - children[1]);
+        for (Stage stage : stages) {
+            if (stage != null && !stage.process) {
+                userNanos += stage.userNanos;
+                systemNanos += stage.systemNanos;
+            }
+        }
+    }
+
+    // bash's time output; posix is time -p
+    public void printTimes(PrintStream err, boolean posix) {
+        if (posix) {
+            err.printf(Locale.ROOT, "real %.2f%nuser %.2f%nsys %.2f%n",
+                    realNanos / 1e9, userNanos / 1e9, systemNanos / 1e9);
+        } else {
+            err.printf("%nreal\t%s%nuser\t%s%nsys\t%s%n", minutes(realNanos), minutes(userNanos), minutes(systemNanos));
+        }
+    }
+
+    public synchronized void printStages(PrintStream err) {
+        // blocked-in and blocked-out: time spent inside reads of stdin and writes of stdout
+        err.printf("%-5s %-24s %8s %8s %8s %9s %9s %10s %11s%n",
+                "stage", "command", "real", "user", "sys", "in", "out", "blocked-in", "blocked-out");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (stage == null) {
+                continue;
+            }
+            long end = stage.endNanos != 0 ? stage.endNanos : System.nanoTime();
+            String command = stage.command.length() > 24 ? stage.command.substring(0, 23) + "~" : stage.command;
+            String in = bytes(stage.bytesIn);
+            String out = bytes(stage.bytesOut);
+            if (stage.process) {
+                Stage previous = builtinNeighbour(i - 1, i - 1);
+                Stage next = builtinNeighbour(i + 1, i);
+                in = previous != null ? bytes(previous.bytesOut) : "~" + in;
+                out = next != null ? bytes(next.bytesIn) : "~" + out;
+            }
+            String user = stage.cpuUnknown ? "-" : String.format(Locale.ROOT, "%.3f", stage.userNanos / 1e9);
+            String sys = stage.cpuUnknown ? "-" : String.format(Locale.ROOT, "%.3f", stage.systemNanos / 1e9);
+            err.printf(Locale.ROOT, "%-5d %-24s %8.3f %8s %8s %9s %9s %10.3f %11.3f%n", i + 1, command,
+                    (end - stage.startNanos) / 1e9, user, sys,
+                    in, out, stage.blockedInNanos / 1e9, stage.blockedOutNanos / 1e9);
+        }
+    }
+
+    // The stage at index if it is a builtin on the other end of pipe link, whose metered count is exact
+    private Stage builtinNeighbour(int index, int link) {
+        if (index < 0 || index >= stages.size() || link >= piped.length || !piped[link]) {
+            return null;
+        }
+        Stage stage = stages.get(index);
+        return stage != null && !stage.process ? stage : null;
+    }
+
+    private void sampleLoop() {
+        long last = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            long elapsed = now - last;
+            last = now;
+            List<Process> running;
+            List<Stage> sampled;
+            synchronized (this) {
+                running = new ArrayList<>(processes);
+                sampled = new ArrayList<>(processStages);
+            }
+            for (int i = 0; i < running.size(); i++) {
+                Process process = running.get(i);
+                if (process.isAlive()) {
+                    String wchan = sample(sampled.get(i), process.pid());
+                    // A sleeping process accounts for the time since the last sample in the pipe it
+                    // sleeps in; the sleep overshoots SAMPLE_MILLIS under load
+                    if (wchan.contains("pipe_read")) {
+                        sampled.get(i).blockedInNanos += elapsed;
+                    } else if (wchan.contains("pipe_write")) {
+                        sampled.get(i).blockedOutNanos += elapsed;
+                    }
+                }
+            }
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Latest CPU and byte counts of a live process; returns its wchan, or "" if unknown
+    private static String sample(Stage stage, long pid) {
+        Path proc = Path.of("/proc", Long.toString(pid));
+        try {
+            String stat = Files.readString(proc.resolve("stat"));
+            // Fields after the parenthesised command name; utime and stime are the 12th and 13th
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            stage.userNanos = Math.max(stage.userNanos, Long.parseLong(fields[11]) * NANOS_PER_TICK);
+            stage.systemNanos = Math.max(stage.systemNanos, Long.parseLong(fields[12]) * NANOS_PER_TICK);
+            for (String line : Files.readAllLines(proc.resolve("io"))) {
+                if (line.startsWith("rchar:")) {
+                    stage.bytesIn = Math.max(stage.bytesIn, Long.parseLong(line.substring(6).trim()));
+                } else if (line.startsWith("wchar:")) {
+                    stage.bytesOut = Math.max(stage.bytesOut, Long.parseLong(line.substring(6).trim()));
+                }
+            }
+            return Files.readString(proc.resolve("wchan"));
+        } catch (IOException | RuntimeException e) {
+            // Exited between samples, or no /proc
+            return "";
+        }
+    }
+
+    // User and system time of every child the JVM has reaped, in nanoseconds
+    private static long[] childTimes() {
+        try {
+            String stat = Files.readString(Path.of("/proc/self/stat"));
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            // cutime and cstime are the 14th and 15th fields after the name
+            return new long[] {Long.parseLong(fields[13]) * NANOS_PER_TICK, Long.parseLong(fields[14]) * NANOS_PER_TICK};
+        } catch (IOException | RuntimeException e) {
+            return new long[2];
+        }
+    }
+
+    private static long threadUserTime() {
+        return Math.max(0, threadTime(false));
+    }
+
+    private static long threadCpuTime() {
+        return Math.max(0, threadTime(true));
+    }
+
+    // The current thread's user or total CPU time, or -1 where the JVM cannot measure it
+    private static long threadTime(boolean cpu) {
+        try {
+            return cpu ? THREADS.getCurrentThreadCpuTime() : THREADS.getCurrentThreadUserTime();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static String minutes(long nanos) {
+        long millis = nanos / 1_000_000;
+        return String.format(Locale.ROOT, "%dm%d.%03ds", millis / 60_000, millis / 1000 % 60, millis % 1000);
+    }
+
+    private static String bytes(long n) {
+        if (n < 1024) {
+            return n + "B";
+        }
+        if (n < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1fK", n / 1024.0);
+        }
+        if (n < 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1fM", n / (1024.0 * 1024));
+        }
+        return String.format(Locale.ROOT, "%.1fG", n / (1024.0 * 1024 * 1024));
+    }
+}
@@ -0,0 +1,298 @@
+package shell.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the builtin stages of pipelines and tracks every stage until the pipeline ends.
+// Stages run on virtual threads when the runtime has them, otherwise on one shared pool
+// of daemon threads that is reused across pipelines instead of new threads per stage.
+public class PipelineScheduler {
+    private static final int MAX_POOL_THREADS = Integer.getInteger("shell.pipeline.threads", 256);
+    private static final boolean PRINT_STATS = Boolean.getBoolean("shell.pipeline.stats");
+
+    // What bash reports for a stage killed by SIGPIPE
+    public static final int BROKEN_PIPE_STATUS = 128 + 13;
+
+    private static final AtomicInteger THREADS_CREATED = new AtomicInteger();
+    private static final boolean VIRTUAL;
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        ExecutorService virtual = null;
+        try {
+            virtual = (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Pre-21 runtime
+        }
+        VIRTUAL = virtual != null;
+        EXECUTOR = VIRTUAL ? virtual : new ThreadPoolExecutor(0, MAX_POOL_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), task -> {
+                    Thread thread = new Thread(task, "pipeline-" + THREADS_CREATED.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // Stage failures are reported on err, the stderr of the session running the pipeline
+    public static Run begin(int stages, PrintStream err) {
+        return new Run(stages, err);
+    }
+
+    public static class Run {
+        private final int stages;
+        private final PrintStream err;
+        private final long startNanos = System.nanoTime();
+        private final int threadsBefore = THREADS_CREATED.get();
+        private final List<CompletableFuture<Integer>> results;
+        private final List<Future<?>> tasks = new ArrayList<>();
+        private final List<Process> processes = new ArrayList<>();
+        private final List<Closeable> closeOnCancel = new ArrayList<>();
+        private final Process[] stageProcesses;
+        private final Future<?>[] stageTasks;
+        private final List<CompletableFuture<Integer>> bodies = new ArrayList<>();
+        private final Closeable[] stageOutputs;
+        private final boolean[] stopped;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private long setupNanos;
+
+        Run(int stages, PrintStream err) {
+            this.stages = stages;
+            this.err = err;
+            this.results = new ArrayList<>(Collections.nCopies(stages, null));
+            this.stageProcesses = new Process[stages];
+            this.stageTasks = new Future<?>[stages];
+            this.stageOutputs = new Closeable[stages];
+            this.stopped = new boolean[stages];
+        }
+
+        public synchronized void addProcess(int stage, Process process) {
+            processes.add(process);
+            stageProcesses[stage] = process;
+            results.set(stage, process.onExit().thenApply(Process::exitValue));
+            closeOnCancel.add(process.getInputStream());
+            closeOnCancel.add(process.getOutputStream());
+        }
+
+        public synchronized void closeOnCancel(Closeable closeable) {
+            closeOnCancel.add(closeable);
+        }
+
+        // What stops a builtin stage's output: the output itself, or the read end of a ring pipe,
+        // whose sink only its writer may touch. Closed on cancel, and when the stage it feeds
+        // has ended.
+        public synchronized void output(int stage, Closeable output) {
+            closeOnCancel.add(output);
+            stageOutputs[stage] = output;
+        }
+
+        // SIGPIPE without waiting for the next write: once a stage ends, every stage feeding
+        // it, directly or through the stages in between, is stopped. feeds[i] is true when
+        // stage i's output is stage i + 1's input, rather than a file or nothing.
+        public void stopUpstreamOnExit(boolean[] feeds) {
+            for (int i = 1; i < stages; i++) {
+                if (!feeds[i - 1]) {
+                    continue;
+                }
+                int stage = i;
+                CompletableFuture<Integer> result;
+                synchronized (this) {
+                    result = results.get(stage);
+                }
+                if (result != null) {
+                    result.whenComplete((status, t) -> {
+                        for (int j = stage - 1; j >= 0; j--) {
+                            stop(j);
+                            if (j == 0 || !feeds[j - 1]) {
+                                break;
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        // A process is terminated with its descendants; a builtin's output is closed, which
+        // fails its next write, and it is interrupted in case it is parked on a pipe meanwhile
+        private void stop(int stage) {
+            Process process;
+            Future<?> task;
+            int index;
+            Closeable output;
+            synchronized (this) {
+                process = stageProcesses[stage];
+                task = stageTasks[stage];
+                index = tasks.indexOf(task);
+                output = stageOutputs[stage];
+                stopped[stage] = true;
+            }
+            if (process != null) {
+                if (process.isAlive()) {
+                    process.toHandle().descendants().forEach(ProcessHandle::destroy);
+                    process.destroy();
+                }
+            } else if (task != null && !task.isDone()) {
+                StreamUtils.closeQuietly(output);
+                interrupt(index);
+            }
+        }
+
+        // A task cancelled before it started never runs its body, so its result is completed here
+        private void interrupt(int task) {
+            Future<?> future;
+            CompletableFuture<Integer> body;
+            synchronized (this) {
+                future = tasks.get(task);
+                body = bodies.get(task);
+            }
+            future.cancel(true);
+            body.completeExceptionally(new java.util.concurrent.CancellationException("stage stopped"));
+        }
+
+        public synchronized void submit(int stage, String name, Callable<Integer> body) {
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            Runnable task = () -> {
+                try {
+                    result.complete(body.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            };
+            Future<?> future = execute(task);
+            tasks.add(future);
+            bodies.add(result);
+            stageTasks[stage] = future;
+            results.set(stage, result.exceptionally(t -> fail(stage, name, t)));
+        }
+
+        private Future<?> execute(Runnable task) {
+            try {
+                return EXECUTOR.submit(task);
+            } catch (RejectedExecutionException e) {
+                // Pool is at its cap; stages must run concurrently, so overflow onto a fresh thread
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                Thread thread = new Thread(() -> {
+                    task.run();
+                    future.complete(null);
+                }, "pipeline-overflow");
+                thread.setDaemon(true);
+                THREADS_CREATED.incrementAndGet();
+                thread.start();
+                return future;
+            }
+        }
+
+        // Marks the end of pipeline setup; everything after this is stage run time
+        public void started() {
+            setupNanos = System.nanoTime() - startNanos;
+        }
+
+        // Waits for every stage and returns the exit status of the last one
+        public int await() throws InterruptedException {
+            List<CompletableFuture<?>> all = new ArrayList<>();
+            synchronized (this) {
+                for (CompletableFuture<?> result : results) {
+                    if (result != null) {
+                        all.add(result);
+                    }
+                }
+            }
+            try {
+                CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).get();
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            } catch (ExecutionException e) {
+                // Reported by the stage's own handler
+            }
+            if (PRINT_STATS) {
+                err.printf("pipeline: %d stages, %d threads (%s, %d new), setup %.3f ms%n",
+                        stages, tasks.size(), VIRTUAL ? "virtual" : "pooled",
+                        THREADS_CREATED.get() - threadsBefore, setupNanos / 1e6);
+            }
+            CompletableFuture<Integer> last = results.get(stages - 1);
+            return last == null ? 1 : last.getNow(1);
+        }
+
+        // Completes with the last stage's status once every stage is done, without a thread
+        // waiting on it; for pipelines that run in the background
+        public CompletableFuture<Integer> completion() {
+            List<CompletableFuture<?>> all = new ArrayList<>();
+            CompletableFuture<Integer> last;
+            synchronized (this) {
+                for (CompletableFuture<?> result : results) {
+                    if (result != null) {
+                        all.add(result);
+                    }
+                }
+                last = results.get(stages - 1);
+            }
+            return CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, t) -> last == null ? 1 : last.getNow(1));
+        }
+
+        public synchronized List<Process> processes() {
+            return new ArrayList<>(processes);
+        }
+
+        // Stops every stage: kills processes, closes their pipes and interrupts builtins
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            List<Closeable> toClose;
+            int running;
+            synchronized (this) {
+                processes.forEach(Process::destroy);
+                toClose = new ArrayList<>(closeOnCancel);
+                running = tasks.size();
+            }
+            toClose.forEach(StreamUtils::closeQuietly);
+            for (int i = 0; i < running; i++) {
+                interrupt(i);
+            }
+        }
+
+        // The stage's exit status
+        private int fail(int stage, String name, Throwable t) {
+            Throwable cause = t instanceof java.util.concurrent.CompletionException && t.getCause() != null
+                    ? t.getCause() : t;
+            // A closed downstream is the normal way for a producer to stop, not an error
+            synchronized (this) {
+                if (isBrokenPipe(cause) || stopped[stage]) {
+                    return BROKEN_PIPE_STATUS;
+                }
+            }
+            if (!cancelled.get()) {
+                // Runtime exceptions often have no message; their class says what went wrong
+                err.println(name + ": " + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+                cancel();
+            }
+            return 1;
+        }
+    }
+
+    static boolean isBrokenPipe(Throwable t) {
+        if (!(t instanceof IOException)) {
+            return false;
+        }
+        String message = t.getMessage();
+        return message != null && (message.contains("Broken pipe") || message.contains("Pipe closed")
+                || message.contains("Stream closed"));
+    }
+}
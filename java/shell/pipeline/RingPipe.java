@@ -0,0 +1,306 @@
+package shell.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import shell.jfr.PipeStallEvent;
+
+// Single-producer/single-consumer byte pipe between two pipeline stages.
+// head and tail only ever grow; their difference is the number of readable bytes.
+// The writer publishes a batch with one volatile store of tail, the reader frees
+// space with one store of head, and either side parks instead of polling.
+public class RingPipe {
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("shell.pipe.size", 64 * 1024);
+
+    private final byte[] buffer;
+    private final int mask;
+    private final int publishThreshold;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Writer-local position of bytes copied in but not yet published
+    private long pendingTail;
+
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+
+    public RingPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RingPipe(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+        this.publishThreshold = size / 8;
+    }
+
+    public InputStream source() {
+        return source;
+    }
+
+    public OutputStream sink() {
+        return sink;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    private void publish() {
+        if (pendingTail != tail.get()) {
+            tail.set(pendingTail);
+        }
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    // Blocks until at least one byte can be written; returns the free byte count
+    private int awaitSpace() throws IOException {
+        while (true) {
+            if (readerClosed) {
+                throw new IOException("Broken pipe");
+            }
+            int free = buffer.length - (int) (pendingTail - head.get());
+            if (free > 0) {
+                return free;
+            }
+            // Make everything visible before sleeping so the reader can drain it
+            publish();
+            waitingWriter = Thread.currentThread();
+            try {
+                if (!readerClosed && buffer.length - (int) (pendingTail - head.get()) == 0) {
+                    park(true);
+                }
+            } finally {
+                waitingWriter = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("pipe write interrupted");
+            }
+        }
+    }
+
+    // Blocks until at least one byte is readable; returns the count, or -1 at end of stream
+    private int awaitData(long position) throws IOException {
+        while (true) {
+            if (readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            int available = (int) (tail.get() - position);
+            if (available > 0) {
+                return available;
+            }
+            if (writerClosed) {
+                available = (int) (tail.get() - position);
+                return available > 0 ? available : -1;
+            }
+            waitingReader = Thread.currentThread();
+            try {
+                if (!writerClosed && tail.get() == position) {
+                    park(false);
+                }
+            } finally {
+                waitingReader = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("pipe read interrupted");
+            }
+        }
+    }
+
+    // full: the writer waiting for space; otherwise the reader waiting for data
+    private void park(boolean full) {
+        PipeStallEvent event = new PipeStallEvent();
+        event.begin();
+        LockSupport.park(this);
+        if (event.shouldCommit()) {
+            event.full = full;
+            event.capacity = buffer.length;
+            event.commit();
+        }
+    }
+
+    private void release(long newHead) {
+        head.set(newHead);
+        Thread writer = waitingWriter;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            if (writerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            awaitSpace();
+            buffer[(int) pendingTail & mask] = (byte) b;
+            pendingTail++;
+            afterWrite();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (writerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            while (len > 0) {
+                int free = awaitSpace();
+                int index = (int) pendingTail & mask;
+                int chunk = Math.min(Math.min(free, len), buffer.length - index);
+                System.arraycopy(b, off, buffer, index, chunk);
+                pendingTail += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+            afterWrite();
+        }
+
+        // Reads straight from in into free ring space, skipping an intermediate copy
+        long transferFrom(InputStream in) throws IOException {
+            long total = 0;
+            while (true) {
+                int free = awaitSpace();
+                int index = (int) pendingTail & mask;
+                int n = in.read(buffer, index, Math.min(free, buffer.length - index));
+                if (n == -1) {
+                    return total;
+                }
+                pendingTail += n;
+                total += n;
+                if (in.available() == 0) {
+                    publish();
+                } else {
+                    afterWrite();
+                }
+            }
+        }
+
+        private void afterWrite() {
+            if (waitingReader != null || pendingTail - tail.get() >= publishThreshold) {
+                publish();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (readerClosed) {
+                throw new IOException("Broken pipe");
+            }
+            publish();
+        }
+
+        @Override
+        public void close() {
+            if (!writerClosed) {
+                publish();
+                writerClosed = true;
+                Thread reader = waitingReader;
+                if (reader != null) {
+                    LockSupport.unpark(reader);
+                }
+            }
+        }
+    }
+
+    private class Source extends InputStream {
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            if (awaitData(position) == -1) {
+                return -1;
+            }
+            int b = buffer[(int) position & mask] & 0xff;
+            release(++position);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int available = awaitData(position);
+            if (available == -1) {
+                return -1;
+            }
+            int index = (int) position & mask;
+            int n = Math.min(Math.min(available, len), buffer.length - index);
+            System.arraycopy(buffer, index, b, off, n);
+            position += n;
+            // Pick up the wrapped-around remainder in the same call
+            if (n < len && n < available) {
+                int more = Math.min(available - n, len - n);
+                System.arraycopy(buffer, 0, b, off + n, more);
+                position += more;
+                n += more;
+            }
+            release(position);
+            return n;
+        }
+
+        // Writes readable regions straight from the ring to out
+        long transferTo(OutputStream out, boolean flushWhenIdle) throws IOException {
+            long total = 0;
+            int available;
+            while ((available = awaitData(position)) != -1) {
+                int index = (int) position & mask;
+                int n = Math.min(available, buffer.length - index);
+                out.write(buffer, index, n);
+                position += n;
+                total += n;
+                release(position);
+                if (flushWhenIdle && tail.get() == position) {
+                    out.flush();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public int available() {
+            return readerClosed ? 0 : (int) (tail.get() - position);
+        }
+
+        @Override
+        public void close() {
+            if (!readerClosed) {
+                readerClosed = true;
+                Thread writer = waitingWriter;
+                if (writer != null) {
+                    LockSupport.unpark(writer);
+                }
+            }
+        }
+    }
+
+    static boolean isSource(InputStream in) {
+        return in instanceof RingPipe.Source;
+    }
+
+    static boolean isSink(OutputStream out) {
+        return out instanceof RingPipe.Sink;
+    }
+
+    static long transfer(InputStream in, OutputStream out) throws IOException {
+        if (in instanceof RingPipe.Source) {
+            return ((RingPipe.Source) in).transferTo(out, true);
+        }
+        return ((RingPipe.Sink) out).transferFrom(in);
+    }
+}
@@ -6,16 +6,30 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 public class StreamUtils {
-    public static void pipeData(InputStream in, OutputStream out, boolean closeOut) {
-        byte[] buffer = new byte[8192];
+    // Copies in to out and returns the byte count. A failed write is thrown, not swallowed:
+    // it usually means the reader has gone, and the caller has to stop producing.
+    public static long pipeData(InputStream in, OutputStream out, boolean closeOut) throws IOException {
         try {
+            // Ring pipes expose their buffer directly, so skip the intermediate copy
+            if (RingPipe.isSource(in) || RingPipe.isSink(out)) {
+                long total = RingPipe.transfer(in, out);
+                out.flush();
+                return total;
+            }
+            
+            byte[] buffer = new byte[8192];
+            long total = 0;
             int n;
             while ((n = in.read(buffer)) != -1) {
                 out.write(buffer, 0, n);
-                out.flush();
+                total += n;
+                // Only flush once the producer has nothing more queued
+                if (in.available() == 0) {
+                    out.flush();
+                }
             }
-        } catch (IOException e) {
-            // Stream closed or error
+            out.flush();
+            return total;
         } finally {
             closeQuietly(in);
             if (closeOut) {
@@ -0,0 +1,81 @@
+package shell.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Owns the terminal mode for the whole session. The line editor needs unbuffered, unechoed
+// input, which is switched on once and left on while builtins that return at once run; it is
+// handed back (suspended) before a foreground child or any longer builtin runs, so Ctrl-C
+// reaches them, and restored on exit.
+//
+// Output processing (OPOST) stays enabled so builtin output still gets \n -> \r\n.
+public class Terminal {
+    private static final File TTY = new File("/dev/tty");
+    private static final String[] EDITOR_MODE = {"-icanon", "-echo", "-isig", "-ixon", "-iexten", "min", "1", "time", "0"};
+
+    private static String savedSettings;
+    private static boolean editorMode;
+    private static boolean unavailable;
+
+    public static boolean isInteractive() {
+        return System.console() != null;
+    }
+
+    // Switches to line-editor mode if the terminal is not already in it; false when there is no TTY
+    public static synchronized boolean enableRawMode() {
+        if (editorMode) {
+            return true;
+        }
+        if (unavailable || !isInteractive()) {
+            return false;
+        }
+
+        if (savedSettings == null) {
+            savedSettings = stty("-g");
+            if (savedSettings == null || savedSettings.isEmpty()) {
+                unavailable = true;
+                return false;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(Terminal::restore, "terminal-restore"));
+        }
+
+        editorMode = stty(EDITOR_MODE) != null;
+        if (!editorMode) {
+            unavailable = true;
+        }
+        return editorMode;
+    }
+
+    // Gives the terminal back in its original mode before a foreground child runs
+    public static synchronized void suspend() {
+        if (editorMode) {
+            stty(savedSettings);
+            editorMode = false;
+        }
+    }
+
+    public static synchronized void restore() {
+        suspend();
+    }
+
+    private static String stty(String... args) {
+        List<String> command = new ArrayList<>(args.length + 1);
+        command.add("stty");
+        command.addAll(List.of(args));
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectInput(TTY)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes()).trim();
+            return process.waitFor() == 0 ? output : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
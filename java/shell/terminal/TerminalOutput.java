@@ -0,0 +1,160 @@
+package shell.terminal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// What the shell writes to the terminal, gathered in one reusable byte buffer and handed to
+// the stream in a single write when flushed: a keystroke's echo, a redrawn line or a page of
+// history is one write instead of one per character or per printf. Text is encoded by hand,
+// ASCII straight into the buffer and anything else as UTF-8, and numbers are formatted
+// without going through Formatter.
+//
+// Like PrintStream, a failed write does not throw; it is remembered for checkError, so a
+// listing piped into a reader that went away can stop early.
+public final class TerminalOutput {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final byte[] SPACES = "                                ".getBytes();
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+    private boolean error;
+
+    public TerminalOutput(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    public TerminalOutput(OutputStream out, int capacity) {
+        this.out = out;
+        this.buffer = new byte[Math.max(capacity, 64)];
+    }
+
+    public synchronized TerminalOutput append(char c) {
+        if (count + 3 > buffer.length) {
+            drain();
+        }
+        encode(c);
+        return this;
+    }
+
+    public synchronized TerminalOutput append(CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (count + 4 > buffer.length) {
+                drain();
+            }
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | cp >> 18);
+                buffer[count++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buffer[count++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buffer[count++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                encode(c);
+            }
+        }
+        return this;
+    }
+
+    // n right-aligned in width columns: printf("%5d", n) for history numbers
+    public synchronized TerminalOutput append(long n, int width) {
+        if (count + 20 + Math.min(width, SPACES.length) > buffer.length) {
+            drain();
+        }
+        int digits = 1;
+        for (long rest = Math.abs(n / 10); rest > 0; rest /= 10) {
+            digits++;
+        }
+        int length = digits + (n < 0 ? 1 : 0);
+        int pad = Math.min(Math.max(0, width - length), SPACES.length);
+        System.arraycopy(SPACES, 0, buffer, count, pad);
+        count += pad;
+        if (n < 0) {
+            buffer[count++] = '-';
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + Math.abs(n % 10));
+            n /= 10;
+        }
+        count = end;
+        return this;
+    }
+
+    public synchronized TerminalOutput spaces(int n) {
+        while (n > 0) {
+            if (count + SPACES.length > buffer.length) {
+                drain();
+            }
+            int chunk = Math.min(n, SPACES.length);
+            System.arraycopy(SPACES, 0, buffer, count, chunk);
+            count += chunk;
+            n -= chunk;
+        }
+        return this;
+    }
+
+    public TerminalOutput newline() {
+        return append(System.lineSeparator());
+    }
+
+    // Replaces what is on screen from the start of the current prompt: moves up over the rows
+    // the old text wrapped onto, clears to the end of the screen and writes prompt and line.
+    // shown is how many columns the old prompt and line took; returns the new count.
+    public synchronized int redraw(int shown, CharSequence prompt, CharSequence line, int columns) {
+        int rows = shown > 0 ? (shown - 1) / Math.max(1, columns) : 0;
+        if (rows > 0) {
+            append("\033[").append(rows, 0).append('A');
+        }
+        append("\r\033[J").append(prompt).append(line);
+        return prompt.length() + line.length();
+    }
+
+    // Writes the buffer out and flushes the stream
+    public synchronized void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    public synchronized boolean checkError() {
+        flush();
+        // A PrintStream underneath keeps its own errors instead of throwing
+        return error || out instanceof PrintStream && ((PrintStream) out).checkError();
+    }
+
+    private void encode(char c) {
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | c >> 6);
+            buffer[count++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) (0xe0 | c >> 12);
+            buffer[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+            buffer[count++] = (byte) (0x80 | c & 0x3f);
+        }
+    }
+
+    private void drain() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            if (!error) {
+                out.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            error = true;
+        } finally {
+            count = 0;
+        }
+    }
+}